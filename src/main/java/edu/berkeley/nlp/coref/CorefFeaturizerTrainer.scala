@@ -1,12 +1,15 @@
 package edu.berkeley.nlp.coref
 
+import java.util.concurrent.{Callable, ExecutionException}
+
 import edu.berkeley.nlp.coref.bp.DocumentFactorGraph
 import edu.berkeley.nlp.coref.config.CorefSystemConfiguration
-import edu.berkeley.nlp.futile.fig.basic.SysInfoUtils
+import edu.berkeley.nlp.futile.fig.basic.{Indexer, SysInfoUtils}
 import edu.berkeley.nlp.futile.util.Logger
 
 import scala.collection.JavaConverters.asScalaBufferConverter
-import scala.collection.mutable.HashSet
+import scala.collection.mutable.{ArrayBuffer, HashSet}
+import scala.concurrent.forkjoin.ForkJoinPool
 
 
 class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
@@ -19,20 +22,32 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
     // Do all preprocessing of the training set necessary to compute features
     Logger.logss("Memory before featurization: " + SysInfoUtils.getUsedMemoryStr());
     Logger.startTrack("Featurizing (basic pass)");
-    var idx = 0;
-    for (docGraph <- docGraphs) {
-      if (idx % 5 == 0) {
-        Logger.logs("Featurizing (basic pass) " + idx + ", " + SysInfoUtils.getUsedMemoryStr() + ", " +
-          "" + featureIndexer.size());
-      }
-      docGraph.featurizeIndexNonPrunedUseCache(pairwiseIndexingFeaturizer);
-      idx += 1;
-      if (pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri != null) {
-        pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri.all.foreach(_.clearCache())
+    if (config.numFeaturizationThreads > 1 && docGraphs.size > 1) {
+      featurizeBasicParallel(docGraphs, pairwiseIndexingFeaturizer, config.numFeaturizationThreads);
+    } else {
+      var idx = 0;
+      for (docGraph <- docGraphs) {
+        if (idx % 5 == 0) {
+          Logger.logs("Featurizing (basic pass) " + idx + ", " + SysInfoUtils.getUsedMemoryStr() + ", " +
+            "" + featureIndexer.size());
+        }
+        val thesauri = pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri
+        if (thesauri != null && config.dtPrefetch) {
+          thesauri.prefetch(docGraph.getMentions())
+        }
+        docGraph.featurizeIndexNonPrunedUseCache(pairwiseIndexingFeaturizer);
+        idx += 1;
+        if (pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri != null) {
+          pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri.all.foreach(_.documentFinished())
+        }
       }
     }
     Logger.endTrack();
-    Logger.logss("Features after featurization: " + featureIndexer.size());
+    if (pairwiseIndexingFeaturizer.isHashing) {
+      Logger.logss("Features hashed to " + pairwiseIndexingFeaturizer.numFeatures + " weights");
+    } else {
+      Logger.logss("Features after featurization: " + featureIndexer.size());
+    }
     Logger.logss("\"Topic\" features after featurization: " +
       featureIndexer.getObjects.asScala.count(_.contains("Topic")))
     Logger.logss("\"Distrib\" features after featurization: " +
@@ -54,6 +69,15 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
             Logger.logss("Top 100 context scores: " + (thesaurus.contextScores.toList.sortBy(-_._2).take(100)))
           }
         }
+        for (metrics <- thesaurus.queryMetrics) {
+          Logger.logss("Lookups of thesaurus " + thesaurus.identifier + ":")
+          metrics.summarize().asScala.foreach(line => Logger.logss(line))
+          // every featurization pass reports its own lookups
+          metrics.reset()
+        }
+        Logger.logss("Caches of thesaurus " + thesaurus.identifier + ":")
+        thesaurus.cacheSummary.foreach(line => Logger.logss(line))
+        thesaurus.resetCacheStatistics()
       }
 
       Logger.logss("First 100 thesaurus features:" + featureIndexer.getObjects.asScala.filter(_.startsWith("DT"))
@@ -63,6 +87,80 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
     Logger.logss("Memory after featurization: " + SysInfoUtils.getUsedMemoryStr());
   }
 
+  /**
+   * Featurizes the documents on several threads, each document with an indexer of its own. The documents are taken in
+   * batches of a few documents per thread. Once a batch is done, its documents are renumbered with the featurizer's
+   * indexer in document order, which gives every feature the index it gets when featurizing sequentially, and the
+   * thesauri are told that a document is finished, so that a batch shares the per-document caches.
+   *
+   * A document with more non-pruned edges than `featurizationBlockPairs` (if positive) forms a batch of its own and is
+   * split into blocks of rows featurized by all threads, see [[DocumentGraph.featurizeIndexNonPrunedInBlocks]].
+   */
+  private def featurizeBasicParallel(docGraphs: Seq[DocumentGraph], pairwiseIndexingFeaturizer: PairwiseIndexingFeaturizer,
+                                     numThreads: Int) {
+    val featureIndexer = pairwiseIndexingFeaturizer.getIndexer;
+    val thesauri = pairwiseIndexingFeaturizer.mentionPropertyComputer.thesauri;
+    val blockPairs = config.featurizationBlockPairs;
+    def isLong(docGraph: DocumentGraph) = blockPairs > 0 && docGraph.numNonPrunedEdges > blockPairs;
+
+    val batches = new ArrayBuffer[Seq[DocumentGraph]]();
+    var currentBatch = new ArrayBuffer[DocumentGraph]();
+    for (docGraph <- docGraphs) {
+      if (isLong(docGraph) ||
+        currentBatch.size == numThreads * CorefFeaturizerTrainer.DocumentsPerFeaturizationThread) {
+        if (!currentBatch.isEmpty) batches += currentBatch;
+        currentBatch = new ArrayBuffer[DocumentGraph]();
+      }
+      currentBatch += docGraph;
+      if (isLong(docGraph)) {
+        batches += currentBatch;
+        currentBatch = new ArrayBuffer[DocumentGraph]();
+      }
+    }
+    if (!currentBatch.isEmpty) batches += currentBatch;
+
+    val pool = new ForkJoinPool(numThreads);
+    try {
+      var idx = 0;
+      for (batch <- batches) {
+        Logger.logs("Featurizing (basic pass) " + idx + "-" + (idx + batch.size - 1) + " on " + numThreads +
+          " threads, " + SysInfoUtils.getUsedMemoryStr() + ", " + featureIndexer.size());
+        if (batch.size == 1 && isLong(batch(0))) {
+          if (thesauri != null && config.dtPrefetch) {
+            thesauri.prefetch(batch(0).getMentions())
+          }
+          batch(0).featurizeIndexNonPrunedInBlocks(pairwiseIndexingFeaturizer, pool, blockPairs);
+        } else {
+          val tasks = batch.filter(!_.isFeaturizedWith(pairwiseIndexingFeaturizer)).map(docGraph => {
+            pool.submit(new Callable[(DocumentGraph, Array[Array[Seq[Int]]], Indexer[String])] {
+              override def call() = {
+                if (thesauri != null && config.dtPrefetch) {
+                  thesauri.prefetch(docGraph.getMentions())
+                }
+                val localIndexer = new Indexer[String]();
+                (docGraph, docGraph.featurizeIndexNonPrunedLocally(pairwiseIndexingFeaturizer, localIndexer), localIndexer)
+              }
+            })
+          });
+          for (task <- tasks) {
+            val (docGraph, localFeats, localIndexer) = try {
+              task.get()
+            } catch {
+              case e: ExecutionException => throw e.getCause
+            }
+            docGraph.cacheLocallyIndexedFeats(pairwiseIndexingFeaturizer, localFeats, localIndexer);
+          }
+        }
+        idx += batch.size;
+        if (thesauri != null) {
+          thesauri.all.foreach(_.documentFinished())
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   def featurizeRahmanAddToIndexer(docGraphs: Seq[DocumentGraph], featurizer: PairwiseIndexingFeaturizer,
                                   entityFeaturizer: EntityFeaturizer) {
     // Could potentially do this for all DocumentGraphs but right now the
@@ -98,9 +196,13 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
                    numItrs: Int,
                    inferencer: DocumentInferencer): Array[Double] = {
     //    val weights = Array.fill(pairwiseIndexingFeaturizer.featureIndexer.size)(0.0);
-    val weights = inferencer.getInitialWeightVector(pairwiseIndexingFeaturizer.getIndexer);
-    val reusableGradientArray = Array.fill(pairwiseIndexingFeaturizer.getIndexer.size)(0.0);
-    val diagGt = Array.fill(pairwiseIndexingFeaturizer.getIndexer.size)(0.0);
+    val weights = inferencer.getInitialWeightVector(pairwiseIndexingFeaturizer.numFeatures);
+    val reusableGradientArray = Array.fill(pairwiseIndexingFeaturizer.numFeatures)(0.0);
+    val diagGt = Array.fill(pairwiseIndexingFeaturizer.numFeatures)(0.0);
+    // with sparse updates, the number of steps taken when each weight was last updated
+    val sparseUpdates = inferencer.usesOnlyPairwiseFeats;
+    val lastSteps = if (sparseUpdates) new Array[Int](weights.length) else null;
+    var step = 0;
     for (i <- 0 until numItrs) {
       Logger.logss("ITERATION " + i);
       val startTime = System.nanoTime();
@@ -109,16 +211,34 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
       Logger.startTrack("Computing gradient");
       for (exAndIndex <- trainDocGraphs.view.zipWithIndex) {
         Logger.logs("Computing gradient on " + exAndIndex._2);
-        takeAdagradStepL1R(exAndIndex._1,
-          inferencer,
-          new PairwiseScorer(pairwiseIndexingFeaturizer, weights),
-          reusableGradientArray,
-          diagGt,
-          eta,
-          lambda,
-          lossFcn,
-          weights);
-        require(!GUtil.containsNaNOrNegInf(weights));
+        if (sparseUpdates) {
+          takeSparseAdagradStepL1R(exAndIndex._1,
+            inferencer,
+            new PairwiseScorer(pairwiseIndexingFeaturizer, weights),
+            reusableGradientArray,
+            diagGt,
+            lastSteps,
+            step,
+            eta,
+            lambda,
+            lossFcn,
+            weights);
+        } else {
+          takeAdagradStepL1R(exAndIndex._1,
+            inferencer,
+            new PairwiseScorer(pairwiseIndexingFeaturizer, weights),
+            reusableGradientArray,
+            diagGt,
+            eta,
+            lambda,
+            lossFcn,
+            weights);
+          require(!GUtil.containsNaNOrNegInf(weights));
+        }
+        step += 1;
+      }
+      if (sparseUpdates) {
+        regularizeAllSkippedSteps(diagGt, lastSteps, step, eta, lambda, weights);
       }
       Logger.endTrack();
       Logger.logss("NONZERO WEIGHTS: " + weights.foldRight(0)((weight, count) => if (Math.abs(weight) > 1e-15) count
@@ -227,30 +347,142 @@ class CorefFeaturizerTrainer(config: CorefSystemConfiguration) {
                          lambda: Double,
                          lossFcn: (CorefDoc, Int, Int) => Double,
                          weights: Array[Double]) {
+    takeAdagradStepL1R(
+      (gradient: Array[Double]) => inferencer.addUnregularizedStochasticGradient(doc, pairwiseScorer, lossFcn, gradient),
+      reusableGradientArray, diagGt, eta, lambda, weights);
+  }
+
+  /**
+   * Adagrad step with the gradient that `addGradient` adds to the array it is given.
+   */
+  def takeAdagradStepL1R(addGradient: Array[Double] => Unit,
+                         reusableGradientArray: Array[Double],
+                         diagGt: Array[Double],
+                         eta: Double,
+                         lambda: Double,
+                         weights: Array[Double]) {
     for (i <- 0 until reusableGradientArray.length) {
       reusableGradientArray(i) = 0.0;
     }
     var nanoTime = System.nanoTime();
-    inferencer.addUnregularizedStochasticGradient(doc, pairwiseScorer, lossFcn, reusableGradientArray);
+    addGradient(reusableGradientArray);
     inferenceNanos += (System.nanoTime() - nanoTime);
     nanoTime = System.nanoTime();
     (0 until reusableGradientArray.length).par.foreach { i =>
-      val xti = pairwiseScorer.weights(i);
       // N.B. We negate the gradient here because the Adagrad formulas are all for minimizing
       // and we're trying to maximize, so think of it as minimizing the negative of the objective
       // which has the opposite gradient
-      // Equation (25) in http://www.cs.berkeley.edu/~jduchi/projects/DuchiHaSi10.pdf
-      // eta is the step size, lambda is the regularization
-      val gti = -reusableGradientArray(i);
-      // Update diagGt
-      diagGt(i) += gti * gti;
-      val Htii = 1 + Math.sqrt(diagGt(i));
-      // Avoid divisions at all costs...
-      val etaOverHtii = eta / Htii;
-      val newXti = xti - etaOverHtii * gti;
-      weights(i) = Math.signum(newXti) * Math.max(0, Math.abs(newXti) - lambda * etaOverHtii);
+      adagradUpdateL1R(i, -reusableGradientArray(i), diagGt, eta, lambda, weights);
+    }
+    adagradNanos += (System.nanoTime() - nanoTime);
+  }
+
+  /**
+   * Same as takeAdagradStepL1R, but only touches the weights of the features of the document, which must be the only
+   * ones the inferencer reads or adds to the gradient (see [[DocumentInferencer.usesOnlyPairwiseFeats]]).
+   *
+   * A weight without gradient keeps its sum of squared gradients, so each step only shrinks it towards 0 by the same
+   * amount. The steps a weight misses are therefore applied at once, before its features are scored again or at the
+   * end of the iteration, which gives the weights of the dense update. `lastSteps` holds the step up to which each
+   * weight is regularized and `step` is the number of this step. The gradient has to be 0 when this is called and is
+   * left at 0.
+   */
+  def takeSparseAdagradStepL1R(doc: DocumentGraph,
+                               inferencer: DocumentInferencer,
+                               pairwiseScorer: PairwiseScorer,
+                               reusableGradientArray: Array[Double],
+                               diagGt: Array[Double],
+                               lastSteps: Array[Int],
+                               step: Int,
+                               eta: Double,
+                               lambda: Double,
+                               lossFcn: (CorefDoc, Int, Int) => Double,
+                               weights: Array[Double]) {
+    val active = doc.featurizeIndexNonPrunedUseCache(pairwiseScorer.featurizer).weightIndices;
+    takeSparseAdagradStepL1R(active,
+      (gradient: Array[Double]) => inferencer.addUnregularizedStochasticGradient(doc, pairwiseScorer, lossFcn, gradient),
+      reusableGradientArray, diagGt, lastSteps, step, eta, lambda, weights);
+  }
+
+  /**
+   * Sparse Adagrad step for the weights `active`, given in increasing order, with the gradient that `addGradient`
+   * adds to the array it is given; it must not touch other weights.
+   */
+  def takeSparseAdagradStepL1R(active: Array[Int],
+                               addGradient: Array[Double] => Unit,
+                               reusableGradientArray: Array[Double],
+                               diagGt: Array[Double],
+                               lastSteps: Array[Int],
+                               step: Int,
+                               eta: Double,
+                               lambda: Double,
+                               weights: Array[Double]) {
+    var nanoTime = System.nanoTime();
+    var k = 0;
+    while (k < active.length) {
+      val i = active(k);
+      regularizeSkippedSteps(i, step - lastSteps(i), diagGt, eta, lambda, weights);
+      k += 1;
     }
     adagradNanos += (System.nanoTime() - nanoTime);
+    nanoTime = System.nanoTime();
+    addGradient(reusableGradientArray);
+    inferenceNanos += (System.nanoTime() - nanoTime);
+    nanoTime = System.nanoTime();
+    k = 0;
+    while (k < active.length) {
+      val i = active(k);
+      adagradUpdateL1R(i, -reusableGradientArray(i), diagGt, eta, lambda, weights);
+      require(!weights(i).isNaN && weights(i) != Double.NegativeInfinity);
+      reusableGradientArray(i) = 0.0;
+      lastSteps(i) = step + 1;
+      k += 1;
+    }
+    adagradNanos += (System.nanoTime() - nanoTime);
+  }
+
+  /**
+   * Applies the steps all weights have missed up to `step` after sparse Adagrad steps, which gives the weights of
+   * dense steps.
+   */
+  def regularizeAllSkippedSteps(diagGt: Array[Double], lastSteps: Array[Int], step: Int, eta: Double, lambda: Double,
+                                weights: Array[Double]) {
+    val nanoTime = System.nanoTime();
+    for (featIdx <- 0 until weights.length) {
+      regularizeSkippedSteps(featIdx, step - lastSteps(featIdx), diagGt, eta, lambda, weights);
+      lastSteps(featIdx) = step;
+    }
+    adagradNanos += (System.nanoTime() - nanoTime);
+  }
+
+  // Equation (25) in http://www.cs.berkeley.edu/~jduchi/projects/DuchiHaSi10.pdf for weight i with gradient gti of
+  // the objective to minimize; eta is the step size, lambda is the regularization
+  @inline private def adagradUpdateL1R(i: Int, gti: Double, diagGt: Array[Double], eta: Double, lambda: Double,
+                                       weights: Array[Double]) {
+    val xti = weights(i);
+    // Update diagGt
+    diagGt(i) += gti * gti;
+    val Htii = 1 + Math.sqrt(diagGt(i));
+    // Avoid divisions at all costs...
+    val etaOverHtii = eta / Htii;
+    val newXti = xti - etaOverHtii * gti;
+    weights(i) = Math.signum(newXti) * Math.max(0, Math.abs(newXti) - lambda * etaOverHtii);
+  }
+
+  // Applies the given number of steps with zero gradient to weight i; each shrinks it by the same amount
+  private def regularizeSkippedSteps(i: Int, steps: Int, diagGt: Array[Double], eta: Double, lambda: Double,
+                                     weights: Array[Double]) {
+    if (steps > 0 && weights(i) != 0.0) {
+      val shrinkage = steps * lambda * eta / (1 + Math.sqrt(diagGt(i)));
+      weights(i) = Math.signum(weights(i)) * Math.max(0, Math.abs(weights(i)) - shrinkage);
+    }
   }
 
-}
\ No newline at end of file
+}
+object CorefFeaturizerTrainer {
+  /**
+   * Documents per thread in a batch of parallel featurization. Larger batches even out differences in document length
+   * but keep the per-document thesaurus caches filled for more documents.
+   */
+  val DocumentsPerFeaturizationThread = 4
+}
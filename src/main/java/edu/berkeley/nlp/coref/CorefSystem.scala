@@ -101,7 +101,11 @@ class CorefSystem(val config: CorefSystemConfiguration) {
                             lexicalCounts: LexicalCountsBundle) = {
     new PairwiseIndexingFeaturizerJoint(featureIndexer, config.pairwiseFeats, config.conjType, config.dtConjType,
       config.dtRemoveIncompatibleTermsK, config.discretizeIntervalFactor, config.chimergeIntervalsFile,
-      lexicalCounts, propertyComputer)
+      lexicalCounts, propertyComputer, createFeatureHasher())
+  }
+
+  def createFeatureHasher() = {
+    if (config.featureHashingBits > 0) new FeatureHasher(config.featureHashingBits, config.signedFeatureHashing) else null
   }
 
   /*def runTrainEvaluate(trainDocs: => Seq[BaseDoc], testDocs: => Seq[BaseDoc], modelPath: String,
@@ -312,7 +316,7 @@ class CorefSystem(val config: CorefSystemConfiguration) {
     val secondPassBasicFeaturizer = new PairwiseIndexingFeaturizerJoint(secondPassFeatureIndexer,
       config.pairwiseFeatsSecondPass, config.conjTypeSecondPass, config.dtConjType,
       config.dtRemoveIncompatibleTermsK, config.discretizeIntervalFactor, config.chimergeIntervalsFile,
-      lexicalCounts, propertyComputer)
+      lexicalCounts, propertyComputer, createFeatureHasher())
 
     // Explicitly clear the caches and refeaturize the documents
     trainDocGraphs.foreach(_.cacheEmpty = true)
@@ -369,6 +373,9 @@ class CorefSystem(val config: CorefSystemConfiguration) {
    */
   def outputWeights(modelPath: String) {
     val model = CorefSystem.loadModelFile(modelPath)
+    if (model.scorer.featurizer.isHashing) {
+      throw new RuntimeException("The model hashes its features, their names are unknown")
+    }
     val weightPairs = new ListBuffer[(String, Double)]
 
     for (i <- 0 until model.scorer.numWeights) {
@@ -3,7 +3,9 @@ package edu.berkeley.nlp.coref
 import scala.collection.JavaConverters._
 import scala.collection.mutable.ArrayBuffer
 import scala.collection.mutable.HashMap
+import scala.concurrent.forkjoin.{ForkJoinPool, RecursiveTask}
 import scala.util.Random
+import edu.berkeley.nlp.futile.fig.basic.Indexer
 import edu.berkeley.nlp.futile.util.Counter
 import edu.berkeley.nlp.futile.util.Iterators
 import edu.berkeley.nlp.futile.util.Logger
@@ -14,10 +16,7 @@ class DocumentGraph(val corefDoc: CorefDoc,
   // addToFeaturizer should be true for train documents (if a feature is unseen on
   // these, we add it to the featurizer) and false for dev/test documents
   // By convention: a feature vector is empty if it has been pruned
-  var cachedFeats = new Array[Array[Seq[Int]]](corefDoc.numPredMents);
-  for (i <- 0 until corefDoc.numPredMents) {
-    cachedFeats(i) = Array.fill(i + 1)(Seq[Int]());
-  }
+  var cachedFeats = FeatureChart.empty(corefDoc.numPredMents);
   // These are just here so we don't have to reinstantiate them; they should
   // be overwritten every time the weights change (which is all the time)
   val cachedScoreMatrix = new Array[Array[Double]](corefDoc.numPredMents);
@@ -68,6 +67,8 @@ class DocumentGraph(val corefDoc: CorefDoc,
 
   def isPruned(currIdx: Int, antecedentIdx: Int): Boolean = prunedEdges(currIdx)(antecedentIdx);
 
+  def numNonPrunedEdges: Int = prunedEdges.foldLeft(0)((count, row) => count + row.count(pruned => !pruned));
+
   def getPrunedDomain(idx: Int, gold: Boolean): Array[Int] = {
     val currAntecedents = getGoldAntecedentsUnderCurrentPruning(idx);
     val domainSeq = new ArrayBuffer[Int]();
@@ -87,10 +88,10 @@ class DocumentGraph(val corefDoc: CorefDoc,
         if (j < i - maxBackptrMentDistance || (getMention(i).mentionType == MentionType.PRONOMINAL && iSentIdx -
           jSentIdx > maxPronounSentDistance)) {
           prunedEdges(i)(j) = true;
-          cachedFeats(i)(j) = Seq[Int]();
         }
       }
     }
+    cachedFeats = cachedFeats.withoutPruned(prunedEdges);
   }
 
   private def pruneEdgesLogRatio(scorer: PairwiseScorer,
@@ -105,11 +106,11 @@ class DocumentGraph(val corefDoc: CorefDoc,
       for (backptrToPrune <- 0 to i) {
         if (scoresChart(i)(backptrToPrune) + logRatio < bestScore) {
           prunedEdges(i)(backptrToPrune) = true;
-          cachedFeats(i)(backptrToPrune) = Seq[Int]();
         }
       }
       require(prunedEdges(i).foldLeft(false)((curr, isPruned) => curr || !isPruned), "Everyone was pruned for " + i);
     }
+    cachedFeats = cachedFeats.withoutPruned(prunedEdges);
   }
 
   private def computePruningStats(): PruningStats = {
@@ -211,8 +212,7 @@ class DocumentGraph(val corefDoc: CorefDoc,
   // N.B. The matrices returned by this method are volatile. The feats one hangs around
   // unless you refeaturize, but the other one gets mutated every time you call this
   // method (though obviously it's only different if you prune or if the weights have changed).
-  def featurizeIndexAndScoreNonPrunedUseCache(scorer: PairwiseScorer): (Array[Array[Seq[Int]]],
-    Array[Array[Double]]) = {
+  def featurizeIndexAndScoreNonPrunedUseCache(scorer: PairwiseScorer): (FeatureChart, Array[Array[Double]]) = {
     val featsChart = featurizeIndexNonPrunedUseCache(scorer.featurizer);
     //    val scoreChart = new Array[Array[Double]](corefDoc.numPredMents);
     val scoreChart = cachedScoreMatrix;
@@ -220,8 +220,8 @@ class DocumentGraph(val corefDoc: CorefDoc,
       //      scoreChart(i) = Array.fill(i + 1)(Double.NegativeInfinity);
       for (j <- 0 to i) {
         if (!prunedEdges(i)(j)) {
-          require(featsChart(i)(j).size > 0);
-          scoreChart(i)(j) = scorer.scoreIndexedFeats(featsChart(i)(j));
+          require(featsChart.numFeats(i, j) > 0);
+          scoreChart(i)(j) = scorer.scoreIndexedFeats(featsChart, i, j);
         } else {
           scoreChart(i)(j) = Double.NegativeInfinity;
         }
@@ -230,37 +230,145 @@ class DocumentGraph(val corefDoc: CorefDoc,
     (featsChart, scoreChart)
   }
 
-  def featurizeIndexNonPrunedUseCache(featurizer: PairwiseIndexingFeaturizer): Array[Array[Seq[Int]]] = {
-    if (cacheEmpty || featurizer != cachedFeaturizer) {
-      cachedFeats = featurizeIndexNonPruned(featurizer);
+  def isFeaturizedWith(featurizer: PairwiseIndexingFeaturizer) = !cacheEmpty && featurizer == cachedFeaturizer;
+
+  def featurizeIndexNonPrunedUseCache(featurizer: PairwiseIndexingFeaturizer): FeatureChart = {
+    if (!isFeaturizedWith(featurizer)) {
+      cachedFeats = FeatureChart(featurizeIndexNonPruned(featurizer));
       cachedFeaturizer = featurizer;
       cacheEmpty = false;
     }
     cachedFeats;
   }
 
+  // Featurizes like featurizeIndexNonPruned, but numbers the features with the given indexer, which
+  // only this document uses; the featurizer's indexer and the cache are untouched, so several documents
+  // can be featurized at once. The chart is passed to cacheLocallyIndexedFeats afterwards. Hashed
+  // features are not indexed at all and stay as they are.
+  def featurizeIndexNonPrunedLocally(featurizer: PairwiseIndexingFeaturizer,
+                                     localIndexer: Indexer[String]): Array[Array[Seq[Int]]] = {
+    if (featurizer.isHashing) {
+      featurizeIndexNonPruned(featurizer);
+    } else {
+      featurizer.indexLocally(localIndexer) {
+        featurizeIndexNonPruned(featurizer);
+      }
+    }
+  }
+
+  // Featurizes the non-pruned edges and caches them like featurizeIndexNonPrunedUseCache, splitting the
+  // rows into blocks of about blockPairs non-pruned edges that the pool featurizes in parallel, each block
+  // writing only its own rows of the chart. For a train document, every block numbers its features with
+  // an indexer of its own and the blocks are renumbered in row order afterwards, which gives the same
+  // indices as a sequential pass. Otherwise the featurizer's indexer is only read, which needs no lock.
+  def featurizeIndexNonPrunedInBlocks(featurizer: PairwiseIndexingFeaturizer, pool: ForkJoinPool,
+                                      blockPairs: Int): FeatureChart = {
+    if (!isFeaturizedWith(featurizer)) {
+      // rowOffsets(i) is the number of non-pruned edges in the rows before row i
+      val rowOffsets = new Array[Int](corefDoc.numPredMents + 1);
+      for (i <- 0 until corefDoc.numPredMents) {
+        rowOffsets(i + 1) = rowOffsets(i) + prunedEdges(i).count(pruned => !pruned);
+      }
+      val featsChart = newFeatsChart();
+      val blocks = pool.invoke(new RowBlockTask(featurizer, featsChart, rowOffsets, 0, corefDoc.numPredMents,
+        math.max(1, blockPairs)));
+      cacheLocallyIndexedFeats(featurizer, featsChart, blocks);
+    }
+    cachedFeats;
+  }
+
+  // Featurizes the rows [start, end) into the chart, halving the range until it holds at most blockPairs
+  // non-pruned edges or a single row. Returns the first row and the indexer of each block in row order,
+  // none if the features are looked up in the featurizer's indexer or hashed.
+  private class RowBlockTask(featurizer: PairwiseIndexingFeaturizer, featsChart: Array[Array[Seq[Int]]],
+                             rowOffsets: Array[Int], start: Int, end: Int, blockPairs: Int)
+    extends RecursiveTask[List[(Int, Indexer[String])]] {
+    override def compute(): List[(Int, Indexer[String])] = {
+      if (end - start <= 1 || rowOffsets(end) - rowOffsets(start) <= blockPairs) {
+        if (addToFeaturizer && !featurizer.isHashing) {
+          val localIndexer = new Indexer[String]();
+          featurizer.indexLocally(localIndexer) {
+            featurizeRows(featurizer, featsChart, start, end);
+          }
+          List((start, localIndexer));
+        } else {
+          featurizeRows(featurizer, featsChart, start, end);
+          Nil;
+        }
+      } else {
+        // split where half of the edges are on either side, leaving at least one row per half
+        val halfOffset = (rowOffsets(start) + rowOffsets(end)) / 2;
+        var middle = start + 1;
+        while (middle < end - 1 && rowOffsets(middle) < halfOffset) {
+          middle += 1;
+        }
+        val first = new RowBlockTask(featurizer, featsChart, rowOffsets, start, middle, blockPairs);
+        first.fork();
+        val secondBlocks = new RowBlockTask(featurizer, featsChart, rowOffsets, middle, end, blockPairs).compute();
+        first.join() ++ secondBlocks;
+      }
+    }
+  }
+
+  // Renumbers a chart of featurizeIndexNonPrunedLocally with the featurizer's indexer and caches it packed.
+  // The features are looked up in the order they were first seen in this document, so new features get
+  // the same indices as if the document had been featurized by featurizeIndexNonPrunedUseCache now.
+  def cacheLocallyIndexedFeats(featurizer: PairwiseIndexingFeaturizer, localFeats: Array[Array[Seq[Int]]],
+                               localIndexer: Indexer[String]) {
+    cacheLocallyIndexedFeats(featurizer, localFeats, List((0, localIndexer)));
+  }
+
+  // Same for a chart whose rows were numbered by several indexers, given with the first row each
+  // numbered, in row order. Hashed features are cached as they are.
+  private def cacheLocallyIndexedFeats(featurizer: PairwiseIndexingFeaturizer, localFeats: Array[Array[Seq[Int]]],
+                                       blocks: List[(Int, Indexer[String])]) {
+    // the renumbering of each row, left empty for hashed features
+    val renumberings = new Array[Array[Int]](localFeats.size);
+    if (!featurizer.isHashing) {
+      val blockEnds = blocks.drop(1).map(_._1) :+ localFeats.size;
+      for (((start, localIndexer), end) <- blocks.zip(blockEnds)) {
+        val indices = new Array[Int](localIndexer.size);
+        for (k <- 0 until indices.size) {
+          indices(k) = featurizer.getIndex(localIndexer.getObject(k), addToFeaturizer);
+        }
+        for (i <- start until end) {
+          renumberings(i) = indices;
+        }
+      }
+    }
+    cachedFeats = FeatureChart(localFeats, renumberings);
+    cachedFeaturizer = featurizer;
+    cacheEmpty = false;
+  }
+
   private def featurizeIndexNonPruned(featurizer: PairwiseIndexingFeaturizer): Array[Array[Seq[Int]]] = {
+    val featsChart = newFeatsChart();
+    featurizeRows(featurizer, featsChart, 0, corefDoc.numPredMents);
+    featsChart;
+  }
+
+  private def newFeatsChart(): Array[Array[Seq[Int]]] = {
     val featsChart = new Array[Array[Seq[Int]]](corefDoc.numPredMents);
     for (i <- 0 until corefDoc.numPredMents) {
       featsChart(i) = Array.fill(i + 1)(Seq[Int]());
+    }
+    featsChart;
+  }
+
+  private def featurizeRows(featurizer: PairwiseIndexingFeaturizer, featsChart: Array[Array[Seq[Int]]], start: Int,
+                            end: Int) {
+    for (i <- start until end) {
       for (j <- 0 to i) {
         if (!prunedEdges(i)(j)) {
           featsChart(i)(j) = featurizer.featurizeIndex(this, i, j, addToFeaturizer);
         }
       }
     }
-    featsChart;
   }
 
   def setPrunedEdges(prunedEdges: Array[Array[Boolean]]) {
     this.prunedEdges = prunedEdges;
-    for (i <- 0 until prunedEdges.size) {
-      for (j <- 0 until prunedEdges(i).size) {
-        if (prunedEdges(i)(j)) {
-          cachedFeats(i)(j) = Seq[Int]();
-        }
-      }
-    }
+    cachedFeats = cachedFeats.withoutPruned(prunedEdges);
   }
 
   def printAverageFeatureCountInfo() {
@@ -269,13 +377,13 @@ class DocumentGraph(val corefDoc: CorefDoc,
     var numerNonanaphoric = 0;
     var denomNonanaphoric = 0;
     for (i <- 0 until cachedFeats.size) {
-      for (j <- 0 until cachedFeats(i).size) {
+      for (j <- 0 to i) {
         if (!prunedEdges(i)(j)) {
           if (i != j) {
-            numerAnaphoric += cachedFeats(i)(j).size;
+            numerAnaphoric += cachedFeats.numFeats(i, j);
             denomAnaphoric += 1;
           } else {
-            numerNonanaphoric += cachedFeats(i)(j).size;
+            numerNonanaphoric += cachedFeats.numFeats(i, j);
             denomNonanaphoric += 1;
           }
         }
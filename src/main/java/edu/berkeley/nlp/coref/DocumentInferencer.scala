@@ -4,7 +4,7 @@ import edu.berkeley.nlp.futile.fig.basic.Indexer
 
 trait DocumentInferencer {
   
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double];
+  def getInitialWeightVector(numFeatures: Int): Array[Double];
   
   def computeLikelihood(docGraph: DocumentGraph,
                         pairwiseScorer: PairwiseScorer,
@@ -14,6 +14,12 @@ trait DocumentInferencer {
                                          pairwiseScorer: PairwiseScorer,
                                          lossFcn: (CorefDoc, Int, Int) => Double,
                                          gradient: Array[Double]);
+
+  /**
+   * Whether the scores and the gradient of a document only involve the features of its mention pairs, as cached by
+   * the document graph. The trainer then only updates the weights of these features after each document.
+   */
+  def usesOnlyPairwiseFeats: Boolean = false;
   
   def viterbiDecode(docGraph: DocumentGraph,
                     pairwiseScorer: PairwiseScorer): Array[Int];
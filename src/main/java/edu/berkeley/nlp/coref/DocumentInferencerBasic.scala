@@ -5,7 +5,9 @@ import edu.berkeley.nlp.futile.fig.basic.Indexer
 
 class DocumentInferencerBasic(val config: CorefSystemConfiguration) extends DocumentInferencer {
 
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double] = Array.fill(featureIndexer.size())(0.0);
+  def getInitialWeightVector(numFeatures: Int): Array[Double] = Array.fill(numFeatures)(0.0);
+
+  override def usesOnlyPairwiseFeats: Boolean = true;
 
   /**
    * N.B. always returns a reference to the same matrix, so don't call twice in a row and
@@ -81,7 +83,7 @@ class DocumentInferencerBasic(val config: CorefSystemConfiguration) extends Docu
     for (i <- 0 until docGraph.size) {
       for (j <- 0 to i) {
         if (predMarginals(i)(j) > 1e-20) {
-          addToGradient(featsChart(i)(j), -predMarginals(i)(j), gradient);
+          featsChart.addToGradient(i, j, -predMarginals(i)(j), gradient);
         }
       }
     }
@@ -89,21 +91,12 @@ class DocumentInferencerBasic(val config: CorefSystemConfiguration) extends Docu
     for (i <- 0 until docGraph.size) {
       for (j <- 0 to i) {
         if (goldMarginals(i)(j) > 1e-20) {
-          addToGradient(featsChart(i)(j), goldMarginals(i)(j), gradient);
+          featsChart.addToGradient(i, j, goldMarginals(i)(j), gradient);
         }
       }
     }
   }
 
-  private def addToGradient(feats: Seq[Int], scale: Double, gradient: Array[Double]) {
-    var i = 0;
-    while (i < feats.size) {
-      val feat = feats(i);
-      gradient(feat) += 1.0 * scale;
-      i += 1;
-    }
-  }
-
   def viterbiDecode(docGraph: DocumentGraph, scorer: PairwiseScorer): Array[Int] = {
     val (featsChart, scoresChart) = docGraph.featurizeIndexAndScoreNonPrunedUseCache(scorer);
     if (config.decodeType == "sum") {
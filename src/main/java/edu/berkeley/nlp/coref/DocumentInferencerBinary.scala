@@ -8,7 +8,9 @@ class DocumentInferencerBinary(val logThreshold: Double,
                                val clusterType: String,
                                val negativeClassWeight: Double) extends DocumentInferencer {
   
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double] = Array.fill(featureIndexer.size())(0.0);
+  def getInitialWeightVector(numFeatures: Int): Array[Double] = Array.fill(numFeatures)(0.0);
+
+  override def usesOnlyPairwiseFeats: Boolean = true;
   
   private def subsample(docGraph: DocumentGraph, i: Int): Seq[Int] = {
     (0 until i);
@@ -45,23 +47,14 @@ class DocumentInferencerBinary(val logThreshold: Double,
       for (j <- subsample(docGraph, i)) {
         val expedScore = Math.exp(scoresChart(i)(j));
         if (docGraph.isGoldNoPruning(i, j)) {
-          addToGradient(featsChart(i)(j), 1.0 - expedScore/(1.0 + expedScore), gradient);
+          featsChart.addToGradient(i, j, 1.0 - expedScore/(1.0 + expedScore), gradient);
         } else {
-          addToGradient(featsChart(i)(j), negativeClassWeight * -expedScore/(1.0 + expedScore), gradient);
+          featsChart.addToGradient(i, j, negativeClassWeight * -expedScore/(1.0 + expedScore), gradient);
         }
       }
     }
   }
   
-  private def addToGradient(feats: Seq[Int], scale: Double, gradient: Array[Double]) {
-    var i = 0;
-    while (i < feats.size) {
-      val feat = feats(i);
-      gradient(feat) += 1.0 * scale;
-      i += 1;
-    }
-  }
-
   def viterbiDecode(docGraph: DocumentGraph, scorer: PairwiseScorer): Array[Int] = {
     val (featsChart, scoresChart) = docGraph.featurizeIndexAndScoreNonPrunedUseCache(scorer);
     clusterType match {
@@ -24,7 +24,7 @@ class DocumentInferencerLoopy(config: CorefSystemConfiguration) extends Document
 
   //15; // 5
 
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double] = Array.fill(featureIndexer.size())(0.0);
+  def getInitialWeightVector(numFeatures: Int): Array[Double] = Array.fill(numFeatures)(0.0);
 
   /**
    * N.B. always returns a reference to the same matrix, so don't call twice in a row and
@@ -114,8 +114,12 @@ class DocumentInferencerLoopy(config: CorefSystemConfiguration) extends Document
     // RENDERING OF WEIGHTS
     if (renderWeights) {
       val fetchWeight = (featName: String) => {
-        val idx = pairwiseScorer.featurizer.getIndexer.indexOf(featName)
-        if (idx == -1) 1337.0 else pairwiseScorer.weights(idx);
+        if (pairwiseScorer.featurizer.isHashing) {
+          FeatureHasher.weightOf(pairwiseScorer.weights, pairwiseScorer.featurizer.getIndex(featName, false));
+        } else {
+          val idx = pairwiseScorer.featurizer.getIndexer.indexOf(featName)
+          if (idx == -1) 1337.0 else pairwiseScorer.weights(idx);
+        }
       }
       if (config.clusterFeats.contains("latent")) {
         val pairwiseFeats = pairwiseScorer.featurizer.getIndexer.getObjects.asScala.filter(_.contains
@@ -3,7 +3,7 @@ import edu.berkeley.nlp.futile.fig.basic.Indexer
 
 class DocumentInferencerOracle extends DocumentInferencer {
   
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double] = Array.fill(featureIndexer.size())(0.0);
+  def getInitialWeightVector(numFeatures: Int): Array[Double] = Array.fill(numFeatures)(0.0);
   
   def computeLikelihood(docGraph: DocumentGraph,
                         pairwiseScorer: PairwiseScorer,
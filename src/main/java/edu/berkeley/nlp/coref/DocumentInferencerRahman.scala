@@ -44,7 +44,7 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
   
   var wCounter = 0;
   
-  def getInitialWeightVector(featureIndexer: Indexer[String]): Array[Double] = Array.fill(featureIndexer.size())(0.0);
+  def getInitialWeightVector(numFeatures: Int): Array[Double] = Array.fill(numFeatures)(0.0);
   
   /**
    * N.B. always returns a reference to the same matrix, so don't call twice in a row and
@@ -84,11 +84,15 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
 //          }
 //          Logger.logss("Features for " + i + " -> " + j + ": " + entityFeatures.map(_.name));
           val entityFeatsScore = entityFeatures.foldLeft(0.0)((score, feat) => {
-            val featIdx = pairwiseScorer.featurizer.getIndexer.indexOf(feat.name);
-            if (featIdx == -1) {
+            val featIdx = if (pairwiseScorer.featurizer.isHashing) {
+              pairwiseScorer.featurizer.getIndex(feat.name, false);
+            } else {
+              pairwiseScorer.featurizer.getIndexer.indexOf(feat.name);
+            }
+            if (featIdx == -1 && !pairwiseScorer.featurizer.isHashing) {
               throw new RuntimeException("Unknown feature: " + feat.name);
             }
-            score + pairwiseScorer.weights(featIdx)
+            score + FeatureHasher.weightOf(pairwiseScorer.weights, featIdx)
           });
           val unnormalizedProb = Math.exp(scoresChart(i)(j) + entityFeatsScore + lossFcn(docGraph.corefDoc, i, j));
           marginals(i)(j) = unnormalizedProb;
@@ -154,9 +158,9 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
       for (j <- 0 to i) {
         // Compute the features associated with this
         if (predMarginals(i)(j) > 1e-20) {
-          addToGradient(featsChart(i)(j), -predMarginals(i)(j), gradient);
+          featsChart.addToGradient(i, j, -predMarginals(i)(j), gradient);
           val entityFeatures = entityFeaturizer.featurize(docGraph, i, j, predMentClusterMapping.mentsToClusters, predMentClusterMapping.clustersToMents);
-          val indexedFeatures = entityFeaturizer.indexFeatures(entityFeatures, entityFeatureIndexer);
+          val indexedFeatures = indexEntityFeatures(entityFeatures, pairwiseScorer.featurizer);
           addToGradient(indexedFeatures, -predMarginals(i)(j), gradient);
           if (predMarginals(i)(j) > bestAntecedentScore) {
             bestAntecedentIdx = j;
@@ -183,9 +187,9 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
       var bestAntecedentScore = Double.NegativeInfinity;
       for (j <- 0 to i) {
         if (goldMarginals(i)(j) > 1e-20) {
-          addToGradient(featsChart(i)(j), goldMarginals(i)(j), gradient);
+          featsChart.addToGradient(i, j, goldMarginals(i)(j), gradient);
           val entityFeatures = entityFeaturizer.featurize(docGraph, i, j, goldMentClusterMapping.mentsToClusters, goldMentClusterMapping.clustersToMents);
-          val indexedFeatures = entityFeaturizer.indexFeatures(entityFeatures, entityFeatureIndexer);
+          val indexedFeatures = indexEntityFeatures(entityFeatures, pairwiseScorer.featurizer);
           addToGradient(indexedFeatures, goldMarginals(i)(j), gradient);
           if (goldMarginals(i)(j) > bestAntecedentScore) {
             bestAntecedentIdx = j;
@@ -201,7 +205,7 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
         goldMentClusterMapping.updateWithAssignment(i, goldAntecedents(i));
       }
     }
-    if (wCounter == 50 || wCounter % 1000 == 999) {
+    if ((wCounter == 50 || wCounter % 1000 == 999) && !pairwiseScorer.featurizer.isHashing) {
       val featIndexer = pairwiseScorer.featurizer.getIndexer;
       for (featIdx <- 0 until featIndexer.size) {
         var numDisplayed = 0;
@@ -213,12 +217,20 @@ class DocumentInferencerRahman(val entityFeaturizer: EntityFeaturizer,
     }
     wCounter += 1;
   }
+
+  private def indexEntityFeatures(entityFeatures: Seq[Feature], featurizer: PairwiseIndexingFeaturizer): Seq[Int] = {
+    if (featurizer.isHashing) {
+      entityFeatures.map(feat => featurizer.getIndex(feat.name, false));
+    } else {
+      entityFeaturizer.indexFeatures(entityFeatures, entityFeatureIndexer);
+    }
+  }
   
   private def addToGradient(feats: Seq[Int], scale: Double, gradient: Array[Double]) {
     var i = 0;
     while (i < feats.size) {
       val feat = feats(i);
-      gradient(feat) += 1.0 * scale;
+      FeatureHasher.addToGradient(gradient, feat, 1.0 * scale);
       i += 1;
     }
   }
@@ -99,6 +99,18 @@ public class Driver implements Runnable {
     @Option(gloss = "Whether distributed thesaurus information should be cached. The cache will be emptied after each" +
             " processed document.")
     public static boolean dtUseCache = true;
+    @Option(gloss = "Whether the thesaurus lookups of a document should be fetched with batched queries before " +
+            "featurizing it. Only effective if dtUseCache is enabled.")
+    public static boolean dtPrefetch = true;
+    @Option(gloss = "Megabytes the thesaurus caches may use together. If positive, lookups are cached across " +
+            "documents within this budget instead of being discarded after each document.")
+    public static int dtCacheMemoryBudget = 0;
+    @Option(gloss = "Class implementing org.jobimtext.api.metrics.QueryMetrics that measures the lookups of each " +
+            "thesaurus; the measurements are logged after featurization. Empty to disable.")
+    public static String dtQueryMetrics = "org.jobimtext.api.metrics.HistogramQueryMetrics";
+    @Option(gloss = "Whether context expansions should stop reading the score-sorted term lists of the context " +
+            "features once the best terms are certain. Only effective for thesauri that return sorted lists.")
+    public static boolean dtThresholdContextExpansion = false;
 
     // ORACLE OPTIONS
     @Option(gloss = "Use cheating clusters?")
@@ -134,6 +146,15 @@ public class Driver implements Runnable {
     public static String pruningStrategy = "distance:10000:5000";
     @Option(gloss = "Pruning strategy for fine pass")
     public static String pruningStrategySecondPass = "c2flogratio:2";
+    @Option(gloss = "Number of threads featurizing documents; the feature indices do not depend on it")
+    public static int numFeaturizationThreads = 1;
+    @Option(gloss = "With several featurization threads, documents with more mention pairs than this are split into " +
+            "blocks of about this many pairs that all threads featurize. 0 to featurize each document on one thread")
+    public static int featurizationBlockPairs = 0;
+    @Option(gloss = "Hash features to 2^bits weights instead of indexing them (at most 30). 0 to index features")
+    public static int featureHashingBits = 0;
+    @Option(gloss = "Give hashed features a hashed sign, so that collisions cancel out in expectation")
+    public static boolean signedFeatureHashing = true;
 
     @Option(gloss = "Inference type")
     public static InferenceType inferenceType = InferenceType.PAIRWISE;
@@ -330,6 +351,10 @@ public class Driver implements Runnable {
         config.setIncludeAppositives(includeAppositives);
         config.setPrintSigSuffStats(printSigSuffStats);
         config.setDtUseCache(dtUseCache);
+        config.setDtPrefetch(dtPrefetch);
+        config.setDtCacheMemoryBudget(dtCacheMemoryBudget);
+        config.setDtQueryMetrics(dtQueryMetrics);
+        config.setDtThresholdContextExpansion(dtThresholdContextExpansion);
         config.setCheat(cheat);
         config.setNumCheatingProperties(numCheatingProperties);
         config.setCheatingDomainSize(cheatingDomainSize);
@@ -343,6 +368,10 @@ public class Driver implements Runnable {
         config.setNumItrsSecondPass(numItrsSecondPass);
         config.setPruningStrategy(pruningStrategy);
         config.setPruningStrategySecondPass(pruningStrategySecondPass);
+        config.setNumFeaturizationThreads(numFeaturizationThreads);
+        config.setFeaturizationBlockPairs(featurizationBlockPairs);
+        config.setFeatureHashingBits(featureHashingBits);
+        config.setSignedFeatureHashing(signedFeatureHashing);
         config.setInferenceType(inferenceType);
         config.setPairwiseFeats(pairwiseFeats);
         config.setPairwiseFeatsSecondPass(pairwiseFeatsSecondPass);
@@ -0,0 +1,154 @@
+package edu.berkeley.nlp.coref
+
+/**
+ * The indexed features of the mention pairs of a document in compressed sparse row form. The features of all pairs
+ * are kept in a single array; pair (i, j) with j <= i is edge number i * (i + 1) / 2 + j, and its features are found
+ * between the offsets of that edge and of the next one. Pruned pairs have no features, so they only take up their
+ * offset. Scoring and gradient updates run over the array directly, without boxing the indices.
+ *
+ * @param size number of mentions
+ * @param offsets start of the features of each edge, followed by the total number of features
+ * @param feats the features of all edges in edge order
+ */
+final class FeatureChart private(val size: Int, private val offsets: Array[Int], private val feats: Array[Int]) {
+
+  private def edge(i: Int, j: Int): Int = {
+    require(j >= 0 && j <= i && i < size, "No mention pair " + i + " -> " + j);
+    i * (i + 1) / 2 + j;
+  }
+
+  def numFeats(i: Int, j: Int): Int = {
+    val e = edge(i, j);
+    offsets(e + 1) - offsets(e);
+  }
+
+  /**
+   * Copy of the features of a pair.
+   */
+  def apply(i: Int, j: Int): Array[Int] = {
+    val e = edge(i, j);
+    java.util.Arrays.copyOfRange(feats, offsets(e), offsets(e + 1));
+  }
+
+  /**
+   * Sum of the weights of the features of a pair.
+   */
+  def score(i: Int, j: Int, weights: Array[Double]): Double = {
+    val e = edge(i, j);
+    var k = offsets(e);
+    val end = offsets(e + 1);
+    var total = 0.0;
+    while (k < end) {
+      total += FeatureHasher.weightOf(weights, feats(k));
+      k += 1;
+    }
+    total;
+  }
+
+  /**
+   * Adds the features of a pair times `scale` to the gradient.
+   */
+  def addToGradient(i: Int, j: Int, scale: Double, gradient: Array[Double]) {
+    val e = edge(i, j);
+    var k = offsets(e);
+    val end = offsets(e + 1);
+    while (k < end) {
+      FeatureHasher.addToGradient(gradient, feats(k), scale);
+      k += 1;
+    }
+  }
+
+  /**
+   * Number of features of all pairs.
+   */
+  def totalFeats: Int = feats.length;
+
+  /**
+   * The weight indices of the features of all pairs, each once and in increasing order.
+   */
+  lazy val weightIndices: Array[Int] = {
+    val indices = new Array[Int](feats.length);
+    for (k <- 0 until feats.length) {
+      indices(k) = if (feats(k) >= 0) feats(k) else ~feats(k);
+    }
+    java.util.Arrays.sort(indices);
+    var distinct = 0;
+    for (k <- 0 until indices.length) {
+      if (distinct == 0 || indices(k) != indices(distinct - 1)) {
+        indices(distinct) = indices(k);
+        distinct += 1;
+      }
+    }
+    java.util.Arrays.copyOf(indices, distinct);
+  }
+
+  /**
+   * Returns a chart without the features of the pruned pairs, or this chart if it has none.
+   */
+  def withoutPruned(prunedEdges: Array[Array[Boolean]]): FeatureChart = {
+    var removed = 0;
+    for (i <- 0 until size; j <- 0 to i) {
+      if (prunedEdges(i)(j)) removed += numFeats(i, j);
+    }
+    if (removed == 0) {
+      this;
+    } else {
+      val newOffsets = new Array[Int](offsets.length);
+      val newFeats = new Array[Int](feats.length - removed);
+      var next = 0;
+      for (i <- 0 until size; j <- 0 to i) {
+        val e = edge(i, j);
+        newOffsets(e) = next;
+        if (!prunedEdges(i)(j)) {
+          val length = offsets(e + 1) - offsets(e);
+          System.arraycopy(feats, offsets(e), newFeats, next, length);
+          next += length;
+        }
+      }
+      newOffsets(offsets.length - 1) = next;
+      new FeatureChart(size, newOffsets, newFeats);
+    }
+  }
+}
+
+object FeatureChart {
+  /**
+   * A chart of the given number of mentions in which no pair has features.
+   */
+  def empty(size: Int): FeatureChart = {
+    new FeatureChart(size, new Array[Int](size * (size + 1) / 2 + 1), new Array[Int](0));
+  }
+
+  /**
+   * Packs a triangular chart of feature sequences.
+   *
+   * @param rows the features of pair (i, j) at rows(i)(j)
+   * @param renumberings if not null, the features of row i are replaced by their entries in renumberings(i), where
+   *                     that is not null
+   */
+  def apply(rows: Array[Array[Seq[Int]]], renumberings: Array[Array[Int]] = null): FeatureChart = {
+    val size = rows.length;
+    val offsets = new Array[Int](size * (size + 1) / 2 + 1);
+    var total = 0L;
+    for (row <- rows; feats <- row) {
+      total += feats.size;
+    }
+    require(total <= Int.MaxValue, "Too many features in a document: " + total);
+    val feats = new Array[Int](total.toInt);
+    var next = 0;
+    var e = 0;
+    for (i <- 0 until size) {
+      val renumbering = if (renumberings == null) null else renumberings(i);
+      for (j <- 0 to i) {
+        offsets(e) = next;
+        for (feat <- rows(i)(j)) {
+          feats(next) = if (renumbering == null) feat else renumbering(feat);
+          next += 1;
+        }
+        e += 1;
+      }
+    }
+    offsets(e) = next;
+    new FeatureChart(size, offsets, feats);
+  }
+}
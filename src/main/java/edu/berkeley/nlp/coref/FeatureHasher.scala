@@ -0,0 +1,73 @@
+package edu.berkeley.nlp.coref
+
+/**
+ * Maps feature names to a fixed number of weights by hashing them (the "hashing trick"), so that no indexer has to
+ * hold the names of all features. Names are hashed with a 64-bit FNV-1a hash followed by the MurmurHash3 finalizer;
+ * the low bits select the weight.
+ *
+ * With signed hashing, another bit of the hash decides whether the feature has the value 1 or -1, so that colliding
+ * features cancel out in expectation instead of adding up. A feature with value -1 is represented by the complement
+ * `~index` of its weight index, which is always negative; [[FeatureHasher.weightOf]] and
+ * [[FeatureHasher.addToGradient]] handle both kinds of indices and should be used wherever indexed features meet the
+ * weights.
+ *
+ * @param numBits the number of weights is 2^numBits
+ * @param signed whether features get a hashed sign
+ */
+@SerialVersionUID(1L)
+class FeatureHasher(val numBits: Int, val signed: Boolean) extends Serializable {
+  require(numBits > 0 && numBits <= 30, "The number of hashing bits must be between 1 and 30")
+
+  /**
+   * Number of weights.
+   */
+  val size: Int = 1 << numBits
+
+  private val mask = size - 1L
+
+  /**
+   * Returns the weight index of the feature, or its complement if the feature has the value -1.
+   */
+  def index(feature: String): Int = {
+    val hash = FeatureHasher.hash(feature)
+    val idx = (hash & mask).toInt
+    if (signed && hash < 0) ~idx else idx
+  }
+}
+
+object FeatureHasher {
+  private val FnvOffsetBasis = 0xcbf29ce484222325L
+  private val FnvPrime = 0x100000001b3L
+
+  /**
+   * 64-bit hash of the characters of a string.
+   */
+  def hash(s: String): Long = {
+    var h = FnvOffsetBasis
+    var i = 0
+    while (i < s.length) {
+      val c = s.charAt(i)
+      h = (h ^ (c & 0xff)) * FnvPrime
+      h = (h ^ (c >>> 8)) * FnvPrime
+      i += 1
+    }
+    // FNV alone mixes the last characters poorly into the low bits
+    h ^= h >>> 33
+    h *= 0xff51afd7ed558ccdL
+    h ^= h >>> 33
+    h *= 0xc4ceb9fe1a85ec53L
+    h ^ (h >>> 33)
+  }
+
+  /**
+   * The weight of an indexed feature, negated if the feature has the value -1.
+   */
+  @inline def weightOf(weights: Array[Double], feat: Int): Double = if (feat >= 0) weights(feat) else -weights(~feat)
+
+  /**
+   * Adds `scale` times the value of an indexed feature to the gradient.
+   */
+  @inline def addToGradient(gradient: Array[Double], feat: Int, scale: Double): Unit = {
+    if (feat >= 0) gradient(feat) += scale else gradient(~feat) -= scale
+  }
+}
@@ -2,7 +2,7 @@ package edu.berkeley.nlp.coref
 
 import edu.berkeley.nlp.coref.config.CorefSystemConfiguration
 import edu.stanford.nlp.trees.{TreeGraphNode, TypedDependency}
-import org.jobimtext.coref.berkeley.DistributionalThesaurusComputer
+import org.jobimtext.coref.berkeley.{ContextKey, DistributionalThesaurusComputer}
 
 class Mention(val rawDoc: BaseDoc,
               val mentIdx: Int,
@@ -195,6 +195,11 @@ class Mention(val rawDoc: BaseDoc,
    */
   var bimCache: Map[String, Set[String]] = Map.empty[String, Set[String]]
 
+  /**
+   * Canonical cache keys of the context features in [[bimCache]], by thesaurus identifier.
+   */
+  var contextKeyCache: Map[String, ContextKey] = Map.empty[String, ContextKey]
+
   override def toString: String = words.mkString(" ")
 
   /**
@@ -384,14 +389,18 @@ object Mention {
     if (propertyComputer.thesauri != null) {
       val jos = scala.collection.mutable.Map.empty[String, String]
       val bims = scala.collection.mutable.Map.empty[String, Set[String]]
+      val contextKeys = scala.collection.mutable.Map.empty[String, ContextKey]
 
       for (thesaurus <- propertyComputer.thesauri.all) {
+        val context = thesaurus.extractContext(mention)
         jos += thesaurus.identifier -> thesaurus.extractTerm(mention)
-        bims += thesaurus.identifier -> thesaurus.extractContext(mention)
+        bims += thesaurus.identifier -> context
+        contextKeys += thesaurus.identifier -> thesaurus.contextKey(context)
       }
 
       mention.termCache = jos.toMap
       mention.bimCache = bims.toMap
+      mention.contextKeyCache = contextKeys.toMap
 
     }
     mention
@@ -87,7 +87,7 @@ object ModelAnalysis {
             println(" [Done]")
             print("Clearing thesaurus cache ")
             if (computer.thesauri != null) {
-              computer.thesauri.all.foreach(_.clearCache())
+              computer.thesauri.all.foreach(_.documentFinished())
             }
             println(" [Done]")
           }
@@ -122,10 +122,11 @@ object ModelAnalysis {
             else {
 
               println("Feats of " + docGraph.getMention(mentIdx) + " -> " + docGraph.getMention(antecedentIdx) + ":")
-              val featuresWithWeights = docGraph.cachedFeats(mentIdx)(antecedentIdx).map(featureIndex =>
-                (modelContainer.scorer.featurizer.getIndexer().
-
-                getObject(featureIndex), modelContainer.scorer.weights(featureIndex))).sortBy[Double](-_._2)
+              val featurizer = modelContainer.scorer.featurizer
+              // hashed features are only known by their index
+              val featuresWithWeights = docGraph.cachedFeats(mentIdx, antecedentIdx).map(featureIndex =>
+                (if (featurizer.isHashing) "#" + featureIndex else featurizer.getIndexer().getObject(featureIndex),
+                  FeatureHasher.weightOf(modelContainer.scorer.weights, featureIndex))).sortBy[Double](-_._2)
               featuresWithWeights.foreach(println)
               println("-------------------------------")
               println("Sum: " + featuresWithWeights.map(_._2).sum)
@@ -14,7 +14,25 @@ trait PairwiseIndexingFeaturizer {
 
   def getIndex(feature: String, addToFeaturizer: Boolean): Int;
 
+  /**
+   * Number of feature indices, i.e. the size of the weight vector.
+   */
+  def numFeatures: Int = getIndexer.size
+
+  /**
+   * Whether the features are hashed instead of being numbered by the indexer, see [[FeatureHasher]]. Indices may then
+   * be negative and must be resolved with [[FeatureHasher.weightOf]] and [[FeatureHasher.addToGradient]].
+   */
+  def isHashing: Boolean = false
+
   def featurizeIndex(docGraph: DocumentGraph, currMentIdx: Int, antecedentIdx: Int, addToFeaturizer: Boolean): Seq[Int];
+
+  /**
+   * Evaluates `featurize` with all features requested by the current thread numbered by the given indexer instead of
+   * the feature indexer, whether they are to be added or not. The feature indexer is left untouched, so that several
+   * threads can featurize documents at the same time.
+   */
+  def indexLocally[T](indexer: Indexer[String])(featurize: => T): T
   
   def printFeatureTemplateCounts() {
     val indexer = getIndexer();
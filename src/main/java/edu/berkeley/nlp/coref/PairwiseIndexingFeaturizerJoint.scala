@@ -23,7 +23,10 @@ class PairwiseIndexingFeaturizerJoint(val featureIndexer: Indexer[String],
                                       val discretizeIntervalFactor: Double,
                                       val chimergeIntervalsFile: String,
                                       val lexicalCounts: LexicalCountsBundle,
-                                      var mentionPropertyComputer: MentionPropertyComputer) extends
+                                      var mentionPropertyComputer: MentionPropertyComputer,
+                                      // hashes the features instead of indexing them if not null; null in models
+                                      // serialized before feature hashing existed
+                                      val featureHasher: FeatureHasher = null) extends
 PairwiseIndexingFeaturizer with
 Serializable {
 
@@ -33,25 +36,50 @@ Serializable {
    * Creates a copy of this featurizer, and sets its mention property computer to the given value.
    */
   override def clone(computer: MentionPropertyComputer): PairwiseIndexingFeaturizerJoint = {
-    new PairwiseIndexingFeaturizerJoint(featureIndexer, featsToUse, conjType, dtConjType, dtRemoveIncompatibleTermsK, discretizeIntervalFactor, chimergeIntervalsFile, lexicalCounts, computer)
+    new PairwiseIndexingFeaturizerJoint(featureIndexer, featsToUse, conjType, dtConjType, dtRemoveIncompatibleTermsK, discretizeIntervalFactor, chimergeIntervalsFile, lexicalCounts, computer, featureHasher)
   }
 
   def getIndexer = featureIndexer
 
+  override def numFeatures: Int = if (featureHasher != null) featureHasher.size else featureIndexer.size
+
+  override def isHashing: Boolean = featureHasher != null
+
+  // set while the current thread featurizes a document with a private indexer, see indexLocally
+  @transient private lazy val localIndexer = new ThreadLocal[Indexer[String]]
+
   def getIndex(feature: String, addToFeaturizer: Boolean): Int = {
-    if (!addToFeaturizer) {
-      if (!featureIndexer.contains(feature)) {
-        val idx = featureIndexer.getIndex(PairwiseIndexingFeaturizerJoint.UnkFeatName)
-        require(idx == 0)
-        idx
+    // hashed features don't depend on other features, so they need neither the local nor the shared indexer
+    if (featureHasher != null) return featureHasher.index(feature)
+
+    val indexer = localIndexer.get
+    if (indexer != null) {
+      indexer.getIndex(feature)
+    } else if (!addToFeaturizer) {
+      // a plain map lookup: unlike getIndex, indexOf never adds and never takes the indexer's lock, so that
+      // several threads can featurize against the indexer while it is not changed
+      val idx = featureIndexer.indexOf(feature)
+      if (idx < 0) {
+        val unkIdx = featureIndexer.indexOf(PairwiseIndexingFeaturizerJoint.UnkFeatName)
+        require(unkIdx == 0)
+        unkIdx
       } else {
-        featureIndexer.getIndex(feature)
+        idx
       }
     } else {
       featureIndexer.getIndex(feature)
     }
   }
 
+  def indexLocally[T](indexer: Indexer[String])(featurize: => T): T = {
+    localIndexer.set(indexer)
+    try {
+      featurize
+    } finally {
+      localIndexer.remove()
+    }
+  }
+
   def featurizeIndex(docGraph: DocumentGraph, currMentIdx: Int, antecedentIdx: Int,
                      addToFeaturizer: Boolean): Seq[Int] = {
     featurizeIndexStandard(docGraph, currMentIdx, antecedentIdx, addToFeaturizer)
@@ -718,8 +746,8 @@ Serializable {
                 addDTFeatureShortcut(sb.toString(), id, featureValue)
 
               case "hasIsas" =>
-                val curHasIsas = thesaurus.isaSets(currMent).nonEmpty
-                val antHasIsas = thesaurus.isaSets(antecedentMent).nonEmpty
+                val curHasIsas = thesaurus.hasSenses(currMent)
+                val antHasIsas = thesaurus.hasSenses(antecedentMent)
                 addDTFeatureShortcut(featureName, id, "curr=" + curHasIsas + "ant=" + antHasIsas)
 
               case "headsSharedIsas" =>
@@ -805,7 +833,7 @@ Serializable {
     _prop
   }
 
-  private def getChimergeIntervals(key: String) = {
+  private def getChimergeIntervals(key: String) = chimergeIntervalsCache.synchronized {
     chimergeIntervalsCache.getOrElseUpdate(key, {
       val values = prop.getProperty(key).trim.split(";").map(_.toInt)
       val intervals = ArrayBuffer.empty[Interval]
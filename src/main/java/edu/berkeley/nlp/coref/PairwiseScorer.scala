@@ -5,11 +5,13 @@ class PairwiseScorer(val featurizer: PairwiseIndexingFeaturizer, val weights: Ar
   
   def numWeights = weights.size
   
+  def scoreIndexedFeats(featsChart: FeatureChart, i: Int, j: Int): Double = featsChart.score(i, j, weights);
+
   def scoreIndexedFeats(feats: Seq[Int]): Double = {
     var featIdx = 0;
     var featTotal = 0.0;
     while (featIdx < feats.size) {
-      featTotal += weights(feats(featIdx));
+      featTotal += FeatureHasher.weightOf(weights, feats(featIdx));
       featIdx += 1;
     }
     featTotal;
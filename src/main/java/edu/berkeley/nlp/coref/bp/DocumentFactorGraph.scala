@@ -11,7 +11,8 @@ class DocumentFactorGraph(val docGraph: DocumentGraph,
                           val featurizer: PairwiseIndexingFeaturizer,
                           val config: CorefSystemConfiguration,
                           val gold: Boolean) {
-  var featsChart = docGraph.featurizeIndexNonPrunedUseCache(featurizer)
+  // read from the document on every use, since pruning replaces its chart after this graph is built
+  def featsChart: FeatureChart = docGraph.featurizeIndexNonPrunedUseCache(featurizer)
 
   val antecedentNodes = new Array[Node[Int]](docGraph.size)
   //  val latentNodes = new Array[Array[Node[String]]](docGraph.size);
@@ -276,6 +277,7 @@ class DocumentFactorGraph(val docGraph: DocumentGraph,
   }
 
   def addExpectedFeatureCountsToGradient(scale: Double, gradient: Array[Double]) {
+    require(!scale.isNaN() && !scale.isInfinite())
     val time = System.nanoTime()
     // Add pairwise features with custom machinery
     // TODO: These can be incorporated into the unary factor
@@ -283,7 +285,7 @@ class DocumentFactorGraph(val docGraph: DocumentGraph,
       val currNodeMarginals = getDenseAntecedentNodeMarginals(i)
       for (j <- 0 until currNodeMarginals.size) {
         require(currNodeMarginals(j) >= 0 && currNodeMarginals(j) <= 1)
-        addToGradient(featsChart(i)(j), scale * currNodeMarginals(j), gradient)
+        featsChart.addToGradient(i, j, scale * currNodeMarginals(j), gradient)
       }
     }
     for (factor <- allFactors) {
@@ -292,16 +294,6 @@ class DocumentFactorGraph(val docGraph: DocumentGraph,
 //    Logger.logss("Marginals time: " + (System.nanoTime() - time) / 1000000 + " millis");
   }
 
-  private def addToGradient(feats: Seq[Int], scale: Double, gradient: Array[Double]) {
-    require(!scale.isNaN() && !scale.isInfinite())
-    var i = 0
-    while (i < feats.size) {
-      val feat = feats(i)
-      gradient(feat) += 1.0 * scale
-      i += 1
-    }
-  }
-  
 //  def computeUncertaintyStatistics(): Seq[Int] = {
 //    docGraph.computeUncertaintyStatistics((idx) => antecedentNodes(idx).getMarginals());
 //  }
@@ -1,6 +1,7 @@
 package edu.berkeley.nlp.coref.bp
 import scala.collection.mutable.ArrayBuffer
 import edu.berkeley.nlp.futile.util.Logger
+import edu.berkeley.nlp.coref.FeatureHasher
 import edu.berkeley.nlp.coref.PairwiseIndexingFeaturizer
 import edu.berkeley.nlp.coref.GUtil
 
@@ -58,7 +59,7 @@ class AgreementFactor(val nodeOne: Node[String],
     featValue *= Math.exp(defaultValMatrix(nodeOneValueIdx)(nodeTwoValueIdx));
     var featIdx = 0;
     while (featIdx < indexedFeatureMatrix(nodeOneValueIdx)(nodeTwoValueIdx).size) {
-      featValue *= Math.exp(cachedWeights(indexedFeatureMatrix(nodeOneValueIdx)(nodeTwoValueIdx)(featIdx)));
+      featValue *= Math.exp(FeatureHasher.weightOf(cachedWeights, indexedFeatureMatrix(nodeOneValueIdx)(nodeTwoValueIdx)(featIdx)));
       featIdx += 1;
     }
     featValue;
@@ -109,7 +110,7 @@ class AgreementFactor(val nodeOne: Node[String],
         val value = factorValue(i, j) * receivedNodeOneMessage(i) * receivedNodeTwoMessage(j);
         var featIdx = 0;
         while (featIdx < indexedFeatureMatrix(i)(j).size) {
-          gradient(indexedFeatureMatrix(i)(j)(featIdx)) += scale * value/normalizer;
+          FeatureHasher.addToGradient(gradient, indexedFeatureMatrix(i)(j)(featIdx), scale * value/normalizer);
           featIdx += 1;
         }
       }
@@ -177,7 +178,7 @@ class PropertyFactor(val selectedAntecedentMentionIdx: Int,
       featValue *= Math.exp(defaultValMatrix(propertyValueIdx)(antecedentPropertyValueIdx));
       var featIdx = 0;
       while (featIdx < indexedFeatureMatrix(propertyValueIdx)(antecedentPropertyValueIdx).size) {
-        featValue *= Math.exp(cachedWeights(indexedFeatureMatrix(propertyValueIdx)(antecedentPropertyValueIdx)(featIdx)));
+        featValue *= Math.exp(FeatureHasher.weightOf(cachedWeights, indexedFeatureMatrix(propertyValueIdx)(antecedentPropertyValueIdx)(featIdx)));
         featIdx += 1;
       }
       featValue;
@@ -314,7 +315,7 @@ class PropertyFactor(val selectedAntecedentMentionIdx: Int,
             val value = factorValue(j, i, k) * receivedPropertyMessage(j) * receivedAntecedentMessage(i) * receivedAntecedentPropertyMessage(k);
             var featIdx = 0;
             while (featIdx < indexedFeatureMatrix(j)(k).size) {
-              gradient(indexedFeatureMatrix(j)(k)(featIdx)) += scale * value/normalizer;
+              FeatureHasher.addToGradient(gradient, indexedFeatureMatrix(j)(k)(featIdx), scale * value/normalizer);
               featIdx += 1;
             }
           }
@@ -533,8 +534,8 @@ class UnaryFactor(val propertyNode: Node[_],
   
   val agreeFeatureIndex = featurizer.getIndex(agreeFeature, false);
   val disagreeFeatureIndex = featurizer.getIndex(disagreeFeature, false);
-  require(agreeFeatureIndex < featurizer.getIndexer.size);
-  require(disagreeFeatureIndex < featurizer.getIndexer.size);
+  require(agreeFeatureIndex < featurizer.numFeatures);
+  require(disagreeFeatureIndex < featurizer.numFeatures);
   
   def setWeights(newWeights: Array[Double]) {
     this.cachedWeights = newWeights;
@@ -552,9 +553,9 @@ class UnaryFactor(val propertyNode: Node[_],
   
   def factorValue(propertyValueIdx: Int): Double = {
     if (propertyNode.domain.entries(propertyValueIdx) == specifiedValue) {
-      Math.exp(cachedWeights(agreeFeatureIndex))
+      Math.exp(FeatureHasher.weightOf(cachedWeights, agreeFeatureIndex))
     } else {
-      Math.exp(cachedWeights(disagreeFeatureIndex))
+      Math.exp(FeatureHasher.weightOf(cachedWeights, disagreeFeatureIndex))
     }
   }
   
@@ -586,8 +587,8 @@ class UnaryFactor(val propertyNode: Node[_],
       }
       normalizer += value;
     }
-    gradient(agreeFeatureIndex) += scale * agreeUnnormalizedProb/normalizer;
-    gradient(disagreeFeatureIndex) += scale * disagreeUnnormalizedProb/normalizer;
+    FeatureHasher.addToGradient(gradient, agreeFeatureIndex, scale * agreeUnnormalizedProb/normalizer);
+    FeatureHasher.addToGradient(gradient, disagreeFeatureIndex, scale * disagreeUnnormalizedProb/normalizer);
   }
 }
 
@@ -618,7 +619,7 @@ class UnaryFactorGeneral(val propertyNode: Node[_],
   }
   
   def factorValue(propertyValueIdx: Int): Double = {
-    val exponent = defaultValues(propertyValueIdx) + indexedFeatures(propertyValueIdx).foldLeft(0.0)((currVal: Double, featIdx: Int) => currVal + cachedWeights(featIdx));
+    val exponent = defaultValues(propertyValueIdx) + indexedFeatures(propertyValueIdx).foldLeft(0.0)((currVal: Double, featIdx: Int) => currVal + FeatureHasher.weightOf(cachedWeights, featIdx));
     Math.exp(exponent);
   }
   
@@ -646,7 +647,7 @@ class UnaryFactorGeneral(val propertyNode: Node[_],
     }
     for (i <- 0 until propertyNode.domain.size) {
       for (indexedFeat <- indexedFeatures(i)) {
-        gradient(indexedFeat) += scale * marginalProbsUnnormalized(i)/normalizer;
+        FeatureHasher.addToGradient(gradient, indexedFeat, scale * marginalProbsUnnormalized(i)/normalizer);
       }
     }
   }
@@ -81,6 +81,32 @@ trait CorefSystemConfiguration extends Cloneable {
    */
   @BeanProperty var dtUseCache: Boolean
 
+  /**
+   * Whether the thesaurus lookups of a whole document should be fetched with batched queries before its mention pairs
+   * are featurized. Requires the cache to be enabled.
+   */
+  @BeanProperty var dtPrefetch: Boolean
+
+  /**
+   * Memory in megabytes the thesaurus caches may use together. If positive, cached lookups are kept across documents
+   * and the least valuable ones are evicted when the budget is exhausted; if 0, the caches are emptied after each
+   * document. Requires the cache to be enabled.
+   */
+  @BeanProperty var dtCacheMemoryBudget: Int
+
+  /**
+   * Class name of the [[org.jobimtext.api.metrics.QueryMetrics]] implementation that measures the lookups of each
+   * thesaurus. The measurements are logged after featurization. An empty string disables measuring.
+   */
+  @BeanProperty var dtQueryMetrics: String
+
+  /**
+   * Whether context expansions should read only as much of the score-sorted term lists of the context features as
+   * needed to determine the best terms, instead of all of them. Only used with thesauri that return these lists
+   * sorted; the ranks are the same, but terms with equal probability may be ordered differently.
+   */
+  @BeanProperty var dtThresholdContextExpansion: Boolean
+
   /**
    * Entity model settings: Use cheating clusters?
    */
@@ -146,6 +172,30 @@ trait CorefSystemConfiguration extends Cloneable {
    */
   @BeanProperty var pruningStrategySecondPass: String
 
+  /**
+   * Number of threads featurizing documents. Each document is featurized by a single thread; the features are indexed
+   * in document order afterwards, so that the feature indices and thus the models do not depend on this number.
+   */
+  @BeanProperty var numFeaturizationThreads: Int
+
+  /**
+   * If positive and several featurization threads are used, documents with more non-pruned mention pairs than this
+   * are featurized one at a time, split into blocks of rows with about this many pairs that are featurized in
+   * parallel. Helps with very long documents, which would otherwise keep a single thread busy.
+   */
+  @BeanProperty var featurizationBlockPairs: Int
+
+  /**
+   * If positive, features are hashed to 2^featureHashingBits weights instead of being numbered by an indexer, which
+   * bounds the size of the model regardless of the number of distinct features (at most 30). 0 to index features.
+   */
+  @BeanProperty var featureHashingBits: Int
+
+  /**
+   * Whether hashed features get a hashed sign, so that the weights of colliding features cancel out in expectation.
+   */
+  @BeanProperty var signedFeatureHashing: Boolean
+
   /**
    * Inference type for entity models
    */
@@ -30,6 +30,10 @@ abstract class DefaultCorefSystemConfiguration extends CorefSystemConfiguration
   @BeanProperty var dtConjType: ConjType = ConjType.CANONICAL
   @BeanProperty var dtRemoveIncompatibleTerms: Boolean = false
   @BeanProperty var pruningStrategySecondPass: String = "c2flogratio:2"
+  @BeanProperty var numFeaturizationThreads: Int = 1
+  @BeanProperty var featurizationBlockPairs: Int = 0
+  @BeanProperty var featureHashingBits: Int = 0
+  @BeanProperty var signedFeatureHashing: Boolean = true
   @BeanProperty var numCheatingProperties: Int = 3
   @BeanProperty var trainOnGold: Boolean = false
   @BeanProperty var includeAppositives: Boolean = true
@@ -44,6 +48,10 @@ abstract class DefaultCorefSystemConfiguration extends CorefSystemConfiguration
   @BeanProperty var phiClusterFeatures: String = ""
   @BeanProperty var eta: Double = 1.0
   @BeanProperty var dtUseCache: Boolean = true
+  @BeanProperty var dtPrefetch: Boolean = true
+  @BeanProperty var dtCacheMemoryBudget: Int = 0
+  @BeanProperty var dtQueryMetrics: String = "org.jobimtext.api.metrics.HistogramQueryMetrics"
+  @BeanProperty var dtThresholdContextExpansion: Boolean = false
   @BeanProperty var numItrsSecondPass: Int = 20
   @BeanProperty var numItrs: Int = 20
   @BeanProperty var dtRemoveIncompatibleTermsK: Int = 3
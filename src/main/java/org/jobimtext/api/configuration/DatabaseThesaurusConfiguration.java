@@ -43,6 +43,16 @@ public class DatabaseThesaurusConfiguration {
     public String dbUrl;
     public String dbPassword;
     public String jdbcString;
+    /**
+     * Maximum number of connections opened to the database, i.e. the number of threads that can query the thesaurus
+     * in parallel. Defaults to 1.
+     */
+    public Integer poolSize;
+    /**
+     * Number of rows the JDBC driver fetches per round trip when reading multi-row results. Unset or 0 leaves the
+     * driver default. Note that MySQL Connector/J only honours it if the URL contains useCursorFetch=true.
+     */
+    public Integer fetchSize;
 
     public String similarTermsQuery;
     public String similarTermsTopQuery;
@@ -54,6 +64,10 @@ public class DatabaseThesaurusConfiguration {
     public String similarContextsGtScoreQuery;
 
     public String contextTermsScoresQuery;
+    /**
+     * Optional variant of contextTermsScoresQuery that returns only the $numberOfEntries terms with the highest score.
+     */
+    public String contextTermsScoresTopQuery;
 
     public String termsCountQuery;
     public String contextsCountQuery;
@@ -68,10 +82,42 @@ public class DatabaseThesaurusConfiguration {
     public String senseCUIsQuery;
     public String isasQuery;
 
+    /*
+     * Optional multi-key variants of the queries above. The placeholder [IN-CLAUSE] is replaced by a parameter list
+     * like "(?,?,?)" and the first column of every row has to contain the key the row belongs to.
+     */
+    public String similarTermsBatchQuery;
+    public String termsCountBatchQuery;
+    public String sensesBatchQuery;
+
+    /*
+     * Optional queries reading whole tables, used to export a snapshot of the thesaurus. Rows have to be grouped by
+     * their first column, which holds the key: (word1, word2, score) for similar terms, (word, feature, sig) and
+     * (feature, word, sig) for the scores, (key, count) for the counts and (word, cui, cluster, isas) for the senses.
+     */
+    public String similarTermsDumpQuery;
+    public String termContextsScoresDumpQuery;
+    public String contextTermsScoresDumpQuery;
+    public String termsCountDumpQuery;
+    public String contextsCountDumpQuery;
+    public String sensesDumpQuery;
+
+    /*
+     * The table names and the order to replace them in, built on first use. Queries are built from several threads,
+     * so both are published together in an immutable holder; threads racing to build it build equal copies.
+     */
     @XmlTransient
-    private HashMap<String, String> tableStringMapping = null;
-    @XmlTransient
-    private List<String> tableValuesSorted = null;
+    private volatile TableMapping tableMapping = null;
+
+    private static class TableMapping {
+        final HashMap<String, String> tableStringMapping;
+        final List<String> tableValuesSorted;
+
+        TableMapping(HashMap<String, String> tableStringMapping, List<String> tableValuesSorted) {
+            this.tableStringMapping = tableStringMapping;
+            this.tableValuesSorted = tableValuesSorted;
+        }
+    }
 
 
     public String getSimilarTermsTopQuery(int top) {
@@ -97,11 +143,13 @@ public class DatabaseThesaurusConfiguration {
     }
 
     public HashMap<String, String> getTableStringMapping() {
-        return tableStringMapping;
+        TableMapping mapping = tableMapping;
+        return mapping == null ? null : mapping.tableStringMapping;
     }
 
     public List<String> getTableValuesSorted() {
-        return tableValuesSorted;
+        TableMapping mapping = tableMapping;
+        return mapping == null ? null : mapping.tableValuesSorted;
     }
 
     public DatabaseTableConfiguration getTables() {
@@ -144,6 +192,22 @@ public class DatabaseThesaurusConfiguration {
         this.jdbcString = jdbcString;
     }
 
+    public int getPoolSize() {
+        return poolSize == null ? 1 : poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize == null ? 0 : fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     public void saveAsXml(PrintStream ps) throws JAXBException {
         JAXBContext context = JAXBContext
                 .newInstance(DatabaseThesaurusConfiguration.class);
@@ -194,9 +258,10 @@ public class DatabaseThesaurusConfiguration {
 
     private String replaceTables(String query, String... replacements) {
 
-        if (tableStringMapping == null) {
-            tableStringMapping = new HashMap<String, String>();
-            tableValuesSorted = new ArrayList<String>();
+        TableMapping mapping = tableMapping;
+        if (mapping == null) {
+            HashMap<String, String> tableStringMapping = new HashMap<String, String>();
+            List<String> tableValuesSorted = new ArrayList<String>();
             for (Field f : tables.getClass().getDeclaredFields()) {
                 String name = f.getName();
 
@@ -222,10 +287,12 @@ public class DatabaseThesaurusConfiguration {
                     return o2.length() - o1.length();
                 }
             });
+            mapping = new TableMapping(tableStringMapping, tableValuesSorted);
+            tableMapping = mapping;
         }
         String sb = query;
-        for (String key : tableValuesSorted) {
-            sb = sb.replace("$" + key, tableStringMapping.get(key));
+        for (String key : mapping.tableValuesSorted) {
+            sb = sb.replace("$" + key, mapping.tableStringMapping.get(key));
         }
         if (replacements.length % 2 != 0) {
             throw new IllegalArgumentException(
@@ -261,6 +328,53 @@ public class DatabaseThesaurusConfiguration {
     }
 
 
+    public String getSimilarTermsBatchQuery(String inClause) {
+        return replaceInClause(similarTermsBatchQuery, inClause);
+    }
+
+    public String getTermsCountBatchQuery(String inClause) {
+        return replaceInClause(termsCountBatchQuery, inClause);
+    }
+
+    public String getSensesBatchQuery(String inClause) {
+        return replaceInClause(sensesBatchQuery, inClause);
+    }
+
+    public String getSimilarTermsDumpQuery() {
+        return replaceOptional(similarTermsDumpQuery);
+    }
+
+    public String getTermContextsScoresDumpQuery() {
+        return replaceOptional(termContextsScoresDumpQuery);
+    }
+
+    public String getContextTermsScoresDumpQuery() {
+        return replaceOptional(contextTermsScoresDumpQuery);
+    }
+
+    public String getTermsCountDumpQuery() {
+        return replaceOptional(termsCountDumpQuery);
+    }
+
+    public String getContextsCountDumpQuery() {
+        return replaceOptional(contextsCountDumpQuery);
+    }
+
+    public String getSensesDumpQuery() {
+        return replaceOptional(sensesDumpQuery);
+    }
+
+    private String replaceOptional(String query) {
+        return query == null ? null : replaceTables(query);
+    }
+
+    private String replaceInClause(String query, String inClause) {
+        if (query == null) {
+            return null;
+        }
+        return replaceTables(query, "[IN-CLAUSE]", inClause);
+    }
+
     /*public String getBatchTermContextsScoreQuery(String inClause) {
 
         return replaceTables(batchTermContextsScoreQuery).replace("[IN-CLAUSE]", inClause);
@@ -302,4 +416,11 @@ public class DatabaseThesaurusConfiguration {
     }
 
     public String getContextTermsScoresQuery() { return replaceTables(contextTermsScoresQuery); }
+
+    public String getContextTermsScoresTopQuery(int numberOfEntries) {
+        if (contextTermsScoresTopQuery == null) {
+            return null;
+        }
+        return replaceTables(contextTermsScoresTopQuery, "$numberOfEntries", Integer.toString(numberOfEntries));
+    }
 }
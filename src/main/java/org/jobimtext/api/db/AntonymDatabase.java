@@ -3,11 +3,32 @@ package org.jobimtext.api.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+import com.carrotsearch.hppc.LongIntOpenHashMap;
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
+
 public class AntonymDatabase implements Destroyable {
     private DatabaseConnection connection;
 
+    /*
+     * In-memory copy of the COHYPONYMS table, filled by preload(). Terms are dictionary encoded with ids starting at 1,
+     * so that 0 (the default value of the maps) means unknown; a pair of term ids is packed into one long key. The
+     * maps are not modified after loading and only read with get(), so lookups need no locking.
+     *
+     * The queries compare terms under the database's collation, which may be case and accent insensitive, while the
+     * maps are exact. For the normal form (see KeyCollation) of every term that differs from it, termSpellings holds
+     * the number of such terms; a term with other equivalent spellings is looked up with the query.
+     */
+    private volatile boolean preloaded = false;
+    private ObjectIntOpenHashMap<String> termIds;
+    private LongIntOpenHashMap pairCounts;
+    private IntIntOpenHashMap termCounts;
+    private ObjectIntOpenHashMap<String> termSpellings;
+    private long termChars = 0;
+
     public AntonymDatabase() {
         connection = new DatabaseConnection();
     }
@@ -21,11 +42,127 @@ public class AntonymDatabase implements Destroyable {
         if (connection != null) connection.closeConnection();
     }
 
+    /**
+     * Reads the whole COHYPONYMS table into memory. Afterwards, {@link #getCount(String, String)} and
+     * {@link #getCount(String)} are answered without querying the database, except for terms with other equivalent
+     * spellings in the table (see {@link KeyCollation}).
+     */
+    public synchronized void preload() throws SQLException {
+        ObjectIntOpenHashMap<String> ids = new ObjectIntOpenHashMap<String>();
+        LongIntOpenHashMap pairs = new LongIntOpenHashMap();
+        IntIntOpenHashMap sums = new IntIntOpenHashMap();
+        ObjectIntOpenHashMap<String> spellings = new ObjectIntOpenHashMap<String>();
+        long chars = 0;
+
+        Statement statement = connection.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        try {
+            ResultSet set = statement.executeQuery("SELECT WORD1, WORD2, `COUNT` FROM COHYPONYMS");
+            while (set.next()) {
+                String word1 = set.getString(1);
+                String word2 = set.getString(2);
+                int count = set.getInt(3);
+                if (word1 == null || word2 == null) {
+                    continue;
+                }
+
+                int id1 = ids.get(word1);
+                if (id1 == 0) {
+                    id1 = ids.size() + 1;
+                    ids.put(word1, id1);
+                    chars += word1.length();
+                    addSpelling(spellings, word1);
+                }
+                int id2 = ids.get(word2);
+                if (id2 == 0) {
+                    id2 = ids.size() + 1;
+                    ids.put(word2, id2);
+                    chars += word2.length();
+                    addSpelling(spellings, word2);
+                }
+
+                // like the query, only the first row of a pair counts, but all rows of a term are summed up
+                long pair = pairKey(id1, id2);
+                if (!pairs.containsKey(pair)) {
+                    pairs.put(pair, count);
+                }
+                sums.put(id1, sums.get(id1) + count);
+            }
+            set.close();
+        } finally {
+            statement.close();
+        }
+
+        termIds = ids;
+        pairCounts = pairs;
+        termCounts = sums;
+        termSpellings = spellings;
+        termChars = chars;
+        preloaded = true;
+        System.out.println("[Database] Preloaded " + pairs.size() + " antonym pairs of " + ids.size() + " terms, using about "
+                + (getMemoryUsage() >> 20) + " MB");
+    }
+
+    public boolean isPreloaded() {
+        return preloaded;
+    }
+
+    /**
+     * @return estimated number of bytes held by the preloaded table, 0 if it has not been loaded
+     */
+    public long getMemoryUsage() {
+        if (!preloaded) {
+            return 0;
+        }
+        // hash map buffers (keys, values and the allocation flags) plus the term strings themselves
+        long bytes = termIds.keys.length * (8L + 4 + 1);
+        bytes += pairCounts.keys.length * (8L + 4 + 1);
+        bytes += termCounts.keys.length * (4L + 4 + 1);
+        bytes += termSpellings.keys.length * (8L + 4 + 1) + termSpellings.size() * 40L;
+        bytes += termIds.size() * 40L + termChars * 2;
+        return bytes;
+    }
+
+    private static long pairKey(int id1, int id2) {
+        return ((long) id1 << 32) | (id2 & 0xffffffffL);
+    }
+
+    private static void addSpelling(ObjectIntOpenHashMap<String> spellings, String term) {
+        String normal = KeyCollation.normalize(term);
+        if (!normal.equals(term)) {
+            spellings.put(normal, spellings.get(normal) + 1);
+        }
+    }
+
+    /**
+     * @return whether the preloaded maps answer for the term like the queries, i.e. the term has no other equivalent
+     *         spelling in the table
+     */
+    private boolean isPreloadedExactly(String term) {
+        String normal = KeyCollation.normalize(term);
+        int spellings = termSpellings.get(normal) + (termIds.containsKey(normal) ? 1 : 0);
+        return spellings == 0 || (spellings == 1 && termIds.containsKey(term));
+    }
+
     public int getCount(String jo1, String jo2) throws SQLException {
+        if (preloaded) {
+            if (jo1 == null || jo2 == null) return 0;
+            if (isPreloadedExactly(jo1) && isPreloadedExactly(jo2)) {
+                int id1 = termIds.get(jo1);
+                int id2 = termIds.get(jo2);
+                return id1 == 0 || id2 == 0 ? 0 : pairCounts.get(pairKey(id1, id2));
+            }
+        }
+        synchronized (this) {
+            return queryCount(jo1, jo2);
+        }
+    }
+
+    private int queryCount(String jo1, String jo2) throws SQLException {
         int count = 0;
 
         String sql = "SELECT `COUNT` FROM COHYPONYMS WHERE WORD1 = ? AND WORD2 = ?";
-        PreparedStatement ps = connection.getConnection().prepareStatement(sql);
+        PreparedStatement ps = connection.prepareCached(sql);
         ps.setString(1, jo1);
         ps.setString(2, jo2);
 
@@ -35,16 +172,29 @@ public class AntonymDatabase implements Destroyable {
             count = set.getInt(1);
         }
 
-        ps.close();
+        set.close();
 
         return count;
     }
 
     public int getCount(String jo) throws SQLException {
+        if (preloaded) {
+            if (jo == null) return 0;
+            if (isPreloadedExactly(jo)) {
+                int id = termIds.get(jo);
+                return id == 0 ? 0 : termCounts.get(id);
+            }
+        }
+        synchronized (this) {
+            return queryCount(jo);
+        }
+    }
+
+    private int queryCount(String jo) throws SQLException {
         int count = 0;
 
         String sql = "SELECT SUM(`COUNT`) FROM COHYPONYMS WHERE WORD1 = ?";
-        PreparedStatement ps = connection.getConnection().prepareStatement(sql);
+        PreparedStatement ps = connection.prepareCached(sql);
         ps.setString(1, jo);
 
         ResultSet set = ps.executeQuery();
@@ -53,7 +203,7 @@ public class AntonymDatabase implements Destroyable {
             count = set.getInt(1);
         }
 
-        ps.close();
+        set.close();
 
         return count;
     }
@@ -24,6 +24,7 @@ package org.jobimtext.api.db;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 /**
@@ -33,6 +34,7 @@ import java.sql.SQLException;
  */
 public class DatabaseConnection {
 	private Connection conn;
+	private PreparedStatementCache statementCache;
 
 
 	public void openConnection(String url, String user, String password,
@@ -43,6 +45,7 @@ public class DatabaseConnection {
 		System.out.println("[Database] Connecting to a selected database...");
 		
 		conn = DriverManager.getConnection(url, user, password);
+		statementCache = new PreparedStatementCache(conn);
 		
 		System.out.println("[Database] Connected database successfully...");
 	}
@@ -51,7 +54,24 @@ public class DatabaseConnection {
 		return conn;
 	}
 
+	/**
+	 * Returns a prepared statement for the given SQL string. The statement is
+	 * prepared only once per connection and reused afterwards, so it must not
+	 * be closed by the caller.
+	 */
+	public PreparedStatement prepareCached(String sql) throws SQLException {
+		return statementCache.getStatement(sql);
+	}
+
+	public PreparedStatementCache getStatementCache() {
+		return statementCache;
+	}
+
 	public void closeConnection() {
+		if (statementCache != null) {
+			System.out.println("[Database] Statement cache: " + statementCache);
+			statementCache.closeAll();
+		}
 		try {
 			conn.close();
 		} catch (SQLException e) {
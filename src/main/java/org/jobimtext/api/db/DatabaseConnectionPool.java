@@ -0,0 +1,122 @@
+package org.jobimtext.api.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A fixed size pool of {@link DatabaseConnection}s to the same database. Connections are opened lazily up to the
+ * configured size; once all of them are handed out, {@link #acquire()} blocks until one is released.
+ *
+ * Each connection keeps its own {@link PreparedStatementCache}, so a connection (and the result sets obtained from it)
+ * must only be used by the thread that acquired it until it is released again.
+ *
+ * A pool may be shared by several resources that point at the same database. Every user calls {@link #retain()} once
+ * and {@link #destroy()} once; the connections are closed when the last user is gone.
+ */
+public class DatabaseConnectionPool implements Destroyable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String jdbcDriver;
+    private final int size;
+
+    private final BlockingQueue<DatabaseConnection> idle = new LinkedBlockingQueue<DatabaseConnection>();
+    private final List<DatabaseConnection> all = new ArrayList<DatabaseConnection>();
+
+    private int users = 0;
+    private boolean closed = false;
+
+    public DatabaseConnectionPool(String url, String user, String password, String jdbcDriver, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, but was " + size);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.jdbcDriver = jdbcDriver;
+        this.size = size;
+    }
+
+    /**
+     * Takes an idle connection from the pool, opening a new one if the pool has not reached its size yet. Blocks
+     * while all connections are in use.
+     *
+     * @return a connection exclusively owned by the caller until {@link #release(DatabaseConnection)} is called
+     * @throws SQLException if a new connection could not be opened
+     * @throws ClassNotFoundException if the JDBC driver is not on the class path
+     */
+    public DatabaseConnection acquire() throws SQLException, ClassNotFoundException {
+        DatabaseConnection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Connection pool for " + url + " has already been closed");
+            }
+            if (all.size() < size) {
+                connection = new DatabaseConnection();
+                connection.openConnection(url, user, password, jdbcDriver);
+                all.add(connection);
+                return connection;
+            }
+        }
+
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /**
+     * Returns a connection obtained by {@link #acquire()} to the pool.
+     */
+    public void release(DatabaseConnection connection) {
+        if (connection != null) {
+            idle.offer(connection);
+        }
+    }
+
+    /**
+     * Registers a new user of this pool.
+     */
+    public synchronized void retain() {
+        users++;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public synchronized int getOpenConnections() {
+        return all.size();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Unregisters a user of this pool. If it was the last one, all connections are closed.
+     */
+    @Override
+    public synchronized void destroy() {
+        users--;
+        if (users > 0 || closed) {
+            return;
+        }
+        closed = true;
+        System.out.println("[Database] Closing " + all.size() + " pooled connection(s) to " + url);
+        for (DatabaseConnection connection : all) {
+            connection.closeConnection();
+        }
+        all.clear();
+        idle.clear();
+    }
+}
@@ -63,6 +63,19 @@ public class DatabaseResource extends Resource_ImplBase implements Destroyable {
 	private DatabaseConnection databaseConnection=null;
 	//private PortForwarding tunnel;
 
+	private DatabaseConnectionPool connectionPool = null;
+	private boolean poolRetained = false;
+	private final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
+
+	/**
+	 * A pooled connection bound to one thread. Leases nest, the connection is
+	 * given back to the pool when the outermost lease is released.
+	 */
+	private static class Lease {
+		DatabaseConnection connection;
+		int depth;
+	}
+
 	
 	
 	public DatabaseResource() {
@@ -89,8 +102,77 @@ public class DatabaseResource extends Resource_ImplBase implements Destroyable {
 		return dbConf;
 	}
 
+	/**
+	 * Returns the connection leased by the current thread through
+	 * {@link #acquireConnection()}, or the connection given to
+	 * {@link #setDatabaseConnection(DatabaseConnection)} if the thread holds no
+	 * lease. No pooled connection is taken without a lease, as nothing would
+	 * give it back to the pool.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current thread holds no lease and no connection was
+	 *             set
+	 */
 	public DatabaseConnection getDatabaseConnection() {
-		return databaseConnection;
+		Lease current = lease.get();
+		if (current != null) {
+			return current.connection;
+		}
+		synchronized (this) {
+			if (databaseConnection == null) {
+				throw new IllegalStateException("No database connection leased by the current thread, call "
+						+ "acquireConnection() first");
+			}
+			return databaseConnection;
+		}
+	}
+
+	/**
+	 * Binds a pooled connection to the current thread, so that queries issued
+	 * by this thread do not interfere with other threads. Every call must be
+	 * matched by a call to {@link #releaseConnection()} in a finally block.
+	 */
+	public void acquireConnection() {
+		Lease current = lease.get();
+		if (current != null) {
+			current.depth++;
+			return;
+		}
+		if (connectionPool == null) {
+			throw new IllegalStateException("Database resource is not connected");
+		}
+		current = new Lease();
+		try {
+			current.connection = connectionPool.acquire();
+		} catch (Exception e) {
+			throw new IllegalStateException("Can't obtain database connection", e);
+		}
+		current.depth = 1;
+		lease.set(current);
+	}
+
+	public void releaseConnection() {
+		Lease current = lease.get();
+		if (current == null) {
+			return;
+		}
+		if (--current.depth == 0) {
+			lease.remove();
+			connectionPool.release(current.connection);
+		}
+	}
+
+	public DatabaseConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * Uses the given pool instead of creating an own one on {@link #connect()}.
+	 * Must be called before connecting. Allows resources that point at the
+	 * same database to share their connections.
+	 */
+	public void setConnectionPool(DatabaseConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
 	}
 
 	public void setDatabaseConnection(DatabaseConnection databaseConnection) {
@@ -112,8 +194,6 @@ public class DatabaseResource extends Resource_ImplBase implements Destroyable {
 	}
 
 	public boolean connect() {
-		databaseConnection = new DatabaseConnection();
-		
 		if (dbConf == null) {
 			try {
 				dbConf = DatabaseThesaurusConfiguration.getFromXmlFile(dbConfigurationFile);
@@ -132,8 +212,17 @@ public class DatabaseResource extends Resource_ImplBase implements Destroyable {
 
 			}
 		}*/
+		if (connectionPool == null) {
+			connectionPool = new DatabaseConnectionPool(dbConf.getDbUrl(), dbConf.getDbUser(), dbConf.getDbPassword(),
+					dbConf.getJdbcString(), dbConf.getPoolSize());
+		}
+		if (!poolRetained) {
+			connectionPool.retain();
+			poolRetained = true;
+		}
 		try {
-			databaseConnection.openConnection(dbConf.getDbUrl(), dbConf.getDbUser(), dbConf.getDbPassword(), dbConf.getJdbcString());
+			// open the first connection right away so that errors surface here
+			connectionPool.release(connectionPool.acquire());
 		} catch (ClassNotFoundException e) {
             error = e;
 			return false;
@@ -147,8 +236,16 @@ public class DatabaseResource extends Resource_ImplBase implements Destroyable {
 	@Override
 	public void destroy() {
 		System.out.println("[DESTROY Database Resource]");
-		if(databaseConnection!=null)
-		databaseConnection.closeConnection();
+		if (connectionPool != null && poolRetained) {
+			poolRetained = false;
+			connectionPool.destroy();
+		}
+		synchronized (this) {
+			if (databaseConnection != null) {
+				databaseConnection.closeConnection();
+				databaseConnection = null;
+			}
+		}
 		/*if (tunnelConf != null && tunnelConf.isActivate()) {
 			tunnel.closeTunnel();
 		}*/
@@ -3,7 +3,11 @@ package org.jobimtext.api.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 import org.jobimtext.api.IThesaurus;
@@ -13,12 +17,48 @@ public class DatabaseThesaurus extends DatabaseResource
         implements
         IThesaurus<String, String, ResultSet, ResultSet, ResultSet, ResultSet, ResultSet> {
 
-    /*private static final int SINGLE_BATCH = 1;
+    private static final int SINGLE_BATCH = 1;
     private static final int SMALL_BATCH = 4;
     private static final int MEDIUM_BATCH = 11;
     private static final int LARGE_BATCH = 51;
     private static final int LARGER_BATCH = 117;
-    private static final int MAX_BATCH = 200;*/
+    private static final int MAX_BATCH = 200;
+
+    /**
+     * Prepares (or reuses) a statement on the current connection and applies the configured fetch size, so that
+     * large results are streamed in chunks of that many rows instead of the driver's default.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = getDatabaseConnection().prepareCached(sql);
+        int fetchSize = getDatabaseConfiguration().getFetchSize();
+        if (fetchSize > 0) {
+            ps.setFetchSize(fetchSize);
+        }
+        return ps;
+    }
+
+    /**
+     * Prepares a top-N query whose SQL was built with {@link #limitOf(int)} and makes it return only the requested
+     * number of rows.
+     */
+    private PreparedStatement prepareTop(String sql, int numberOfEntries) throws SQLException {
+        PreparedStatement ps = prepare(sql);
+        ps.setMaxRows(Math.max(numberOfEntries, 0));
+        return ps;
+    }
+
+    /**
+     * The LIMIT written into the SQL of a top-N query: the number of entries rounded up to a power of two. Since the
+     * limit is part of the SQL text, this keeps the number of distinct statements per query template logarithmic in
+     * the largest request; {@link #prepareTop(String, int)} cuts the result to the exact number of rows.
+     */
+    static int limitOf(int numberOfEntries) {
+        if (numberOfEntries <= 1) {
+            return Math.max(numberOfEntries, 0);
+        }
+        int limit = Integer.highestOneBit(numberOfEntries - 1) << 1;
+        return limit < 0 ? Integer.MAX_VALUE : limit;
+    }
 
     @Override
     public ResultSet getSimilarTerms(String key) {
@@ -27,7 +67,7 @@ public class DatabaseThesaurus extends DatabaseResource
 
 
             PreparedStatement ps;
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             return ps.executeQuery();
         } catch (SQLException e) {
@@ -40,11 +80,10 @@ public class DatabaseThesaurus extends DatabaseResource
     @Override
     public ResultSet getSimilarTerms(String key, int numberOfEntries) {
         String sql = getDatabaseConfiguration().getSimilarTermsTopQuery(
-                numberOfEntries);
+                limitOf(numberOfEntries));
         try {
 
-            PreparedStatement ps = getDatabaseConnection().getConnection()
-                    .prepareStatement(sql);
+            PreparedStatement ps = prepareTop(sql, numberOfEntries);
             ps.setString(1, key);
             return ps.executeQuery();
         } catch (SQLException e) {
@@ -59,8 +98,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getSimilarTermsGtScoreQuery();
 
         try {
-            PreparedStatement ps = getDatabaseConnection().getConnection()
-                    .prepareStatement(sql);
+            PreparedStatement ps = prepare(sql);
             ps.setString(1, key);
             ps.setDouble(2, threshold);
             return ps.executeQuery();
@@ -76,7 +114,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getSimilarContextsQuery();
 
         try {
-            PreparedStatement ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            PreparedStatement ps = prepare(sql);
             ps.setString(1, values);
             return ps.executeQuery();
         } catch (SQLException e) {
@@ -90,11 +128,11 @@ public class DatabaseThesaurus extends DatabaseResource
 
     @Override
     public ResultSet getSimilarContexts(String values, int numberOfEntries) {
-        String sql = getDatabaseConfiguration().getSimilarContextsTopQuery(numberOfEntries);
+        String sql = getDatabaseConfiguration().getSimilarContextsTopQuery(limitOf(numberOfEntries));
 
         try {
 
-            PreparedStatement ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            PreparedStatement ps = prepareTop(sql, numberOfEntries);
             ps.setString(1, values);
 
             return ps.executeQuery();
@@ -113,7 +151,7 @@ public class DatabaseThesaurus extends DatabaseResource
 
         try {
 
-            PreparedStatement ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            PreparedStatement ps = prepare(sql);
             ps.setString(1, values);
             ps.setDouble(2, threshold);
 
@@ -131,7 +169,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getTermsCountQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
 
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
@@ -139,7 +177,7 @@ public class DatabaseThesaurus extends DatabaseResource
             if (set.next()) {
                 count = set.getLong(1);
             }
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             System.err.println("Query: " + sql);
@@ -153,13 +191,13 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getContextsCountQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, values);
             ResultSet set = ps.executeQuery();
             if (set.next()) {
                 count = set.getLong(1);
             }
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             System.err.println("Query: " + sql);
@@ -173,14 +211,14 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getTermContextsCountQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ps.setString(2, values);
             ResultSet set = ps.executeQuery();
             if (set.next()) {
                 count = set.getLong(1);
             }
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             System.err.println("Query: " + sql);
@@ -194,7 +232,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getTermContextsScoreQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ps.setString(2, val);
             ResultSet set = ps.executeQuery();
@@ -202,7 +240,7 @@ public class DatabaseThesaurus extends DatabaseResource
                 score = set.getDouble(1);
 
             }
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             System.err.println("Query: " + sql);
@@ -210,7 +248,7 @@ public class DatabaseThesaurus extends DatabaseResource
         return score;
     }
 
-    /*private String buildBatchInClause(int batchSize) {
+    private String buildBatchInClause(int batchSize) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("(");
@@ -221,7 +259,135 @@ public class DatabaseThesaurus extends DatabaseResource
         sb.append(")");
 
         return sb.toString();
-    }*/
+    }
+
+    /**
+     * Splits the keys into chunks whose sizes are taken from a small fixed set, so that only a handful of distinct
+     * IN-clause statements ever have to be prepared for a connection.
+     *
+     * @param keys the keys to look up, duplicates are removed
+     * @return chunks that can be passed to the batch methods of this class
+     */
+    public static List<List<String>> splitIntoBatches(Collection<String> keys) {
+        List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(keys));
+        List<List<String>> batches = new ArrayList<List<String>>();
+
+        int currentIndex = 0;
+        while (currentIndex < distinct.size()) {
+            int left = distinct.size() - currentIndex;
+
+            int batchSize = SINGLE_BATCH;
+            if (left >= MAX_BATCH) {
+                batchSize = MAX_BATCH;
+            } else if (left >= LARGER_BATCH) {
+                batchSize = LARGER_BATCH;
+            } else if (left >= LARGE_BATCH) {
+                batchSize = LARGE_BATCH;
+            } else if (left >= MEDIUM_BATCH) {
+                batchSize = MEDIUM_BATCH;
+            } else if (left >= SMALL_BATCH) {
+                batchSize = SMALL_BATCH;
+            }
+
+            batches.add(distinct.subList(currentIndex, currentIndex + batchSize));
+            currentIndex += batchSize;
+        }
+
+        return batches;
+    }
+
+    private ResultSet executeBatchQuery(String sql, List<String> keys) {
+        try {
+            PreparedStatement ps = prepare(sql);
+            for (int i = 0; i < keys.size(); i++) {
+                ps.setString(i + 1, keys.get(i));
+            }
+            return ps.executeQuery();
+        } catch (SQLException e) {
+            throw new RuntimeException("Batch query failed: " + sql, e);
+        }
+    }
+
+    /**
+     * Similar terms for several keys in one round trip. Rows consist of the key, the similar term and the score,
+     * ordered by descending score per key.
+     *
+     * @param keys one chunk as returned by {@link #splitIntoBatches(Collection)}
+     * @return the result set
+     * @throws IllegalStateException if no batch query has been configured
+     * @throws RuntimeException wrapping the {@link SQLException} if the query failed
+     */
+    public ResultSet getSimilarTermsBatch(List<String> keys) {
+        String sql = getDatabaseConfiguration().getSimilarTermsBatchQuery(buildBatchInClause(keys.size()));
+        if (sql == null) throw new IllegalStateException("No similarTermsBatchQuery configured");
+        return executeBatchQuery(sql, keys);
+    }
+
+    /**
+     * The most similar terms of several keys in one round trip. The similarTermsTopQuery of each key is run as a
+     * subquery and the subqueries are joined by UNION ALL, so that at most {@link #limitOf(int)} rows are transferred
+     * per key; window functions would do the same with less SQL, but neither MySQL 5 nor the embedded SQLite have
+     * them. Rows consist of the requested key as it was bound, the similar term and the score. The rows of a key
+     * need not be ordered and may exceed {@code numberOfEntries}.
+     *
+     * @param keys one chunk as returned by {@link #splitIntoBatches(Collection)}
+     * @throws RuntimeException wrapping the {@link SQLException} if the query failed
+     */
+    public ResultSet getSimilarTermsTopBatch(List<String> keys, int numberOfEntries) {
+        String topQuery = getDatabaseConfiguration().getSimilarTermsTopQuery(limitOf(numberOfEntries));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) sb.append(" UNION ALL ");
+            sb.append("SELECT ?, top").append(i).append(".* FROM (").append(topQuery).append(") top").append(i);
+        }
+        String sql = sb.toString();
+        try {
+            PreparedStatement ps = prepare(sql);
+            for (int i = 0; i < keys.size(); i++) {
+                // once for the key column and once for the subquery
+                ps.setString(2 * i + 1, keys.get(i));
+                ps.setString(2 * i + 2, keys.get(i));
+            }
+            return ps.executeQuery();
+        } catch (SQLException e) {
+            throw new RuntimeException("Batch query failed: " + sql, e);
+        }
+    }
+
+    /**
+     * Term counts for several keys in one round trip. Rows consist of the key and its count; unknown keys have no
+     * row.
+     *
+     * @see #getSimilarTermsBatch(List)
+     */
+    public ResultSet getTermCountBatch(List<String> keys) {
+        String sql = getDatabaseConfiguration().getTermsCountBatchQuery(buildBatchInClause(keys.size()));
+        if (sql == null) throw new IllegalStateException("No termsCountBatchQuery configured");
+        return executeBatchQuery(sql, keys);
+    }
+
+    /**
+     * The counts of all terms, to load them into memory. Rows consist of the term and its count.
+     *
+     * @throws IllegalStateException if no termsCountDumpQuery has been configured
+     */
+    public ResultSet getAllTermCounts() throws SQLException {
+        String sql = getDatabaseConfiguration().getTermsCountDumpQuery();
+        if (sql == null) throw new IllegalStateException("No termsCountDumpQuery configured");
+        return prepare(sql).executeQuery();
+    }
+
+    /**
+     * Sense clusters for several keys in one round trip. Rows consist of the key followed by the columns of
+     * {@link #getSenses(String)}.
+     *
+     * @see #getSimilarTermsBatch(List)
+     */
+    public ResultSet getSensesBatch(List<String> keys) {
+        String sql = getDatabaseConfiguration().getSensesBatchQuery(buildBatchInClause(keys.size()));
+        if (sql == null) throw new IllegalStateException("No sensesBatchQuery configured");
+        return executeBatchQuery(sql, keys);
+    }
 
     /*@Override
     public Map<String, Double> getBatchTermContextsScore(List<String> keys, String context) {
@@ -291,7 +457,7 @@ public class DatabaseThesaurus extends DatabaseResource
 
         String sql = getDatabaseConfiguration().getBatchTermContextsScoreQuery();
         try {
-            PreparedStatement ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            PreparedStatement ps = prepare(sql);
 
             ps.setString(1, expandedJo);
             ps.setString(2, context);
@@ -302,7 +468,7 @@ public class DatabaseThesaurus extends DatabaseResource
                 result.put(set.getString(1), set.getDouble(2));
             }
 
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             throw new IllegalStateException("Can't run SQL statement " + sql, e);
         }
@@ -315,7 +481,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getContextTermsScoresQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, feature);
             ResultSet set = ps.executeQuery();
 
@@ -325,12 +491,29 @@ public class DatabaseThesaurus extends DatabaseResource
         }
     }
 
+    /**
+     * The numberOfEntries terms with the highest score for the feature.
+     *
+     * @throws IllegalStateException if no contextTermsScoresTopQuery has been configured
+     */
+    public ResultSet getContextTermsScores(String feature, int numberOfEntries) {
+        String sql = getDatabaseConfiguration().getContextTermsScoresTopQuery(limitOf(numberOfEntries));
+        if (sql == null) throw new IllegalStateException("No contextTermsScoresTopQuery configured");
+        try {
+            PreparedStatement ps = prepareTop(sql, numberOfEntries);
+            ps.setString(1, feature);
+            return ps.executeQuery();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public ResultSet getTermContextsScores(String key) {
         String sql = getDatabaseConfiguration().getTermContextsScoresQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
 
@@ -345,10 +528,10 @@ public class DatabaseThesaurus extends DatabaseResource
     @Override
     public ResultSet getTermContextsScores(String key, int numberOfEntries) {
         String sql;
-        sql = getDatabaseConfiguration().getTermContextsScoresTopQuery(numberOfEntries);
+        sql = getDatabaseConfiguration().getTermContextsScoresTopQuery(limitOf(numberOfEntries));
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepareTop(sql, numberOfEntries);
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
 
@@ -365,7 +548,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getTermContextsScoresGtScore();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ps.setDouble(2, threshold);
             ResultSet set = ps.executeQuery();
@@ -382,7 +565,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getSensesQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
 
@@ -399,7 +582,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getIsasQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
 
@@ -416,7 +599,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getSensesCUIsQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, key);
             ResultSet set = ps.executeQuery();
 
@@ -434,7 +617,7 @@ public class DatabaseThesaurus extends DatabaseResource
         String sql = getDatabaseConfiguration().getSimilarTermScoreQuery();
         PreparedStatement ps;
         try {
-            ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+            ps = prepare(sql);
             ps.setString(1, t1);
             ps.setString(2, t2);
             ResultSet set = ps.executeQuery();
@@ -442,7 +625,7 @@ public class DatabaseThesaurus extends DatabaseResource
                 score = set.getDouble(1);
 
             }
-            ps.close();
+            set.close();
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             System.err.println("Query: " + sql);
@@ -0,0 +1,86 @@
+package org.jobimtext.api.db;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Approximates the case- and accent-insensitive collation that MySQL compares thesaurus keys with, so that keys
+ * the database may consider equal can be recognized without asking it. Two keys are equivalent if their
+ * {@link #normalize(String) normal forms} are equal. Keys that are equal under a binary collation are equivalent as
+ * well, so treating equivalent keys with care is safe for both kinds of databases.
+ */
+public final class KeyCollation {
+
+    private KeyCollation() {
+    }
+
+    /**
+     * @return the key in lower case without accents; the key itself if it has neither upper case letters nor
+     *         characters outside of ASCII
+     */
+    public static String normalize(String key) {
+        if (key == null) {
+            return "";
+        }
+        boolean plain = true;
+        for (int i = 0; i < key.length() && plain; i++) {
+            char c = key.charAt(i);
+            plain = c < 0x80 && (c < 'A' || c > 'Z');
+        }
+        if (plain) {
+            return key;
+        }
+        String decomposed = Normalizer.normalize(key, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK
+                    && type != Character.COMBINING_SPACING_MARK) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The keys requested by a multi-key query, by normal form. The query returns rows under the spelling stored in the
+     * database, so a row can only be assigned to the requested key it equals. Requested keys that are merely
+     * equivalent to the key of a row may have rows under other spellings, which a single-key query would return too;
+     * they are collected to be looked up on their own.
+     */
+    public static class Requested {
+        private final Map<String, List<String>> keys = new HashMap<String, List<String>>();
+
+        public Requested(Collection<String> requested) {
+            for (String key : requested) {
+                String normal = normalize(key);
+                List<String> list = keys.get(normal);
+                if (list == null) {
+                    list = new ArrayList<String>(1);
+                    keys.put(normal, list);
+                }
+                list.add(key);
+            }
+        }
+
+        /**
+         * Adds the requested keys that are equivalent but not equal to the key of a row to {@code unmatched}.
+         */
+        public void rowRead(String rowKey, Set<String> unmatched) {
+            List<String> list = keys.get(normalize(rowKey));
+            if (list != null) {
+                for (String key : list) {
+                    if (!key.equals(rowKey)) {
+                        unmatched.add(key);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.jobimtext.api.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps one {@link PreparedStatement} per distinct SQL string for a single connection, so that the database only has
+ * to parse and plan each query template once. The SQL strings are the resolved query templates of the
+ * {@link org.jobimtext.api.configuration.DatabaseThesaurusConfiguration}.
+ *
+ * Statements handed out by the cache must not be closed by the caller; close the {@link java.sql.ResultSet} instead.
+ * A statement that has been closed anyway is transparently prepared again. The cache is not thread safe.
+ *
+ * At most {@link #getCapacity()} statements are kept open; beyond that the least recently used one is closed, so
+ * that SQL strings which differ in a literal cannot exhaust the server's limit of prepared statements. Closing a
+ * statement closes its open result set, so the capacity must be well above the number of statements whose results
+ * are read at the same time.
+ */
+public class PreparedStatementCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Connection connection;
+    private final int capacity;
+    private final Map<String, PreparedStatement> statements;
+
+    private long prepareCount = 0;
+    private long reuseCount = 0;
+    private long evictionCount = 0;
+
+    public PreparedStatementCache(Connection connection) {
+        this(connection, DEFAULT_CAPACITY);
+    }
+
+    public PreparedStatementCache(Connection connection, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= PreparedStatementCache.this.capacity) {
+                    return false;
+                }
+                close(eldest.getValue());
+                evictionCount++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the given SQL string, preparing it on the first request.
+     *
+     * @param sql the SQL query
+     * @return a prepared statement with cleared parameters
+     * @throws SQLException if the statement could not be prepared
+     */
+    public PreparedStatement getStatement(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            ps.clearParameters();
+            reuseCount++;
+            return ps;
+        }
+
+        ps = connection.prepareStatement(sql);
+        statements.put(sql, ps);
+        prepareCount++;
+        return ps;
+    }
+
+    /**
+     * @return number of statements actually prepared on the connection
+     */
+    public long getPrepareCount() {
+        return prepareCount;
+    }
+
+    /**
+     * @return number of prepare calls saved by reusing a cached statement
+     */
+    public long getReuseCount() {
+        return reuseCount;
+    }
+
+    /**
+     * @return number of statements closed to stay within the capacity
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return maximum number of statements kept open
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of distinct statements currently held
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all cached statements. The cache can still be used afterwards as long as the connection is open.
+     */
+    public void closeAll() {
+        for (PreparedStatement ps : statements.values()) {
+            close(ps);
+        }
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "prepared " + prepareCount + " statements, saved " + reuseCount + " prepares by reuse, closed "
+                + evictionCount + " least recently used";
+    }
+}
@@ -0,0 +1,409 @@
+package org.jobimtext.api.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.jobimtext.api.configuration.DatabaseTableConfiguration;
+import org.jobimtext.api.configuration.DatabaseThesaurusConfiguration;
+
+/**
+ * Imports the tab separated output files of the JoBimText pipeline into an embedded SQLite database and writes a
+ * matching {@link DatabaseThesaurusConfiguration}, so a thesaurus can be used without a database server.
+ *
+ * The input files are:
+ * <ul>
+ * <li>the distributional thesaurus: word1, word2, score, optionally followed by more columns (the format read by
+ * {@link org.jobimtext.util.DtEntryIterator}), grouped by word1 and ordered by decreasing score</li>
+ * <li>word counts and feature counts: key, count</li>
+ * <li>optionally the term-context significances: word, feature, sig and optionally the frequency</li>
+ * <li>optionally the sense clusters: word, cluster id, comma separated cluster terms and optionally the isas</li>
+ * </ul>
+ * Files ending in ".gz" are decompressed on the fly. Rows are inserted in large transactions before any index exists,
+ * each batch sorted by key; the covering indexes for the generated queries are built afterwards in one sorting pass each.
+ */
+public class ThesaurusImporter {
+    public static final String JDBC_DRIVER = "org.sqlite.JDBC";
+
+    private static final int BATCH_SIZE = 10000;
+    private static final int COMMIT_SIZE = 1000000;
+
+    public static final String TABLE_SIMILAR_TERMS = "similar_terms";
+    public static final String TABLE_TERM_CONTEXTS = "term_contexts";
+    public static final String TABLE_TERM_COUNT = "word_count";
+    public static final String TABLE_CONTEXTS_COUNT = "feature_count";
+    public static final String TABLE_SENSES = "senses";
+
+    private final File database;
+    private final File dtFile;
+    private final File wordCountFile;
+    private final File featureCountFile;
+    private File termContextsFile = null;
+    private File sensesFile = null;
+    private int maxSimilarTerms = 0;
+    private int maxContextTerms = 1000;
+
+    private Connection connection;
+
+    public ThesaurusImporter(File database, File dtFile, File wordCountFile, File featureCountFile) {
+        this.database = database;
+        this.dtFile = dtFile;
+        this.wordCountFile = wordCountFile;
+        this.featureCountFile = featureCountFile;
+    }
+
+    public void setTermContextsFile(File termContextsFile) {
+        this.termContextsFile = termContextsFile;
+    }
+
+    public void setSensesFile(File sensesFile) {
+        this.sensesFile = sensesFile;
+    }
+
+    /**
+     * @param maxSimilarTerms number of similar terms imported per term, 0 imports all of them
+     */
+    public void setMaxSimilarTerms(int maxSimilarTerms) {
+        this.maxSimilarTerms = maxSimilarTerms;
+    }
+
+    /**
+     * @param maxContextTerms number of terms returned per context by the generated configuration, 0 returns all
+     */
+    public void setMaxContextTerms(int maxContextTerms) {
+        this.maxContextTerms = maxContextTerms;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        if (!options.containsKey("-db") || !options.containsKey("-dt") || !options.containsKey("-wordCount")
+                || !options.containsKey("-featureCount")) {
+            System.err.println("Usage: ThesaurusImporter -db <database file> -dt <thesaurus file> "
+                    + "-wordCount <word count file> -featureCount <feature count file> "
+                    + "[-termContexts <significance file>] [-senses <sense cluster file>] "
+                    + "[-maxSimilarTerms <n>] [-maxContextTerms <n>] [-config <configuration file to write>]");
+            System.exit(1);
+        }
+        ThesaurusImporter importer = new ThesaurusImporter(new File(options.get("-db")), new File(options.get("-dt")),
+                new File(options.get("-wordCount")), new File(options.get("-featureCount")));
+        if (options.containsKey("-termContexts")) {
+            importer.setTermContextsFile(new File(options.get("-termContexts")));
+        }
+        if (options.containsKey("-senses")) {
+            importer.setSensesFile(new File(options.get("-senses")));
+        }
+        if (options.containsKey("-maxSimilarTerms")) {
+            importer.setMaxSimilarTerms(Integer.parseInt(options.get("-maxSimilarTerms")));
+        }
+        if (options.containsKey("-maxContextTerms")) {
+            importer.setMaxContextTerms(Integer.parseInt(options.get("-maxContextTerms")));
+        }
+        File configFile = options.containsKey("-config") ? new File(options.get("-config"))
+                : new File(options.get("-db") + ".xml");
+
+        importer.importFiles();
+        importer.createConfiguration().saveAsXml(configFile);
+        System.out.println("[Import] Wrote database configuration to " + configFile);
+    }
+
+    public void importFiles() throws SQLException, ClassNotFoundException, IOException {
+        if (database.exists()) {
+            throw new IllegalStateException("Database " + database + " already exists");
+        }
+        DatabaseConnection db = new DatabaseConnection();
+        db.openConnection(getDbUrl(), "", "", JDBC_DRIVER);
+        connection = db.getConnection();
+        try {
+            execute("PRAGMA journal_mode = OFF");
+            execute("PRAGMA synchronous = OFF");
+            connection.setAutoCommit(false);
+
+            execute("CREATE TABLE " + TABLE_SIMILAR_TERMS + " (word1 TEXT NOT NULL, word2 TEXT NOT NULL, count REAL NOT NULL)");
+            execute("CREATE TABLE " + TABLE_TERM_COUNT + " (word TEXT NOT NULL, count INTEGER NOT NULL)");
+            execute("CREATE TABLE " + TABLE_CONTEXTS_COUNT + " (feature TEXT NOT NULL, count INTEGER NOT NULL)");
+            execute("CREATE TABLE " + TABLE_TERM_CONTEXTS + " (word TEXT NOT NULL, feature TEXT NOT NULL, sig REAL NOT NULL, freq INTEGER)");
+            execute("CREATE TABLE " + TABLE_SENSES + " (word TEXT NOT NULL, cid TEXT NOT NULL, cluster TEXT NOT NULL, isas TEXT NOT NULL)");
+
+            load(dtFile, "INSERT INTO " + TABLE_SIMILAR_TERMS + " VALUES (?, ?, ?)", new ColumnType[]{
+                    ColumnType.TEXT, ColumnType.TEXT, ColumnType.REAL}, 3, maxSimilarTerms);
+            load(wordCountFile, "INSERT INTO " + TABLE_TERM_COUNT + " VALUES (?, ?)", new ColumnType[]{
+                    ColumnType.TEXT, ColumnType.INTEGER}, 2, 0);
+            load(featureCountFile, "INSERT INTO " + TABLE_CONTEXTS_COUNT + " VALUES (?, ?)", new ColumnType[]{
+                    ColumnType.TEXT, ColumnType.INTEGER}, 2, 0);
+            if (termContextsFile != null) {
+                load(termContextsFile, "INSERT INTO " + TABLE_TERM_CONTEXTS + " VALUES (?, ?, ?, ?)", new ColumnType[]{
+                        ColumnType.TEXT, ColumnType.TEXT, ColumnType.REAL, ColumnType.INTEGER}, 3, 0);
+            }
+            if (sensesFile != null) {
+                load(sensesFile, "INSERT INTO " + TABLE_SENSES + " VALUES (?, ?, ?, ?)", new ColumnType[]{
+                        ColumnType.TEXT, ColumnType.TEXT, ColumnType.TEXT, ColumnType.TEXT}, 3, 0);
+            }
+
+            // covering indexes, so lookups never have to touch the table rows
+            createIndex(TABLE_SIMILAR_TERMS, "word1, count DESC, word2");
+            createIndex(TABLE_TERM_COUNT, "word, count");
+            createIndex(TABLE_CONTEXTS_COUNT, "feature, count");
+            createIndex(TABLE_TERM_CONTEXTS, "word, feature, sig, freq");
+            createIndex(TABLE_TERM_CONTEXTS, "feature, sig DESC, word");
+            createIndex(TABLE_SENSES, "word, cid, cluster, isas");
+            execute("ANALYZE");
+            connection.commit();
+        } finally {
+            db.closeConnection();
+        }
+    }
+
+    /**
+     * Creates the configuration for the imported database. All query templates refer to the tables and columns
+     * created by {@link #importFiles()}.
+     */
+    public DatabaseThesaurusConfiguration createConfiguration() {
+        DatabaseThesaurusConfiguration conf = new DatabaseThesaurusConfiguration();
+        DatabaseTableConfiguration tables = conf.getTables();
+        tables.setTableSimilarTerms(TABLE_SIMILAR_TERMS);
+        // feature similarities are not part of the imported files, the similar contexts queries stay unset
+        tables.setTableSimilarContexts("featsim");
+        tables.setTableTermContextsScore(TABLE_TERM_CONTEXTS);
+        tables.setTableTermCount(TABLE_TERM_COUNT);
+        tables.setTableContextsCount(TABLE_CONTEXTS_COUNT);
+        tables.setTableSenses(TABLE_SENSES);
+        tables.setTableIsas(TABLE_SENSES);
+        tables.setTableSenseCUIs(TABLE_SENSES);
+
+        conf.setDbUrl(getDbUrl());
+        conf.setDbUser("");
+        conf.setDbPassword("");
+        conf.setJdbcString(JDBC_DRIVER);
+
+        conf.similarTermsQuery = "SELECT word2, count FROM $tableSimilarTerms WHERE word1 = ? ORDER BY count DESC";
+        conf.similarTermsTopQuery = "SELECT word2, count FROM $tableSimilarTerms WHERE word1 = ? ORDER BY count DESC LIMIT $numberOfEntries";
+        conf.similarTermsGtScoreQuery = "SELECT word2, count FROM $tableSimilarTerms WHERE word1 = ? AND count > ? ORDER BY count DESC";
+        conf.similarTermScoreQuery = "SELECT count FROM $tableSimilarTerms WHERE word1 = ? AND word2 = ?";
+        conf.termsCountQuery = "SELECT count FROM $tableTermCount WHERE word = ?";
+        conf.contextsCountQuery = "SELECT count FROM $tableContextsCount WHERE feature = ?";
+        conf.termContextsCountQuery = "SELECT freq FROM $tableTermContextsScore WHERE word = ? AND feature = ?";
+        conf.termContextsScoreQuery = "SELECT sig FROM $tableTermContextsScore WHERE word = ? AND feature = ?";
+        conf.batchTermContextsScoreQuery = "SELECT f.word, f.sig FROM $tableTermContextsScore AS f INNER JOIN $tableSimilarTerms AS s ON f.word = s.word2 WHERE s.word1 = ? AND f.feature = ?";
+        conf.termContextsScoresQuery = "SELECT feature, sig FROM $tableTermContextsScore WHERE word = ? ORDER BY sig DESC";
+        conf.termContextsScoresTopQuery = "SELECT feature, sig FROM $tableTermContextsScore WHERE word = ? ORDER BY sig DESC LIMIT $numberOfEntries";
+        conf.termContextsScoresGtScoreQuery = "SELECT feature, sig FROM $tableTermContextsScore WHERE word = ? AND sig > ? ORDER BY sig DESC";
+        conf.contextTermsScoresQuery = "SELECT word, sig FROM $tableTermContextsScore WHERE feature = ? ORDER BY sig DESC"
+                + (maxContextTerms > 0 ? " LIMIT " + maxContextTerms : "");
+        conf.contextTermsScoresTopQuery = "SELECT word, sig FROM $tableTermContextsScore WHERE feature = ? ORDER BY sig DESC LIMIT $numberOfEntries";
+        conf.sensesQuery = "SELECT cid, cluster, isas FROM $tableSenses WHERE word = ?";
+        conf.isasQuery = "SELECT cid, isas FROM $tableIsas WHERE word = ?";
+        conf.senseCUIsQuery = "SELECT cid, cluster FROM $tableSenseCUIs WHERE word = ?";
+
+        conf.similarTermsBatchQuery = "SELECT word1, word2, count FROM $tableSimilarTerms WHERE word1 IN [IN-CLAUSE] ORDER BY word1, count DESC";
+        conf.termsCountBatchQuery = "SELECT word, count FROM $tableTermCount WHERE word IN [IN-CLAUSE]";
+        conf.sensesBatchQuery = "SELECT word, cid, cluster, isas FROM $tableSenses WHERE word IN [IN-CLAUSE]";
+
+        conf.similarTermsDumpQuery = "SELECT word1, word2, count FROM $tableSimilarTerms ORDER BY word1";
+        conf.termContextsScoresDumpQuery = "SELECT word, feature, sig FROM $tableTermContextsScore ORDER BY word";
+        conf.contextTermsScoresDumpQuery = "SELECT feature, word, sig FROM $tableTermContextsScore ORDER BY feature";
+        conf.termsCountDumpQuery = "SELECT word, count FROM $tableTermCount";
+        conf.contextsCountDumpQuery = "SELECT feature, count FROM $tableContextsCount";
+        conf.sensesDumpQuery = "SELECT word, cid, cluster, isas FROM $tableSenses ORDER BY word";
+        return conf;
+    }
+
+    public String getDbUrl() {
+        return "jdbc:sqlite:" + database.getPath();
+    }
+
+    private enum ColumnType {
+        TEXT, REAL, INTEGER
+    }
+
+    /**
+     * Inserts the tab separated rows of a file. Lines with fewer than the required number of columns are skipped,
+     * missing optional columns are inserted as NULL (or the empty string for text). With a limit, only that many
+     * consecutive rows with the same first column are inserted. The limit is applied in file order, before the rows of
+     * a batch are sorted.
+     */
+    private void load(File file, String sql, ColumnType[] types, int requiredColumns, int limit)
+            throws IOException, SQLException {
+        System.out.println("[Import] Loading " + file);
+        BufferedReader reader = openReader(file);
+        PreparedStatement ps = connection.prepareStatement(sql);
+        long rows = 0;
+        long skipped = 0;
+        String previousKey = null;
+        int keyRows = 0;
+        List<Object[]> batch = new ArrayList<Object[]>(BATCH_SIZE);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length < requiredColumns) {
+                    skipped++;
+                    continue;
+                }
+                if (limit > 0) {
+                    if (columns[0].equals(previousKey)) {
+                        if (++keyRows > limit) {
+                            continue;
+                        }
+                    } else {
+                        previousKey = columns[0];
+                        keyRows = 1;
+                    }
+                }
+                Object[] row;
+                try {
+                    row = parse(types, columns);
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+                batch.add(row);
+                rows++;
+                if (batch.size() == BATCH_SIZE) {
+                    insert(ps, types, batch);
+                }
+                if (rows % COMMIT_SIZE == 0) {
+                    connection.commit();
+                    System.out.println("[Import] " + rows + " rows");
+                }
+            }
+            insert(ps, types, batch);
+            connection.commit();
+        } finally {
+            ps.close();
+            reader.close();
+        }
+        System.out.println("[Import] Loaded " + rows + " rows from " + file
+                + (skipped > 0 ? ", skipped " + skipped + " malformed lines" : ""));
+    }
+
+    /**
+     * Converts the columns of a line to the values bound for the given column types.
+     *
+     * @throws NumberFormatException if a numeric column cannot be parsed
+     */
+    private static Object[] parse(ColumnType[] types, String[] columns) {
+        Object[] row = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            String value = i < columns.length ? columns[i] : null;
+            switch (types[i]) {
+                case TEXT:
+                    row[i] = value == null ? "" : value;
+                    break;
+                case REAL:
+                    row[i] = value == null ? null : Double.valueOf(value);
+                    break;
+                case INTEGER:
+                    // counts are sometimes written as floating point numbers
+                    row[i] = value == null ? null : Long.valueOf((long) Double.parseDouble(value));
+                    break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Inserts a batch of rows sorted by their columns from left to right, which starts with the key of every table,
+     * and clears it. Sorted inserts keep the table pages of a key together and let the index builds run over mostly
+     * ordered input.
+     */
+    private static void insert(PreparedStatement ps, ColumnType[] types, List<Object[]> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Collections.sort(batch, ROW_ORDER);
+        for (Object[] row : batch) {
+            for (int i = 0; i < types.length; i++) {
+                bind(ps, i + 1, types[i], row[i]);
+            }
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        batch.clear();
+    }
+
+    private static final Comparator<Object[]> ROW_ORDER = new Comparator<Object[]>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object[] a, Object[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    if (a[i] == null) {
+                        return -1;
+                    }
+                    if (b[i] == null) {
+                        return 1;
+                    }
+                    int c = ((Comparable<Object>) a[i]).compareTo(b[i]);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+            }
+            return 0;
+        }
+    };
+
+    private static void bind(PreparedStatement ps, int index, ColumnType type, Object value) throws SQLException {
+        switch (type) {
+            case TEXT:
+                ps.setString(index, (String) value);
+                break;
+            case REAL:
+                if (value == null) {
+                    ps.setNull(index, Types.DOUBLE);
+                } else {
+                    ps.setDouble(index, (Double) value);
+                }
+                break;
+            case INTEGER:
+                if (value == null) {
+                    ps.setNull(index, Types.BIGINT);
+                } else {
+                    ps.setLong(index, (Long) value);
+                }
+                break;
+        }
+    }
+
+    private void createIndex(String table, String columns) throws SQLException {
+        String name = table + "_" + columns.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("_DESC", "");
+        System.out.println("[Import] Indexing " + table + " (" + columns + ")");
+        execute("CREATE INDEX " + name + " ON " + table + " (" + columns + ")");
+        connection.commit();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        return new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+    }
+}
@@ -0,0 +1,143 @@
+package org.jobimtext.api.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Default {@link QueryMetrics} that keeps, per query template, the number of lookups, returned rows, decoded bytes
+ * and a latency histogram from which percentiles are estimated.
+ */
+public class HistogramQueryMetrics implements QueryMetrics {
+    private final Map<String, QueryStatistics> statistics = new TreeMap<String, QueryStatistics>();
+
+    @Override
+    public void record(String query, long nanos, int rows, long bytes) {
+        getStatistics(query).add(nanos, rows, bytes);
+    }
+
+    /**
+     * @return the statistics of the query template, created if it has not been recorded yet
+     */
+    public QueryStatistics getStatistics(String query) {
+        synchronized (statistics) {
+            QueryStatistics result = statistics.get(query);
+            if (result == null) {
+                result = new QueryStatistics();
+                statistics.put(query, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the query templates recorded so far, in alphabetical order
+     */
+    public List<String> getQueries() {
+        synchronized (statistics) {
+            return new ArrayList<String>(statistics.keySet());
+        }
+    }
+
+    @Override
+    public List<String> summarize() {
+        List<String> lines = new ArrayList<String>();
+        for (String query : getQueries()) {
+            QueryStatistics s = getStatistics(query);
+            synchronized (s) {
+                lines.add(String.format("%s: %d lookups, total %.1f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, " +
+                        "max %.3f ms, %d rows, %.1f KB decoded", query, s.getCount(), s.getTotalNanos() / 1e6,
+                        s.getPercentile(0.5) / 1e6, s.getPercentile(0.95) / 1e6, s.getPercentile(0.99) / 1e6,
+                        s.getMaxNanos() / 1e6, s.getRows(), s.getBytes() / 1024.0));
+            }
+        }
+        return lines;
+    }
+
+    @Override
+    public void reset() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    /**
+     * Measurements of a single query template. Latencies are counted in logarithmic buckets with four buckets per
+     * power of two, so a percentile is accurate to about 20 percent.
+     */
+    public static class QueryStatistics {
+        private static final int BUCKETS_PER_POWER = 4;
+        private static final int BUCKETS = 64 * BUCKETS_PER_POWER;
+
+        private final long[] histogram = new long[BUCKETS];
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long rows = 0;
+        private long bytes = 0;
+
+        synchronized void add(long nanos, int rows, long bytes) {
+            histogram[bucket(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            this.rows += rows;
+            this.bytes += bytes;
+        }
+
+        static int bucket(long nanos) {
+            if (nanos <= 1) {
+                return 0;
+            }
+            int bucket = (int) (Math.log(nanos) / Math.log(2) * BUCKETS_PER_POWER);
+            return Math.min(bucket, BUCKETS - 1);
+        }
+
+        /**
+         * Upper bound of the given bucket in nanoseconds.
+         */
+        static double upperBound(int bucket) {
+            return Math.pow(2, (bucket + 1) / (double) BUCKETS_PER_POWER);
+        }
+
+        /**
+         * @param quantile a value between 0 and 1
+         * @return estimated latency below which the given fraction of lookups finished, in nanoseconds
+         */
+        public synchronized double getPercentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= rank && histogram[i] > 0) {
+                    return Math.min(upperBound(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public synchronized long getRows() {
+            return rows;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.jobimtext.api.metrics;
+
+import java.util.List;
+
+/**
+ * Receives one measurement per thesaurus lookup. Implementations are attached to a thesaurus datastructure, so every
+ * instance sees the lookups of one thesaurus; they have to be thread-safe, since lookups can run in parallel.
+ */
+public interface QueryMetrics {
+
+    /**
+     * Records a finished lookup.
+     *
+     * @param query name of the query template, e.g. "similarTermsTopQuery"
+     * @param nanos wall clock time of the lookup including decoding of the result
+     * @param rows  number of rows (or records) returned
+     * @param bytes estimated number of bytes decoded from the result
+     */
+    public void record(String query, long nanos, int rows, long bytes);
+
+    /**
+     * @return a human readable summary of the measurements so far, one line per query template
+     */
+    public List<String> summarize();
+
+    /**
+     * Discards all measurements.
+     */
+    public void reset();
+}
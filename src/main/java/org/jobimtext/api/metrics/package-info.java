@@ -0,0 +1,4 @@
+/**
+ * Latency and result size measurements of thesaurus lookups
+ */
+package org.jobimtext.api.metrics;
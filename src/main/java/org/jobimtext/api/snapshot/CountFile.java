@@ -0,0 +1,27 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A mapped file holding one long count per string id, see {@link SnapshotFormat}.
+ */
+class CountFile {
+    private final MappedFile file;
+    private final int size;
+
+    CountFile(File path) throws IOException {
+        file = new MappedFile(path);
+        size = SnapshotFormat.readHeader(file, path);
+    }
+
+    /**
+     * @return count of the id, 0 for ids outside the file
+     */
+    long get(int id) {
+        if (id < 0 || id >= size) {
+            return 0;
+        }
+        return file.getLong(SnapshotFormat.HEADER_SIZE + 8L * id);
+    }
+}
@@ -0,0 +1,88 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only file mapped into memory. Files larger than 2 GB are mapped in segments that overlap by
+ * {@link SnapshotFormat#MAX_STRING_BYTES}, so every value can be read from a single segment. All accessors use
+ * absolute positions and never move a buffer's position, which makes them safe to call from several threads.
+ */
+class MappedFile {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+
+    MappedFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[Math.max(count, 1)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                long size = Math.min(SEGMENT_SIZE + SnapshotFormat.MAX_STRING_BYTES, length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(size, 0));
+            }
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    private MappedByteBuffer segment(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (SEGMENT_SIZE - 1));
+    }
+
+    int getInt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    double getDouble(long position) {
+        return segment(position).getDouble(offset(position));
+    }
+
+    byte[] getBytes(long position, int length) {
+        MappedByteBuffer segment = segment(position);
+        int offset = offset(position);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = segment.get(offset + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares the given bytes with the bytes stored at a position, as in {@link SnapshotFormat#compareBytes}.
+     */
+    int compareBytes(byte[] key, long position, int length) {
+        MappedByteBuffer segment = segment(position);
+        int offset = offset(position);
+        int common = Math.min(key.length, length);
+        for (int i = 0; i < common; i++) {
+            int diff = (key[i] & 0xff) - (segment.get(offset + i) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length - length;
+    }
+}
@@ -0,0 +1,75 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A mapped file holding one list of fixed-width records per string id, see {@link SnapshotFormat}.
+ */
+class PostingFile {
+    private final MappedFile file;
+    private final int size;
+    private final int recordWidth;
+    private final long countsStart;
+
+    PostingFile(File path, int expectedRecordWidth) throws IOException {
+        file = new MappedFile(path);
+        size = SnapshotFormat.readHeader(file, path);
+        recordWidth = file.getInt(SnapshotFormat.HEADER_SIZE);
+        if (recordWidth != expectedRecordWidth) {
+            throw new IOException(path + " has records of " + recordWidth + " bytes, expected " + expectedRecordWidth);
+        }
+        countsStart = SnapshotFormat.POSTING_HEADER_SIZE + 8L * size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of records of the id, 0 for ids outside the file
+     */
+    int count(int id) {
+        if (id < 0 || id >= size) {
+            return 0;
+        }
+        return file.getInt(countsStart + 4L * id);
+    }
+
+    /**
+     * @return position of the given record of an id
+     */
+    long record(int id, int index) {
+        return file.getLong(SnapshotFormat.POSTING_HEADER_SIZE + 8L * id) + (long) index * recordWidth;
+    }
+
+    int getInt(long position) {
+        return file.getInt(position);
+    }
+
+    double getDouble(long position) {
+        return file.getDouble(position);
+    }
+
+    /**
+     * Binary searches the records of an id, which must be sorted by the int at their start.
+     *
+     * @return index of the record or -1
+     */
+    int find(int id, int key) {
+        int low = 0;
+        int high = count(id) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = file.getInt(record(id, mid));
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
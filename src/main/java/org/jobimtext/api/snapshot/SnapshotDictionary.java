@@ -0,0 +1,58 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Maps the strings of a snapshot to their ids and back. Lookups of strings binary search the mapped string data
+ * without decoding it.
+ */
+public class SnapshotDictionary {
+    private final MappedFile file;
+    private final int size;
+    private final long dataStart;
+
+    public SnapshotDictionary(File path) throws IOException {
+        file = new MappedFile(path);
+        size = SnapshotFormat.readHeader(file, path);
+        dataStart = SnapshotFormat.HEADER_SIZE + 8L * (size + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the string or -1 if it is not part of the snapshot
+     */
+    public int getId(String string) {
+        if (string == null) {
+            return -1;
+        }
+        byte[] key = string.getBytes(SnapshotFormat.UTF8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long start = offset(mid);
+            int cmp = file.compareBytes(key, dataStart + start, (int) (offset(mid + 1) - start));
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String getString(int id) {
+        long start = offset(id);
+        return new String(file.getBytes(dataStart + start, (int) (offset(id + 1) - start)), SnapshotFormat.UTF8);
+    }
+
+    private long offset(int id) {
+        return file.getLong(SnapshotFormat.HEADER_SIZE + 8L * id);
+    }
+}
@@ -0,0 +1,572 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jobimtext.api.configuration.DatabaseThesaurusConfiguration;
+import org.jobimtext.api.db.DatabaseConnection;
+import org.jobimtext.api.db.KeyCollation;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Exports the tables of a database thesaurus into a snapshot directory (see {@link SnapshotFormat}) that can be read
+ * by {@link SnapshotThesaurusDatastructure}. The tables are read with the dump queries of the
+ * {@link DatabaseThesaurusConfiguration}; tables without a dump query are exported empty.
+ *
+ * The export makes two passes over the tables: the first collects all strings for the dictionary, the second writes
+ * the posting lists. Only the strings and the counts are held in memory.
+ */
+public class SnapshotExporter {
+    private static final int FETCH_SIZE = 10000;
+
+    private final DatabaseThesaurusConfiguration conf;
+    private final File directory;
+    private final int maxContextTerms;
+
+    private Connection connection;
+    private Map<String, Integer> ids;
+
+    /**
+     * @param maxContextTerms number of terms kept per context, ordered by score; 0 keeps all of them
+     */
+    public SnapshotExporter(DatabaseThesaurusConfiguration conf, File directory, int maxContextTerms) {
+        this.conf = conf;
+        this.directory = directory;
+        this.maxContextTerms = maxContextTerms;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SnapshotExporter <configuration file> <snapshot directory> [max terms per context]");
+            System.exit(1);
+        }
+        DatabaseThesaurusConfiguration conf = readConfiguration(new File(args[0]));
+        int maxContextTerms = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        new SnapshotExporter(conf, new File(args[1]), maxContextTerms).export();
+    }
+
+    /**
+     * Reads the first databaseThesaurusConfiguration element of a file, which may be a database configuration or a
+     * thesaurus configuration of the coreference system.
+     */
+    static DatabaseThesaurusConfiguration readConfiguration(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(file);
+        NodeList nodes = document.getElementsByTagNameNS("*", "databaseThesaurusConfiguration");
+        if (nodes.getLength() == 0) {
+            throw new IllegalArgumentException("No databaseThesaurusConfiguration found in " + file);
+        }
+        Unmarshaller unmarshaller = JAXBContext.newInstance(DatabaseThesaurusConfiguration.class).createUnmarshaller();
+        return (DatabaseThesaurusConfiguration) unmarshaller.unmarshal(nodes.item(0));
+    }
+
+    public void export() throws IOException, SQLException, ClassNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create snapshot directory " + directory);
+        }
+
+        DatabaseConnection db = new DatabaseConnection();
+        db.openConnection(conf.getDbUrl(), conf.getDbUser(), conf.getDbPassword(), conf.getJdbcString());
+        connection = db.getConnection();
+        try {
+            Set<String> strings = collectStrings();
+            Map<String, List<String>> spellings = collectSpellings(strings);
+            writeDictionary(strings);
+            writeCollation(spellings);
+
+            writeScores(SnapshotFormat.SIMILAR_TERMS_FILE, conf.getSimilarTermsDumpQuery(), true, 0);
+            writeScores(SnapshotFormat.TERM_CONTEXTS_FILE, conf.getTermContextsScoresDumpQuery(), false, 0);
+            writeScores(SnapshotFormat.CONTEXT_TERMS_FILE, conf.getContextTermsScoresDumpQuery(), true, maxContextTerms);
+            writeSenses(SnapshotFormat.SENSES_FILE, conf.getSensesDumpQuery());
+            writeCounts(SnapshotFormat.TERM_COUNTS_FILE, conf.getTermsCountDumpQuery());
+            writeCounts(SnapshotFormat.CONTEXT_COUNTS_FILE, conf.getContextsCountDumpQuery());
+        } finally {
+            db.closeConnection();
+        }
+        System.out.println("[Snapshot] Exported " + ids.size() + " strings to " + directory);
+    }
+
+    /*
+     * Pass 1: dictionary
+     */
+
+    private Set<String> collectStrings() throws SQLException {
+        final Set<String> strings = new HashSet<String>();
+        RowHandler collector = new RowHandler() {
+            @Override
+            void row(ResultSet set, int columns) throws SQLException {
+                for (int i = 1; i <= columns; i++) {
+                    String value = set.getString(i);
+                    strings.add(value == null ? "" : value);
+                }
+            }
+        };
+        // the context terms contain the same strings as the term contexts
+        scan(conf.getSimilarTermsDumpQuery(), collector, 2);
+        scan(conf.getTermContextsScoresDumpQuery(), collector, 2);
+        scan(conf.getTermsCountDumpQuery(), collector, 1);
+        scan(conf.getContextsCountDumpQuery(), collector, 1);
+        scan(conf.getSensesDumpQuery(), collector, 4);
+        return strings;
+    }
+
+    /**
+     * Adds the normal forms of the strings to them and returns the strings of each normal form that has a string other
+     * than itself.
+     */
+    private static Map<String, List<String>> collectSpellings(Set<String> strings) {
+        Map<String, List<String>> spellings = new HashMap<String, List<String>>();
+        for (String string : strings) {
+            String normal = KeyCollation.normalize(string);
+            if (!normal.equals(string)) {
+                List<String> list = spellings.get(normal);
+                if (list == null) {
+                    list = new ArrayList<String>(2);
+                    spellings.put(normal, list);
+                }
+                list.add(string);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : spellings.entrySet()) {
+            if (!strings.add(entry.getKey())) {
+                // the normal form is a spelling of its own
+                entry.getValue().add(entry.getKey());
+            }
+        }
+        return spellings;
+    }
+
+    private void writeDictionary(Set<String> strings) throws IOException {
+        byte[][] encoded = new byte[strings.size()][];
+        int n = 0;
+        for (String string : strings) {
+            encoded[n] = string.getBytes(SnapshotFormat.UTF8);
+            if (encoded[n].length > SnapshotFormat.MAX_STRING_BYTES) {
+                throw new IllegalStateException("String of " + encoded[n].length + " bytes is too long for a snapshot: "
+                        + string.substring(0, 100) + "...");
+            }
+            n++;
+        }
+        Arrays.sort(encoded, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return SnapshotFormat.compareBytes(a, b);
+            }
+        });
+
+        ids = new HashMap<String, Integer>(n * 2);
+        DataOutputStream out = open(SnapshotFormat.DICTIONARY_FILE);
+        try {
+            writeHeader(out, n);
+            long offset = 0;
+            for (int i = 0; i < n; i++) {
+                out.writeLong(offset);
+                offset += encoded[i].length;
+            }
+            out.writeLong(offset);
+            for (int i = 0; i < n; i++) {
+                out.write(encoded[i]);
+                ids.put(new String(encoded[i], SnapshotFormat.UTF8), i);
+            }
+        } finally {
+            out.close();
+        }
+        System.out.println("[Snapshot] Wrote dictionary with " + n + " strings");
+    }
+
+    private void writeCollation(Map<String, List<String>> spellings) throws IOException {
+        PostingWriter writer = new PostingWriter(SnapshotFormat.COLLATION_FILE, SnapshotFormat.COLLATION_RECORD_WIDTH);
+        try {
+            for (Map.Entry<String, List<String>> entry : spellings.entrySet()) {
+                int[] members = new int[entry.getValue().size()];
+                for (int i = 0; i < members.length; i++) {
+                    members[i] = id(entry.getValue().get(i));
+                }
+                // in dictionary order, which is the order of a binary collation
+                Arrays.sort(members);
+                int key = id(entry.getKey());
+                writer.startKey(key);
+                for (int member : members) {
+                    writer.out.writeInt(member);
+                }
+                writer.endKey(key, members.length);
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * Pass 2: postings and counts
+     */
+
+    private void writeScores(String name, String sql, final boolean byScore, final int limit)
+            throws SQLException, IOException {
+        final PostingWriter writer = new PostingWriter(name, SnapshotFormat.SCORED_RECORD_WIDTH);
+        try {
+            scan(sql, new RowHandler() {
+                final KeyGroup<ScoredBlock> group = new KeyGroup<ScoredBlock>() {
+                    @Override
+                    ScoredBlock newBlock() {
+                        return new ScoredBlock();
+                    }
+
+                    @Override
+                    void write(int key, ScoredBlock block) throws IOException {
+                        block.write(writer, key, byScore, limit);
+                    }
+                };
+
+                @Override
+                void row(ResultSet set, int columns) throws SQLException {
+                    group.block(set.getString(1)).add(id(set.getString(2)), set.getDouble(3));
+                }
+
+                @Override
+                void done() throws SQLException {
+                    group.flush();
+                }
+            }, 3);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeSenses(String name, String sql) throws SQLException, IOException {
+        final PostingWriter writer = new PostingWriter(name, SnapshotFormat.SENSE_RECORD_WIDTH);
+        try {
+            scan(sql, new RowHandler() {
+                final KeyGroup<IntBlock> group = new KeyGroup<IntBlock>() {
+                    @Override
+                    IntBlock newBlock() {
+                        return new IntBlock();
+                    }
+
+                    @Override
+                    void write(int key, IntBlock block) throws IOException {
+                        writer.startKey(key);
+                        for (int i = 0; i < block.size; i++) {
+                            writer.out.writeInt(block.values[i]);
+                        }
+                        writer.endKey(key, block.size / 3);
+                        block.size = 0;
+                    }
+                };
+
+                @Override
+                void row(ResultSet set, int columns) throws SQLException {
+                    IntBlock block = group.block(set.getString(1));
+                    for (int i = 2; i <= 4; i++) {
+                        block.add(id(set.getString(i)));
+                    }
+                }
+
+                @Override
+                void done() throws SQLException {
+                    group.flush();
+                }
+            }, 4);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeCounts(String name, String sql) throws SQLException, IOException {
+        final long[] counts = new long[ids.size()];
+        scan(sql, new RowHandler() {
+            @Override
+            void row(ResultSet set, int columns) throws SQLException {
+                counts[id(set.getString(1))] = set.getLong(2);
+            }
+        }, 2);
+
+        DataOutputStream out = open(name);
+        try {
+            writeHeader(out, counts.length);
+            for (long count : counts) {
+                out.writeLong(count);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    private int id(String string) {
+        Integer id = ids.get(string == null ? "" : string);
+        if (id == null) {
+            throw new IllegalStateException("String '" + string + "' was not seen while building the dictionary");
+        }
+        return id;
+    }
+
+    private static void writeHeader(DataOutputStream out, int size) throws IOException {
+        out.writeInt(SnapshotFormat.MAGIC);
+        out.writeInt(SnapshotFormat.VERSION);
+        out.writeInt(size);
+    }
+
+    private DataOutputStream open(String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, name)), 1 << 16));
+    }
+
+    /**
+     * Streams all rows of a query. Without a query nothing is read.
+     */
+    private void scan(String sql, RowHandler handler, int columns) throws SQLException {
+        if (sql == null) {
+            return;
+        }
+        System.out.println("[Snapshot] Reading: " + sql);
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            // MySQL only streams results with this special fetch size, otherwise it loads the whole table
+            statement.setFetchSize(conf.getDbUrl().startsWith("jdbc:mysql") ? Integer.MIN_VALUE : FETCH_SIZE);
+            ResultSet set = statement.executeQuery(sql);
+            long rows = 0;
+            while (set.next()) {
+                handler.row(set, columns);
+                if (++rows % 10000000 == 0) {
+                    System.out.println("[Snapshot] " + rows + " rows");
+                }
+            }
+            set.close();
+            handler.done();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private abstract static class RowHandler {
+        abstract void row(ResultSet set, int columns) throws SQLException;
+
+        void done() throws SQLException {
+        }
+    }
+
+    /**
+     * Writes the records of each key to a temporary file, and the final file with the index in front of the records
+     * once all keys are known.
+     */
+    private class PostingWriter {
+        final String name;
+        final int recordWidth;
+        final File tmp;
+        final DataOutputStream out;
+        final long[] starts = new long[ids.size()];
+        final int[] counts = new int[ids.size()];
+        final boolean[] written = new boolean[ids.size()];
+        long position = 0;
+
+        PostingWriter(String name, int recordWidth) throws IOException {
+            this.name = name;
+            this.recordWidth = recordWidth;
+            tmp = new File(directory, name + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        }
+
+        void startKey(int key) {
+            if (written[key]) {
+                throw new IllegalStateException("Rows of key " + key + " in " + name
+                        + " are not contiguous, the dump query has to order by the key (ORDER BY BINARY in MySQL)");
+            }
+            written[key] = true;
+            starts[key] = position;
+        }
+
+        void endKey(int key, int count) {
+            counts[key] = count;
+            position += (long) count * recordWidth;
+        }
+
+        void finish() throws IOException {
+            out.close();
+            int n = starts.length;
+            long dataStart = SnapshotFormat.POSTING_HEADER_SIZE + 12L * n;
+            DataOutputStream file = open(name);
+            try {
+                writeHeader(file, n);
+                file.writeInt(recordWidth);
+                for (long start : starts) {
+                    file.writeLong(dataStart + start);
+                }
+                for (int count : counts) {
+                    file.writeInt(count);
+                }
+                InputStream in = new BufferedInputStream(new FileInputStream(tmp));
+                try {
+                    byte[] buffer = new byte[1 << 16];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        file.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            } finally {
+                file.close();
+            }
+            System.out.println("[Snapshot] Wrote " + (position / recordWidth) + " records to " + name);
+        }
+
+        void close() throws IOException {
+            out.close();
+            if (tmp.exists() && !tmp.delete()) {
+                System.err.println("Can't delete " + tmp);
+            }
+        }
+    }
+
+    /**
+     * Buffers the rows of keys that the collation of the database may consider equal, i.e. keys with the same
+     * {@link KeyCollation#normalize normal form}, which is also how the snapshot looks keys up. A dump query ordering
+     * by such a collation puts these keys next to each other, but may interleave their rows, so the rows of a group
+     * are kept per key until a key of the next group is read. Blocks are reused once written.
+     */
+    private abstract class KeyGroup<B> {
+        private final Map<Integer, B> blocks = new LinkedHashMap<Integer, B>();
+        private final ArrayDeque<B> free = new ArrayDeque<B>();
+        private String normal = null;
+        private int key = -1;
+        private B block = null;
+
+        /**
+         * Returns the block collecting the rows of the given key.
+         */
+        B block(String string) {
+            int rowKey = id(string);
+            if (rowKey != key) {
+                String value = KeyCollation.normalize(string);
+                if (normal == null || !normal.equals(value)) {
+                    flush();
+                    normal = value;
+                }
+                key = rowKey;
+                block = blocks.get(rowKey);
+                if (block == null) {
+                    block = free.isEmpty() ? newBlock() : free.poll();
+                    blocks.put(rowKey, block);
+                }
+            }
+            return block;
+        }
+
+        /**
+         * Writes the blocks of the current group.
+         */
+        void flush() {
+            try {
+                for (Map.Entry<Integer, B> entry : blocks.entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                    free.add(entry.getValue());
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            blocks.clear();
+            normal = null;
+            key = -1;
+            block = null;
+        }
+
+        abstract B newBlock();
+
+        /**
+         * Writes the rows of a key and empties the block.
+         */
+        abstract void write(int key, B block) throws IOException;
+    }
+
+    /**
+     * The id columns of the rows of one key.
+     */
+    private static class IntBlock {
+        int[] values = new int[48];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * The scored rows of one key, held in parallel arrays until they are sorted and written.
+     */
+    private static class ScoredBlock {
+        int[] ids = new int[1024];
+        double[] scores = new double[1024];
+        int size = 0;
+
+        void add(int id, double score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            ids[size] = id;
+            scores[size] = score;
+            size++;
+        }
+
+        void write(PostingWriter writer, int key, final boolean byScore, int limit) throws IOException {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    if (byScore) {
+                        int cmp = Double.compare(scores[b], scores[a]);
+                        if (cmp != 0) {
+                            return cmp;
+                        }
+                    }
+                    return ids[a] < ids[b] ? -1 : (ids[a] == ids[b] ? 0 : 1);
+                }
+            });
+            int count = limit > 0 ? Math.min(limit, size) : size;
+            writer.startKey(key);
+            for (int i = 0; i < count; i++) {
+                writer.out.writeInt(ids[order[i]]);
+                writer.out.writeDouble(scores[order[i]]);
+            }
+            writer.endKey(key, count);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.jobimtext.api.db.KeyCollation;
+
+/**
+ * Constants describing the on-disk layout of a thesaurus snapshot. A snapshot is a directory with the following files,
+ * all of them big-endian and starting with the magic number, the format version and the number of keys N:
+ *
+ * <ul>
+ * <li>{@value #DICTIONARY_FILE}: all strings of the thesaurus sorted by their UTF-8 bytes. The id of a string is its
+ * position in this order. Layout: header, N + 1 long offsets relative to the string data, string data.</li>
+ * <li>{@value #SIMILAR_TERMS_FILE}, {@value #TERM_CONTEXTS_FILE}, {@value #CONTEXT_TERMS_FILE}, {@value #SENSES_FILE}:
+ * posting lists indexed by string id. Layout: header, record width, N long start positions, N int record counts,
+ * records. Scored records are an int id followed by a double score; sense records are three int ids (cui, cluster,
+ * isas).</li>
+ * <li>{@value #COLLATION_FILE}: posting lists of int ids. The list of a normal form (see {@link KeyCollation}) holds
+ * the ids of all strings with this normal form, if there is one other than the normal form itself. The normal forms
+ * are part of the dictionary.</li>
+ * <li>{@value #TERM_COUNTS_FILE}, {@value #CONTEXT_COUNTS_FILE}: one long per string id. Layout: header, N longs.</li>
+ * </ul>
+ *
+ * Similar terms and context terms are sorted by decreasing score, the contexts of a term by increasing id so that
+ * single term-context scores can be found by binary search.
+ *
+ * Keys are looked up like in a database comparing them case and accent insensitively: a key stands for all strings
+ * with its normal form.
+ */
+public final class SnapshotFormat {
+    public static final int MAGIC = 0x4a6f4269; // "JoBi"
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 12;
+    public static final int POSTING_HEADER_SIZE = HEADER_SIZE + 4;
+
+    public static final int SCORED_RECORD_WIDTH = 12;
+    public static final int SENSE_RECORD_WIDTH = 12;
+    public static final int COLLATION_RECORD_WIDTH = 4;
+
+    /**
+     * Longest string that can be stored. Segments of the mapped files overlap by this size, so that no value has to
+     * be read across segment borders.
+     */
+    public static final int MAX_STRING_BYTES = 1 << 20;
+
+    public static final String DICTIONARY_FILE = "dictionary.bin";
+    public static final String SIMILAR_TERMS_FILE = "similar-terms.bin";
+    public static final String TERM_CONTEXTS_FILE = "term-contexts.bin";
+    public static final String CONTEXT_TERMS_FILE = "context-terms.bin";
+    public static final String SENSES_FILE = "senses.bin";
+    public static final String COLLATION_FILE = "collation.bin";
+    public static final String TERM_COUNTS_FILE = "term-counts.bin";
+    public static final String CONTEXT_COUNTS_FILE = "context-counts.bin";
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Checks magic number and version of a mapped snapshot file and returns its number of keys.
+     */
+    static int readHeader(MappedFile file, File name) throws IOException {
+        if (file.length() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IOException(name + " is not a thesaurus snapshot file");
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IOException(name + " has snapshot format version " + file.getInt(4) + ", expected " + VERSION);
+        }
+        return file.getInt(8);
+    }
+
+    /**
+     * Compares two UTF-8 encoded strings byte by byte, treating bytes as unsigned. This is the order of the
+     * dictionary and equals the order of the code points.
+     */
+    public static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
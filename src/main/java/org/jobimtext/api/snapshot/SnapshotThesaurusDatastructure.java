@@ -0,0 +1,548 @@
+package org.jobimtext.api.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jobimtext.api.db.DatabaseResource;
+import org.jobimtext.api.db.KeyCollation;
+import org.jobimtext.api.metrics.QueryMetrics;
+import org.jobimtext.api.struct.IThesaurusDatastructure;
+import org.jobimtext.api.struct.Order1;
+import org.jobimtext.api.struct.Order2;
+import org.jobimtext.api.struct.Order2Columns;
+import org.jobimtext.api.struct.Sense;
+
+/**
+ * A thesaurus read from a snapshot directory written by {@link SnapshotExporter}. All files are memory-mapped, so
+ * lookups do not need a database connection, never block each other and can be used from any number of threads.
+ *
+ * Like a database comparing keys case and accent insensitively, a key stands for all strings with its normal form
+ * (see {@link KeyCollation}): lists are merged over these spellings, single values are taken from the key itself if
+ * it has one, otherwise from the first spelling that has one.
+ *
+ * Similar contexts and term-context frequencies are not part of a snapshot; they are answered with empty lists and 0.
+ */
+public class SnapshotThesaurusDatastructure extends DatabaseResource implements IThesaurusDatastructure<String, String> {
+    private static final Comparator<Order1> ORDER1_BY_SCORE = new Comparator<Order1>() {
+        @Override
+        public int compare(Order1 o1, Order1 o2) {
+            return Double.compare(o2.score, o1.score);
+        }
+    };
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final File directory;
+    private Exception error = null;
+    private volatile QueryMetrics queryMetrics = null;
+
+    private SnapshotDictionary dictionary;
+    private PostingFile similarTerms;
+    private PostingFile termContexts;
+    private PostingFile contextTerms;
+    private PostingFile senses;
+    private PostingFile collation;
+    private CountFile termCounts;
+    private CountFile contextCounts;
+
+    public SnapshotThesaurusDatastructure(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean connect() {
+        try {
+            dictionary = new SnapshotDictionary(new File(directory, SnapshotFormat.DICTIONARY_FILE));
+            similarTerms = new PostingFile(new File(directory, SnapshotFormat.SIMILAR_TERMS_FILE),
+                    SnapshotFormat.SCORED_RECORD_WIDTH);
+            termContexts = new PostingFile(new File(directory, SnapshotFormat.TERM_CONTEXTS_FILE),
+                    SnapshotFormat.SCORED_RECORD_WIDTH);
+            contextTerms = new PostingFile(new File(directory, SnapshotFormat.CONTEXT_TERMS_FILE),
+                    SnapshotFormat.SCORED_RECORD_WIDTH);
+            senses = new PostingFile(new File(directory, SnapshotFormat.SENSES_FILE), SnapshotFormat.SENSE_RECORD_WIDTH);
+            collation = new PostingFile(new File(directory, SnapshotFormat.COLLATION_FILE),
+                    SnapshotFormat.COLLATION_RECORD_WIDTH);
+            termCounts = new CountFile(new File(directory, SnapshotFormat.TERM_COUNTS_FILE));
+            contextCounts = new CountFile(new File(directory, SnapshotFormat.CONTEXT_COUNTS_FILE));
+        } catch (IOException e) {
+            error = e;
+            return false;
+        }
+        System.out.println("[Snapshot] Opened " + directory + " with " + dictionary.size() + " strings");
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        // mapped buffers are released by the garbage collector
+        dictionary = null;
+        similarTerms = termContexts = contextTerms = senses = collation = null;
+        termCounts = contextCounts = null;
+    }
+
+    @Override
+    public Exception getError() {
+        return error;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void setQueryMetrics(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    @Override
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /*
+     * Lookups are measured under the names of the database queries they replace, so that the numbers can be compared
+     * with those of a database thesaurus. Decoded bytes are the bytes read from the mapped files.
+     */
+
+    private long startTime() {
+        return queryMetrics == null ? 0 : System.nanoTime();
+    }
+
+    private void record(String query, long start, int rows, long bytes) {
+        QueryMetrics metrics = queryMetrics;
+        if (metrics != null) {
+            metrics.record(query, System.nanoTime() - start, rows, bytes);
+        }
+    }
+
+    /*
+     * Spellings
+     */
+
+    /**
+     * @return the ids of all strings with the normal form of the key, in dictionary order
+     */
+    private int[] ids(String key) {
+        if (key == null) {
+            return NO_IDS;
+        }
+        int id = dictionary.getId(KeyCollation.normalize(key));
+        if (id < 0) {
+            return NO_IDS;
+        }
+        int count = collation.count(id);
+        if (count == 0) {
+            return new int[] { id };
+        }
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = collation.getInt(collation.record(id, i));
+        }
+        return ids;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int value : ids) {
+            if (value == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the ids of the key with the key's own id first, so that single values are taken from it if it has one
+     */
+    private int[] ownIdFirst(String key) {
+        int[] ids = ids(key);
+        if (ids.length > 1) {
+            int own = dictionary.getId(key);
+            for (int i = 1; i < ids.length; i++) {
+                if (ids[i] == own) {
+                    ids[i] = ids[0];
+                    ids[0] = own;
+                    break;
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the scored records of the ids with a score above the threshold, by decreasing score and at most limit
+     * of them. The records of every id are already sorted; those of several ids are merged.
+     */
+    private static long[] scoredRecords(final PostingFile file, int[] ids, int limit, double threshold) {
+        if (ids.length == 1) {
+            int id = ids[0];
+            int count = Math.max(0, Math.min(file.count(id), limit));
+            long[] records = new long[count];
+            int n = 0;
+            while (n < count) {
+                long record = file.record(id, n);
+                if (file.getDouble(record + 4) <= threshold) {
+                    break;
+                }
+                records[n++] = record;
+            }
+            return n == count ? records : Arrays.copyOf(records, n);
+        }
+        List<Long> merged = new ArrayList<Long>();
+        for (int id : ids) {
+            int count = file.count(id);
+            for (int i = 0; i < count; i++) {
+                long record = file.record(id, i);
+                if (file.getDouble(record + 4) <= threshold) {
+                    break;
+                }
+                merged.add(record);
+            }
+        }
+        Collections.sort(merged, new Comparator<Long>() {
+            @Override
+            public int compare(Long r1, Long r2) {
+                return Double.compare(file.getDouble(r2 + 4), file.getDouble(r1 + 4));
+            }
+        });
+        long[] records = new long[Math.max(0, Math.min(merged.size(), limit))];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = merged.get(i);
+        }
+        return records;
+    }
+
+    /*
+     * Similar terms
+     */
+
+    @Override
+    public List<Order2> getSimilarTerms(String key) {
+        return readOrder2("similarTermsQuery", similarTerms, ids(key), Integer.MAX_VALUE,
+                Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public List<Order2> getSimilarTerms(String key, int numberOfEntries) {
+        return readOrder2("similarTermsTopQuery", similarTerms, ids(key), numberOfEntries,
+                Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public List<Order2> getSimilarTerms(String key, double threshold) {
+        return readOrder2("similarTermsGtScoreQuery", similarTerms, ids(key), Integer.MAX_VALUE, threshold);
+    }
+
+    @Override
+    public Order2Columns getSimilarTermsColumns(String key) {
+        return readColumns("similarTermsQuery", similarTerms, ids(key), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Order2Columns getSimilarTermsColumns(String key, int numberOfEntries) {
+        return readColumns("similarTermsTopQuery", similarTerms, ids(key), numberOfEntries);
+    }
+
+    @Override
+    public Double getSimilarTermScore(String t1, String t2) {
+        int[] ids2 = ownIdFirst(t2);
+        if (ids2.length == 0) {
+            return 0.0;
+        }
+        for (int id1 : ownIdFirst(t1)) {
+            int count = similarTerms.count(id1);
+            for (int i = 0; i < count; i++) {
+                long record = similarTerms.record(id1, i);
+                if (contains(ids2, similarTerms.getInt(record))) {
+                    return similarTerms.getDouble(record + 4);
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Reads the scored records of the ids by decreasing score, until the limit or a score not above the threshold is
+     * reached.
+     */
+    private List<Order2> readOrder2(String query, PostingFile file, int[] ids, int limit, double threshold) {
+        long start = startTime();
+        long[] records = scoredRecords(file, ids, limit, threshold);
+        List<Order2> list = new ArrayList<Order2>(records.length);
+        long bytes = 0;
+        for (long record : records) {
+            String key = dictionary.getString(file.getInt(record));
+            list.add(new Order2(key, file.getDouble(record + 4)));
+            bytes += SnapshotFormat.SCORED_RECORD_WIDTH + key.length();
+        }
+        record(query, start, list.size(), bytes);
+        return list;
+    }
+
+    private Order2Columns readColumns(String query, PostingFile file, int[] ids, int limit) {
+        long start = startTime();
+        long[] records = scoredRecords(file, ids, limit, Double.NEGATIVE_INFINITY);
+        Order2Columns columns = new Order2Columns(records.length);
+        long bytes = 0;
+        for (long record : records) {
+            String key = dictionary.getString(file.getInt(record));
+            columns.add(key, file.getDouble(record + 4));
+            bytes += SnapshotFormat.SCORED_RECORD_WIDTH + key.length();
+        }
+        record(query, start, records.length, bytes);
+        return columns;
+    }
+
+    /*
+     * Similar contexts are not exported
+     */
+
+    @Override
+    public List<Order2> getSimilarContexts(String values) {
+        return new ArrayList<Order2>();
+    }
+
+    @Override
+    public List<Order2> getSimilarContexts(String values, int numberOfEntries) {
+        return new ArrayList<Order2>();
+    }
+
+    @Override
+    public List<Order2> getSimilarContexts(String values, double threshold) {
+        return new ArrayList<Order2>();
+    }
+
+    /*
+     * Counts and scores
+     */
+
+    @Override
+    public Long getTermCount(String key) {
+        long start = startTime();
+        long count = count(termCounts, key);
+        record("termsCountQuery", start, 1, 8);
+        return count;
+    }
+
+    @Override
+    public Long getContextsCount(String key) {
+        long start = startTime();
+        long count = count(contextCounts, key);
+        record("contextsCountQuery", start, 1, 8);
+        return count;
+    }
+
+    private long count(CountFile counts, String key) {
+        for (int id : ownIdFirst(key)) {
+            long count = counts.get(id);
+            if (count != 0) {
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public Long getTermContextsCount(String key, String val) {
+        return 0L;
+    }
+
+    @Override
+    public Double getTermContextsScore(String key, String val) {
+        long start = startTime();
+        double score = termContextScore(ownIdFirst(key), ownIdFirst(val));
+        record("termContextsScoreQuery", start, 1, 8);
+        return score;
+    }
+
+    private double termContextScore(int[] terms, int[] contexts) {
+        for (int term : terms) {
+            for (int context : contexts) {
+                int index = termContexts.find(term, context);
+                if (index >= 0) {
+                    return termContexts.getDouble(termContexts.record(term, index) + 4);
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Scores of the context for all similar terms of the expanded term that occur with the context, like the join
+     * of the database thesaurus.
+     */
+    @Override
+    public Map<String, Double> getBatchTermContextsScore(String expandedTerm, String context) {
+        long start = startTime();
+        Map<String, Double> result = new HashMap<String, Double>();
+        int[] contextIds = ownIdFirst(context);
+        long bytes = 0;
+        for (int term : ownIdFirst(expandedTerm)) {
+            int count = contextIds.length == 0 ? 0 : similarTerms.count(term);
+            for (int i = 0; i < count; i++) {
+                int similar = similarTerms.getInt(similarTerms.record(term, i));
+                for (int contextId : contextIds) {
+                    int index = termContexts.find(similar, contextId);
+                    if (index >= 0) {
+                        String key = dictionary.getString(similar);
+                        if (!result.containsKey(key)) {
+                            result.put(key, termContexts.getDouble(termContexts.record(similar, index) + 4));
+                            bytes += SnapshotFormat.SCORED_RECORD_WIDTH + key.length();
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        record("batchTermContextsScoreQuery", start, result.size(), bytes);
+        return result;
+    }
+
+    @Override
+    public List<Order2> getContextTermsScores(String feature) {
+        return readOrder2("contextTermsScoresQuery", contextTerms, ids(feature), Integer.MAX_VALUE,
+                Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature) {
+        return readColumns("contextTermsScoresQuery", contextTerms, ids(feature), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature, int numberOfEntries) {
+        return readColumns("contextTermsScoresTopQuery", contextTerms, ids(feature), numberOfEntries);
+    }
+
+    @Override
+    public boolean hasSortedContextTermsScores() {
+        return true;
+    }
+
+    /*
+     * Contexts of a term are stored by id, so they are sorted by score on every request
+     */
+
+    @Override
+    public List<Order1> getTermContextsScores(String key) {
+        return readOrder1("termContextsScoresQuery", ids(key), Integer.MAX_VALUE, Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public List<Order1> getTermContextsScores(String key, int numberOfEntries) {
+        return readOrder1("termContextsScoresTopQuery", ids(key), numberOfEntries,
+                Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public List<Order1> getTermContextsScores(String key, double threshold) {
+        return readOrder1("termContextsScoresGtScoreQuery", ids(key), Integer.MAX_VALUE, threshold);
+    }
+
+    private List<Order1> readOrder1(String query, int[] ids, int limit, double threshold) {
+        long start = startTime();
+        List<Order1> list = new ArrayList<Order1>();
+        long bytes = 0;
+        for (int id : ids) {
+            int count = termContexts.count(id);
+            for (int i = 0; i < count; i++) {
+                long record = termContexts.record(id, i);
+                double score = termContexts.getDouble(record + 4);
+                if (score > threshold) {
+                    String key = dictionary.getString(termContexts.getInt(record));
+                    list.add(new Order1(key, score));
+                    bytes += SnapshotFormat.SCORED_RECORD_WIDTH + key.length();
+                }
+            }
+        }
+        Collections.sort(list, ORDER1_BY_SCORE);
+        List<Order1> result = list.size() > limit ? new ArrayList<Order1>(list.subList(0, limit)) : list;
+        record(query, start, result.size(), bytes);
+        return result;
+    }
+
+    /*
+     * Senses
+     */
+
+    @Override
+    public List<Sense> getSenses(String key) {
+        long start = startTime();
+        List<Sense> list = new ArrayList<Sense>();
+        long bytes = 0;
+        for (int id : ids(key)) {
+            int count = senses.count(id);
+            for (int i = 0; i < count; i++) {
+                long record = senses.record(id, i);
+                String cui = dictionary.getString(senses.getInt(record));
+                String cluster = dictionary.getString(senses.getInt(record + 4));
+                String isas = dictionary.getString(senses.getInt(record + 8));
+                list.add(Sense.parse(cui, cluster, isas));
+                bytes += SnapshotFormat.SENSE_RECORD_WIDTH + length(cui) + length(cluster) + length(isas);
+            }
+        }
+        record("sensesQuery", start, list.size(), bytes);
+        return list;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    @Override
+    public List<Sense> getIsas(String key) {
+        return getSenses(key);
+    }
+
+    @Override
+    public List<Sense> getSenseCUIs(String key) {
+        return getSenses(key);
+    }
+
+    /*
+     * Batch lookups are as cheap as single ones
+     */
+
+    @Override
+    public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys) {
+        Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+        for (String key : keys) {
+            result.put(key, getSimilarTerms(key));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys, int numberOfEntries) {
+        Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+        for (String key : keys) {
+            result.put(key, getSimilarTerms(key, numberOfEntries));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTermCountBatch(Collection<String> keys) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String key : keys) {
+            result.put(key, getTermCount(key));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, List<Sense>> getSensesBatch(Collection<String> keys) {
+        Map<String, List<Sense>> result = new HashMap<String, List<Sense>>();
+        for (String key : keys) {
+            result.put(key, getSenses(key));
+        }
+        return result;
+    }
+}
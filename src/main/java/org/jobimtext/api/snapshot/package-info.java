@@ -0,0 +1,4 @@
+/**
+ * Read-only thesaurus snapshots stored in memory-mapped files, exported from a database thesaurus
+ */
+package org.jobimtext.api.snapshot;
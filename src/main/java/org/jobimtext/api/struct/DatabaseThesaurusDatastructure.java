@@ -23,8 +23,14 @@ import java.util.*;
 
 import org.jobimtext.api.configuration.DatabaseThesaurusConfiguration;
 import org.jobimtext.api.db.DatabaseConnection;
+import org.jobimtext.api.db.DatabaseConnectionPool;
 import org.jobimtext.api.db.DatabaseResource;
 import org.jobimtext.api.db.DatabaseThesaurus;
+import org.jobimtext.api.db.KeyCollation;
+import org.jobimtext.api.metrics.QueryMetrics;
+
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
+import com.carrotsearch.hppc.ObjectLongOpenHashMap;
 
 /**
  * 
@@ -36,6 +42,20 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 
 	DatabaseThesaurus dbThesaurus = new DatabaseThesaurus();
 
+	private volatile QueryMetrics queryMetrics = null;
+
+	/*
+	 * In-memory copy of the term count table, filled by preloadTermCounts(). The map is not modified after loading
+	 * and only read with get(), so lookups need no locking.
+	 */
+	private volatile ObjectLongOpenHashMap<String> termCounts = null;
+	private long termCountChars = 0;
+	/*
+	 * For the normal form (see KeyCollation) of every preloaded term that differs from it, the number of such terms.
+	 * Written before termCounts, so it is visible once termCounts is.
+	 */
+	private ObjectIntOpenHashMap<String> termSpellings = null;
+
 	public DatabaseThesaurusDatastructure(File dbConfigurationFile) {
 		dbThesaurus.setDbConfigurationFile(dbConfigurationFile);
 		// this.setDbConfigurationFile(dbConfigurationFile);
@@ -96,30 +116,186 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 		dbThesaurus.destroy();
 	}
 
+	@Override
+	public DatabaseConnectionPool getConnectionPool() {
+		return dbThesaurus.getConnectionPool();
+	}
+
+	@Override
+	public void setConnectionPool(DatabaseConnectionPool connectionPool) {
+		dbThesaurus.setConnectionPool(connectionPool);
+	}
+
+	@Override
+	public void acquireConnection() {
+		dbThesaurus.acquireConnection();
+	}
+
+	@Override
+	public void releaseConnection() {
+		dbThesaurus.releaseConnection();
+	}
+
+	@Override
+	public void setQueryMetrics(QueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+	}
+
+	@Override
+	public QueryMetrics getQueryMetrics() {
+		return queryMetrics;
+	}
+
+	/*
+	 * Measurements are taken once a connection has been leased and cover
+	 * running the query and decoding its result. Decoded bytes are estimated
+	 * as two bytes per character plus eight per number. The helpers return
+	 * the result they are given.
+	 */
+
+	private long startTime() {
+		return queryMetrics == null ? 0 : System.nanoTime();
+	}
+
+	private void record(String query, long start, int rows, long bytes) {
+		QueryMetrics metrics = queryMetrics;
+		if (metrics != null) {
+			metrics.record(query, System.nanoTime() - start, rows, bytes);
+		}
+	}
+
+	private static long bytes(String value) {
+		return value == null ? 0 : 2L * value.length();
+	}
+
+	private List<Order2> recordOrder2(String query, long start, List<Order2> list) {
+		if (queryMetrics != null) {
+			long bytes = 0;
+			for (Order2 entry : list) {
+				bytes += bytes(entry.key) + 8;
+			}
+			record(query, start, list.size(), bytes);
+		}
+		return list;
+	}
+
+	private List<Order1> recordOrder1(String query, long start, List<Order1> list) {
+		if (queryMetrics != null) {
+			long bytes = 0;
+			for (Order1 entry : list) {
+				bytes += bytes(entry.key) + 8;
+			}
+			record(query, start, list.size(), bytes);
+		}
+		return list;
+	}
+
+	private Order2Columns recordColumns(String query, long start, Order2Columns columns) {
+		if (queryMetrics != null) {
+			long bytes = 0;
+			for (int i = 0; i < columns.size(); i++) {
+				bytes += bytes(columns.getKey(i)) + 8;
+			}
+			record(query, start, columns.size(), bytes);
+		}
+		return columns;
+	}
+
+	private List<Sense> recordSenses(String query, long start, List<Sense> senses) {
+		if (queryMetrics != null) {
+			record(query, start, senses.size(), senseBytes(senses));
+		}
+		return senses;
+	}
+
+	private static long senseBytes(List<Sense> senses) {
+		long bytes = 0;
+		for (Sense sense : senses) {
+			bytes += bytes(sense.getCui());
+			if (sense.getSenses() != null) {
+				for (String term : sense.getSenses()) {
+					bytes += bytes(term);
+				}
+			}
+			if (sense.getIsas() != null) {
+				for (String isa : sense.getIsas()) {
+					bytes += bytes(isa);
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private <T extends Number> T recordNumber(String query, long start, T value) {
+		record(query, start, value == null ? 0 : 1, value == null ? 0 : 8);
+		return value;
+	}
+
+	/*
+	 * All lookups below lease a pooled connection for the duration of the
+	 * call, so the datastructure can be queried from several threads.
+	 */
+
 	public List<Order2> getSimilarTerms(String key) {
+		dbThesaurus.acquireConnection();
 		try {
-			ResultSet set = dbThesaurus.getSimilarTerms(key);
-			return fillExpansions(set);
+			long start = startTime();
+			return recordOrder2("similarTermsQuery", start, fillExpansions(dbThesaurus.getSimilarTerms(key)));
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+	}
+
+	public Order2Columns getSimilarTermsColumns(String key) {
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordColumns("similarTermsQuery", start, Order2Columns.read(dbThesaurus.getSimilarTerms(key)));
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+	}
+
+	public Order2Columns getSimilarTermsColumns(String key, int numberOfEntries) {
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordColumns("similarTermsTopQuery", start,
+					Order2Columns.read(dbThesaurus.getSimilarTerms(key, numberOfEntries)));
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
 		}
 	}
 
 	public List<Order2> getSimilarTerms(String key, int numberOfEntries) {
+		dbThesaurus.acquireConnection();
 		try {
-			ResultSet set = dbThesaurus.getSimilarTerms(key, numberOfEntries);
-			return fillExpansions(set);
+			long start = startTime();
+			return recordOrder2("similarTermsTopQuery", start,
+					fillExpansions(dbThesaurus.getSimilarTerms(key, numberOfEntries)));
 		} catch (SQLException e) {
             throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
 		}
 	}
 
 	public List<Order2> getSimilarTerms(String key, double threshold) {
+		dbThesaurus.acquireConnection();
 		try {
-			ResultSet set = dbThesaurus.getSimilarTerms(key, threshold);
-			return fillExpansions(set);
+			long start = startTime();
+			return recordOrder2("similarTermsGtScoreQuery", start,
+					fillExpansions(dbThesaurus.getSimilarTerms(key, threshold)));
 		} catch (SQLException e) {
             throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
 		}
 	}
 
@@ -133,44 +309,213 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 		while (set.next()) {
 			list.add(new Order2(set.getString(1), set.getDouble(2)));
 		}
-		set.getStatement().close();
         set.close();
 		return list;
 	}
 
+	/**
+	 * Reads all term counts with the termsCountDumpQuery into memory. Afterwards, {@link #getTermCount(String)} and
+	 * {@link #getTermCountBatch(Collection)} are answered without querying the database, except for keys with several
+	 * equivalent spellings in the dump (see {@link KeyCollation}), whose count depends on the database's collation.
+	 *
+	 * @throws IllegalStateException if no termsCountDumpQuery has been configured
+	 */
+	public synchronized void preloadTermCounts() throws SQLException {
+		ObjectLongOpenHashMap<String> counts = new ObjectLongOpenHashMap<String>();
+		ObjectIntOpenHashMap<String> spellings = new ObjectIntOpenHashMap<String>();
+		long chars = 0;
+		dbThesaurus.acquireConnection();
+		try {
+			ResultSet set = dbThesaurus.getAllTermCounts();
+			try {
+				while (set.next()) {
+					String term = set.getString(1);
+					// like the termsCountQuery, only the first row of a term counts
+					if (term != null && !counts.containsKey(term)) {
+						counts.put(term, set.getLong(2));
+						chars += term.length();
+						String normal = KeyCollation.normalize(term);
+						if (!normal.equals(term)) {
+							spellings.put(normal, spellings.get(normal) + 1);
+						}
+					}
+				}
+			} finally {
+				set.close();
+			}
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+
+		termCountChars = chars;
+		termSpellings = spellings;
+		termCounts = counts;
+		System.out.println("[Database] Preloaded the counts of " + counts.size() + " terms, using about "
+				+ (getTermCountMemoryUsage() >> 20) + " MB");
+	}
+
+	public boolean isTermCountPreloaded() {
+		return termCounts != null;
+	}
+
+	/**
+	 * @return estimated number of bytes held by the preloaded term counts, 0 if they have not been loaded
+	 */
+	public long getTermCountMemoryUsage() {
+		ObjectLongOpenHashMap<String> counts = termCounts;
+		if (counts == null) {
+			return 0;
+		}
+		// hash map buffers (keys, values and the allocation flags) plus the term strings themselves, and the same for
+		// the spellings, whose strings are estimated by the size of the terms
+		ObjectIntOpenHashMap<String> spellings = termSpellings;
+		return counts.keys.length * (8L + 8 + 1) + counts.size() * 40L + termCountChars * 2
+				+ spellings.keys.length * (8L + 4 + 1) + spellings.size() * (40L + 2 * termCountChars
+				/ Math.max(1, counts.size()));
+	}
+
 	public Long getTermCount(String key) {
-		return dbThesaurus.getTermCount(key);
+		ObjectLongOpenHashMap<String> counts = termCounts;
+		if (counts != null && key != null) {
+			// the termsCountQuery compares under the database's collation, which may match other spellings of the
+			// key. Only a key that is the sole preloaded spelling of its normal form, or whose normal form has no
+			// spelling at all, is certain to get the same answer from memory
+			String normal = KeyCollation.normalize(key);
+			int spellings = termSpellings.get(normal) + (counts.containsKey(normal) ? 1 : 0);
+			if (spellings == 0) {
+				return 0L;
+			}
+			if (spellings == 1 && counts.containsKey(key)) {
+				return counts.get(key);
+			}
+		} else if (counts != null) {
+			return 0L;
+		}
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordNumber("termsCountQuery", start, dbThesaurus.getTermCount(key));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	public Long getContextsCount(String value) {
-		return dbThesaurus.getContextsCount(value);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordNumber("contextsCountQuery", start, dbThesaurus.getContextsCount(value));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
     public Long getTermContextsCount(String key, String value) {
-		return dbThesaurus.getTermContextsCount(key, value);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordNumber("termContextsCountQuery", start, dbThesaurus.getTermContextsCount(key, value));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	public Double getTermContextsScore(String key, String val) {
-		return dbThesaurus.getTermContextsScore(key, val);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordNumber("termContextsScoreQuery", start, dbThesaurus.getTermContextsScore(key, val));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
-    public Map<String, Double> getBatchTermContextsScore(String expandedJo, String context) {return dbThesaurus.getBatchTermContextsScore(expandedJo, context);}
+    public Map<String, Double> getBatchTermContextsScore(String expandedJo, String context) {
+        dbThesaurus.acquireConnection();
+        try {
+            long start = startTime();
+            Map<String, Double> scores = dbThesaurus.getBatchTermContextsScore(expandedJo, context);
+            if (queryMetrics != null) {
+                long bytes = 0;
+                for (String term : scores.keySet()) {
+                    bytes += bytes(term) + 8;
+                }
+                record("batchTermContextsScoreQuery", start, scores.size(), bytes);
+            }
+            return scores;
+        } finally {
+            dbThesaurus.releaseConnection();
+        }
+    }
 
     @Override
     public List<Order2> getContextTermsScores(String feature) {
+        dbThesaurus.acquireConnection();
         try {
-            return fillExpansions(dbThesaurus.getContextTermsScores(feature));
+            long start = startTime();
+            return recordOrder2("contextTermsScoresQuery", start,
+                    fillExpansions(dbThesaurus.getContextTermsScores(feature)));
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            dbThesaurus.releaseConnection();
         }
     }
 
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature) {
+        dbThesaurus.acquireConnection();
+        try {
+            long start = startTime();
+            return recordColumns("contextTermsScoresQuery", start,
+                    Order2Columns.read(dbThesaurus.getContextTermsScores(feature)));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbThesaurus.releaseConnection();
+        }
+    }
+
+    /**
+     * Uses the contextTermsScoresTopQuery if configured. Otherwise, the unbounded query is run and only its first
+     * numberOfEntries rows are read, which saves the decoding but not the transfer of the remaining rows.
+     */
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature, int numberOfEntries) {
+        dbThesaurus.acquireConnection();
+        try {
+            long start = startTime();
+            if (getDatabaseConfiguration().contextTermsScoresTopQuery == null) {
+                return recordColumns("contextTermsScoresQuery", start,
+                        Order2Columns.read(dbThesaurus.getContextTermsScores(feature), numberOfEntries));
+            }
+            return recordColumns("contextTermsScoresTopQuery", start,
+                    Order2Columns.read(dbThesaurus.getContextTermsScores(feature, numberOfEntries)));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbThesaurus.releaseConnection();
+        }
+    }
+
+    /**
+     * Only the contextTermsScoresTopQuery orders the terms by score.
+     */
+    @Override
+    public boolean hasSortedContextTermsScores() {
+        return getDatabaseConfiguration().contextTermsScoresTopQuery != null;
+    }
+
 
     @Override
 	public List<Order1> getTermContextsScores(String key) {
-		ResultSet set = dbThesaurus.getTermContextsScores(key);
-		List<Order1> list = fillKeyValuesScores(set);
-		return list;
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder1("termContextsScoresQuery", start, fillKeyValuesScores(dbThesaurus.getTermContextsScores(key)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	private List<Order1> fillKeyValuesScores(ResultSet set) {
@@ -182,7 +527,6 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 
 				list.add(new Order1(set.getString(1), set.getDouble(2)));
 			}
-			set.getStatement().close();
             set.close();
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -192,21 +536,35 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 
 	@Override
 	public List<Order1> getTermContextsScores(String key, int numberOfEntries) {
-
-		ResultSet set = dbThesaurus.getTermContextsScores(key, numberOfEntries);
-		return fillKeyValuesScores(set);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder1("termContextsScoresTopQuery", start, fillKeyValuesScores(dbThesaurus.getTermContextsScores(key, numberOfEntries)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	@Override
 	public List<Order1> getTermContextsScores(String key, double threshold) {
-		ResultSet set = dbThesaurus.getTermContextsScores(key, threshold);
-		return fillKeyValuesScores(set);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder1("termContextsScoresGtScoreQuery", start, fillKeyValuesScores(dbThesaurus.getTermContextsScores(key, threshold)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	@Override
 	public List<Order2> getSimilarContexts(String values, int max) {
-		ResultSet set = dbThesaurus.getSimilarContexts(values, max);
-		return fillSimilarValues(set);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder2("similarContextsTopQuery", start, fillSimilarValues(dbThesaurus.getSimilarContexts(values, max)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	public List<Order2> fillSimilarValues(ResultSet set) {
@@ -216,7 +574,6 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 			while (set.next()) {
 				list.add(new Order2(set.getString(1), set.getDouble(2)));
 			}
-			set.getStatement().close();
 			set.close();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -226,49 +583,269 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 
 	@Override
 	public List<Order2> getSimilarContexts(String values) {
-		ResultSet set = dbThesaurus.getSimilarContexts(values);
-		return fillSimilarValues(set);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder2("similarContextsQuery", start, fillSimilarValues(dbThesaurus.getSimilarContexts(values)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	@Override
 	public List<Order2> getSimilarContexts(String key, double threshold) {
-		ResultSet set = dbThesaurus.getSimilarContexts(key, threshold);
-		return fillSimilarValues(set);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordOrder2("similarContextsGtScoreQuery", start, fillSimilarValues(dbThesaurus.getSimilarContexts(key, threshold)));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 	@Override
 	public List<Sense> getSenses(String key) {
 		List<Sense> senseList = new ArrayList<Sense>();
-		ResultSet set = dbThesaurus.getSenses(key);
+		dbThesaurus.acquireConnection();
 		try {
+			long start = startTime();
+			ResultSet set = dbThesaurus.getSenses(key);
 			while (set.next()) {
-				Sense s = new Sense();
-				s.setCui(set.getString(1));
-				String k = set.getString(2);
-				String[] senses = k.split(", ");
-				s.setIsas(new ArrayList<String>());
-				s.setSenses(new ArrayList<String>());
-				for (String sen : senses) {
-					s.getSenses().add(sen);
-				}
-				String[] isas = set.getString(3).split(" ");
-
-				for (String isa : isas) {
-					if (isa.trim().length() > 0)
-						s.getIsas().add(isa);
-				}
-
-				senseList.add(s);
+				senseList.add(readSense(set, 1));
 			}
-            set.getStatement().close();
             set.close();
+			recordSenses("sensesQuery", start, senseList);
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			dbThesaurus.releaseConnection();
 		}
 		return senseList;
 	}
 
+	/**
+	 * Reads the sense cluster (cui, comma separated cluster terms, space
+	 * separated isas) starting at the given column of the current row.
+	 */
+	private Sense readSense(ResultSet set, int column) throws SQLException {
+		return Sense.parse(set.getString(column), set.getString(column + 1), set.getString(column + 2));
+	}
+
+	/*
+	 * Batch lookups. Keys are split into chunks by DatabaseThesaurus and each
+	 * chunk is answered by a single IN-clause query. Rows are assigned to the
+	 * requested key that equals the key column exactly. Under a case- or
+	 * accent-insensitive collation, a row may carry another spelling of a
+	 * requested key; such keys are looked up on their own afterwards, so that
+	 * they get the rows of the single-key query instead of none (see
+	 * KeyCollation.Requested). If the configuration lacks the batch query, the
+	 * keys are looked up one by one.
+	 */
+
+	@Override
+	public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys) {
+		Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+		for (String key : keys) {
+			result.put(key, new ArrayList<Order2>());
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		if (getDatabaseConfiguration().similarTermsBatchQuery == null) {
+			for (String key : keys) {
+				result.put(key, getSimilarTerms(key));
+			}
+			return result;
+		}
+
+		KeyCollation.Requested requested = new KeyCollation.Requested(result.keySet());
+		Set<String> unmatched = new HashSet<String>();
+		dbThesaurus.acquireConnection();
+		try {
+			for (List<String> batch : DatabaseThesaurus.splitIntoBatches(result.keySet())) {
+				long start = startTime();
+				int rows = 0;
+				long bytes = 0;
+				ResultSet set = dbThesaurus.getSimilarTermsBatch(batch);
+				while (set.next()) {
+					String key = set.getString(1);
+					String similar = set.getString(2);
+					List<Order2> list = result.get(key);
+					if (list != null) {
+						list.add(new Order2(similar, set.getDouble(3)));
+					}
+					requested.rowRead(key, unmatched);
+					rows++;
+					bytes += bytes(similar) + 8;
+				}
+				set.close();
+				record("similarTermsBatchQuery", start, rows, bytes);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+		for (String key : unmatched) {
+			result.put(key, getSimilarTerms(key));
+		}
+		return result;
+	}
+
+	/*
+	 * The rows of a key arrive in no particular order and rounded up to the
+	 * statement's limit, so each list is sorted by descending score (keeping
+	 * the database's order of ties) and cut to the requested size.
+	 */
+	@Override
+	public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys, int numberOfEntries) {
+		Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+		for (String key : keys) {
+			result.put(key, new ArrayList<Order2>());
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		if (getDatabaseConfiguration().similarTermsBatchQuery == null) {
+			for (String key : keys) {
+				result.put(key, getSimilarTerms(key, numberOfEntries));
+			}
+			return result;
+		}
+
+		dbThesaurus.acquireConnection();
+		try {
+			for (List<String> batch : DatabaseThesaurus.splitIntoBatches(result.keySet())) {
+				long start = startTime();
+				int rows = 0;
+				long bytes = 0;
+				ResultSet set = dbThesaurus.getSimilarTermsTopBatch(batch, numberOfEntries);
+				while (set.next()) {
+					String similar = set.getString(2);
+					result.get(set.getString(1)).add(new Order2(similar, set.getDouble(3)));
+					rows++;
+					bytes += bytes(similar) + 8;
+				}
+				set.close();
+				record("similarTermsTopBatchQuery", start, rows, bytes);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+		for (Map.Entry<String, List<Order2>> entry : result.entrySet()) {
+			List<Order2> list = entry.getValue();
+			Collections.sort(list, BY_DESCENDING_SCORE);
+			if (list.size() > numberOfEntries) {
+				entry.setValue(new ArrayList<Order2>(list.subList(0, Math.max(numberOfEntries, 0))));
+			}
+		}
+		return result;
+	}
+
+	private static final Comparator<Order2> BY_DESCENDING_SCORE = new Comparator<Order2>() {
+		@Override
+		public int compare(Order2 o1, Order2 o2) {
+			return o2.score.compareTo(o1.score);
+		}
+	};
+
+	@Override
+	public Map<String, Long> getTermCountBatch(Collection<String> keys) {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (String key : keys) {
+			result.put(key, 0L);
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		if (termCounts != null || getDatabaseConfiguration().termsCountBatchQuery == null) {
+			for (String key : keys) {
+				result.put(key, getTermCount(key));
+			}
+			return result;
+		}
+
+		KeyCollation.Requested requested = new KeyCollation.Requested(result.keySet());
+		Set<String> unmatched = new HashSet<String>();
+		dbThesaurus.acquireConnection();
+		try {
+			for (List<String> batch : DatabaseThesaurus.splitIntoBatches(result.keySet())) {
+				long start = startTime();
+				int rows = 0;
+				ResultSet set = dbThesaurus.getTermCountBatch(batch);
+				while (set.next()) {
+					String key = set.getString(1);
+					if (result.containsKey(key)) {
+						result.put(key, set.getLong(2));
+					}
+					requested.rowRead(key, unmatched);
+					rows++;
+				}
+				set.close();
+				record("termsCountBatchQuery", start, rows, 8L * rows);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+		for (String key : unmatched) {
+			result.put(key, getTermCount(key));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, List<Sense>> getSensesBatch(Collection<String> keys) {
+		Map<String, List<Sense>> result = new HashMap<String, List<Sense>>();
+		for (String key : keys) {
+			result.put(key, new ArrayList<Sense>());
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		if (getDatabaseConfiguration().sensesBatchQuery == null) {
+			for (String key : keys) {
+				result.put(key, getSenses(key));
+			}
+			return result;
+		}
+
+		KeyCollation.Requested requested = new KeyCollation.Requested(result.keySet());
+		Set<String> unmatched = new HashSet<String>();
+		dbThesaurus.acquireConnection();
+		try {
+			for (List<String> batch : DatabaseThesaurus.splitIntoBatches(result.keySet())) {
+				long start = startTime();
+				List<Sense> read = new ArrayList<Sense>();
+				ResultSet set = dbThesaurus.getSensesBatch(batch);
+				while (set.next()) {
+					String key = set.getString(1);
+					Sense sense = readSense(set, 2);
+					List<Sense> list = result.get(key);
+					if (list != null) {
+						list.add(sense);
+					}
+					requested.rowRead(key, unmatched);
+					read.add(sense);
+				}
+				set.close();
+				recordSenses("sensesBatchQuery", start, read);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
+		for (String key : unmatched) {
+			result.put(key, getSenses(key));
+		}
+		return result;
+	}
+
 	@Override
 	public List<Sense> getIsas(String key) {
 		return getSenses(key);
@@ -281,7 +858,13 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 
 	@Override
 	public Double getSimilarTermScore(String t1, String t2) {
-		return dbThesaurus.getSimilarTermScore(t1, t2);
+		dbThesaurus.acquireConnection();
+		try {
+			long start = startTime();
+			return recordNumber("similarTermScoreQuery", start, dbThesaurus.getSimilarTermScore(t1, t2));
+		} finally {
+			dbThesaurus.releaseConnection();
+		}
 	}
 
 }
@@ -18,11 +18,81 @@
 ******************************************************************************/
 package org.jobimtext.api.struct;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.jobimtext.api.IThesaurus;
+import org.jobimtext.api.metrics.QueryMetrics;
 
 
 public interface IThesaurusDatastructure <KEY, VALUES> extends IThesaurus<KEY, VALUES, List<Order2>, List<Order1>, List<Sense>, List<Sense>, List<Sense>>{
 
+	/**
+	 * Multi-key variant of {@link #getSimilarTerms(Object)}. The returned map
+	 * contains an entry for every key; keys without similar terms are mapped
+	 * to an empty list.
+	 */
+	public Map<KEY, List<Order2>> getSimilarTermsBatch(Collection<KEY> keys);
+
+	/**
+	 * Multi-key variant of {@link #getSimilarTerms(Object, int)}: at most
+	 * {@code numberOfEntries} similar terms per key, ordered by descending
+	 * score. Keys without similar terms are mapped to an empty list.
+	 */
+	public Map<KEY, List<Order2>> getSimilarTermsBatch(Collection<KEY> keys, int numberOfEntries);
+
+	/**
+	 * Multi-key variant of {@link #getTermCount(Object)}. Unknown keys are
+	 * mapped to 0.
+	 */
+	public Map<KEY, Long> getTermCountBatch(Collection<KEY> keys);
+
+	/**
+	 * Multi-key variant of {@link #getSenses(Object)}. Keys without senses are
+	 * mapped to an empty list.
+	 */
+	public Map<KEY, List<Sense>> getSensesBatch(Collection<KEY> keys);
+
+	/**
+	 * Columnar variant of {@link #getSimilarTerms(Object)}, which does not
+	 * create an {@link Order2} per similar term.
+	 */
+	public Order2Columns getSimilarTermsColumns(KEY key);
+
+	/**
+	 * Columnar variant of {@link #getSimilarTerms(Object, int)}.
+	 */
+	public Order2Columns getSimilarTermsColumns(KEY key, int numberOfEntries);
+
+	/**
+	 * Columnar variant of {@link #getContextTermsScores(Object)}, which does
+	 * not create an {@link Order2} per term.
+	 */
+	public Order2Columns getContextTermsScoresColumns(VALUES feature);
+
+	/**
+	 * Like {@link #getContextTermsScoresColumns(Object)}, but returns only the
+	 * numberOfEntries terms with the highest score.
+	 */
+	public Order2Columns getContextTermsScoresColumns(VALUES feature, int numberOfEntries);
+
+	/**
+	 * Whether {@link #getContextTermsScoresColumns(Object, int)} returns the
+	 * terms of a feature in the order of decreasing score, so that longer
+	 * prefixes of the same list can be requested.
+	 */
+	public boolean hasSortedContextTermsScores();
+
+	/**
+	 * Attaches metrics that receive a measurement for every lookup from now
+	 * on. Pass null to stop measuring.
+	 */
+	public void setQueryMetrics(QueryMetrics metrics);
+
+	/**
+	 * @return the attached metrics or null
+	 */
+	public QueryMetrics getQueryMetrics();
+
 }
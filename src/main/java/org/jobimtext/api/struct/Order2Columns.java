@@ -0,0 +1,121 @@
+package org.jobimtext.api.struct;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column-oriented list of scored terms: the keys and scores of {@link Order2} entries are kept in two parallel
+ * arrays, so that reading a result of several thousand rows creates neither an Order2 nor a boxed Double per row.
+ * Entries keep the order in which they were added, for database results the order of the query.
+ */
+public class Order2Columns {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] keys;
+    private double[] scores;
+    private int size = 0;
+
+    public Order2Columns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Order2Columns(int capacity) {
+        keys = new String[Math.max(capacity, 1)];
+        scores = new double[keys.length];
+    }
+
+    /**
+     * Reads all rows of the result set, taking the key from the first and the score from the second column, and
+     * closes it.
+     */
+    public static Order2Columns read(ResultSet set) throws SQLException {
+        return read(set, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #read(ResultSet)}, but stops after the given number of rows.
+     */
+    public static Order2Columns read(ResultSet set, int limit) throws SQLException {
+        Order2Columns columns = new Order2Columns();
+        try {
+            while (columns.size < limit && set.next()) {
+                columns.add(set.getString(1), set.getDouble(2));
+            }
+        } finally {
+            set.close();
+        }
+        return columns;
+    }
+
+    public static Order2Columns fromList(List<Order2> list) {
+        Order2Columns columns = new Order2Columns(list.size());
+        for (Order2 entry : list) {
+            columns.add(entry.key, entry.score == null ? 0.0 : entry.score);
+        }
+        return columns;
+    }
+
+    public void add(String key, double score) {
+        if (size == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+        keys[size] = key;
+        scores[size] = score;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    public double getScore(int index) {
+        checkIndex(index);
+        return scores[index];
+    }
+
+    /**
+     * Removes all entries but keeps the arrays, so the instance can be refilled without allocating.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    public List<Order2> toList() {
+        List<Order2> list = new ArrayList<Order2>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Order2(keys[i], scores[i]));
+        }
+        return list;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(keys[i]).append('#').append(scores[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
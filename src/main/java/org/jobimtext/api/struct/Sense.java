@@ -15,6 +15,7 @@ package org.jobimtext.api.struct;
  * License for the specific language governing permissions and limitations under
  * the License.
  ******************************************************************************/
+import java.util.ArrayList;
 import java.util.List;
 /**
  * 
@@ -46,6 +47,26 @@ public class Sense {
 	public void setIsas(List<String> isas) {
 		this.isas = isas;
 	}
+
+	/**
+	 * Creates a sense from the columns of a senses query: the sense id, the
+	 * comma separated cluster terms and the space separated isas.
+	 */
+	public static Sense parse(String cui, String senses, String isas) {
+		Sense s = new Sense();
+		s.setCui(cui);
+		s.setSenses(new ArrayList<String>());
+		s.setIsas(new ArrayList<String>());
+		for (String sen : senses.split(", ")) {
+			s.getSenses().add(sen);
+		}
+		for (String isa : isas.split(" ")) {
+			if (isa.trim().length() > 0)
+				s.getIsas().add(isa);
+		}
+		return s;
+	}
+
 	@Override
 	public String toString() {
 		return cui+": "+getSenses()+"\t"+getIsas();
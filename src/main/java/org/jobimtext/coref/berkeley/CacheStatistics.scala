@@ -0,0 +1,82 @@
+package org.jobimtext.coref.berkeley
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counters of a cache: requests answered from the cache (hits), requests that had to compute their value (misses)
+ * including the time spent computing, requests that waited for another thread computing their value (joins), and
+ * entries dropped to stay within a memory budget. Caches that are emptied
+ * after each document also report the largest number and size of entries reached in a document via `observe()`.
+ */
+class CacheStatistics {
+  private val _hits = new AtomicLong()
+  private val _misses = new AtomicLong()
+  private val _joins = new AtomicLong()
+  private val _loadNanos = new AtomicLong()
+  private val _evictions = new AtomicLong()
+  private var _peakEntries = 0
+  private var _peakBytes = 0L
+
+  def recordHit(): Unit = _hits.incrementAndGet()
+
+  def recordMiss(loadNanos: Long): Unit = {
+    _misses.incrementAndGet()
+    _loadNanos.addAndGet(loadNanos)
+  }
+
+  def recordJoin(): Unit = _joins.incrementAndGet()
+
+  def recordEviction(): Unit = _evictions.incrementAndGet()
+
+  /**
+   * Remembers the current number and size of entries if they exceed the largest ones seen so far.
+   */
+  def observe(entries: Int, bytes: Long): Unit = synchronized {
+    _peakEntries = math.max(_peakEntries, entries)
+    _peakBytes = math.max(_peakBytes, bytes)
+  }
+
+  def hits: Long = _hits.get
+
+  def misses: Long = _misses.get
+
+  def joins: Long = _joins.get
+
+  def requests: Long = hits + misses + joins
+
+  /**
+   * Fraction of the requests answered from the cache, 0 if there were none.
+   */
+  def hitRate: Double = if (requests == 0) 0.0 else hits.toDouble / requests
+
+  /**
+   * Time spent computing missing values in nanoseconds.
+   */
+  def loadNanos: Long = _loadNanos.get
+
+  def evictions: Long = _evictions.get
+
+  def peakEntries: Int = synchronized(_peakEntries)
+
+  def peakBytes: Long = synchronized(_peakBytes)
+
+  def reset(): Unit = synchronized {
+    _hits.set(0)
+    _misses.set(0)
+    _joins.set(0)
+    _loadNanos.set(0)
+    _evictions.set(0)
+    _peakEntries = 0
+    _peakBytes = 0
+  }
+
+  /**
+   * Describes the counters in one line, together with the current number and size of entries of the cache.
+   */
+  def summarize(name: String, entries: Int, bytes: Long): String = {
+    f"$name: $requests requests, ${hitRate * 100}%.1f%% hits, $misses misses loaded in ${loadNanos / 1e6}%.1f ms, " +
+      f"$joins joined loads, " +
+      f"$evictions evictions, $entries entries (peak ${math.max(entries, peakEntries)}), ${bytes >> 10} KB " +
+      f"(peak ${math.max(bytes, peakBytes) >> 10} KB)"
+  }
+}
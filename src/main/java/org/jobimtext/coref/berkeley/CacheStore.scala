@@ -0,0 +1,313 @@
+package org.jobimtext.coref.berkeley
+
+import java.util.concurrent.{Callable, ConcurrentHashMap, ConcurrentLinkedQueue, ExecutionException, FutureTask}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Key-value storage behind the caches of a [[ThesaurusCache]]. Stores may be used by several threads at once:
+ * reading a stored value takes no lock, and if several threads miss the same key, only one of them computes the value
+ * while the others wait for its result. A computation that requests its own key again computes it once more instead
+ * of waiting for itself.
+ */
+trait CacheStore[K, V] {
+  /**
+   * Name of the cache, used in reports.
+   */
+  def name: String
+
+  /**
+   * Requests, load times and evictions of this store.
+   */
+  val statistics = new CacheStatistics
+
+  // computations of missing values in progress, with the thread running them
+  private val loads = new ConcurrentHashMap[K, Load]()
+
+  private class Load(val task: FutureTask[V], val thread: Thread)
+
+  /**
+   * Returns the value stored for the key, or computes, stores and returns it if it is absent.
+   */
+  def getOrElseUpdate(key: K, compute: => V): V
+
+  def contains(key: K): Boolean
+
+  def clear(): Unit
+
+  /**
+   * Number of stored entries.
+   */
+  def size: Int
+
+  /**
+   * Estimated number of bytes held by the stored entries.
+   */
+  def bytes: Long
+
+  /**
+   * Computes the value of a key that was not found, unless another thread is already computing it, in which case its
+   * result is awaited and the request is recorded as a join. The computing thread records the miss and the time spent
+   * and passes the value to `store` before other threads may start a new computation of the key. If the computation
+   * of a key requests the same key, the value is computed directly, as waiting for the running computation would
+   * never end.
+   *
+   * @param key the missing key
+   * @param stored looks the key up again, as it may have been stored since it was found missing
+   * @param compute computation of the value
+   * @param store stores the computed value
+   */
+  protected def loadOnce(key: K, stored: K => Option[V], compute: => V, store: (K, V) => Unit): V = {
+    val task = new FutureTask[V](new Callable[V] {
+      override def call(): V = compute
+    })
+    val load = new Load(task, Thread.currentThread())
+    val running = loads.putIfAbsent(key, load)
+    if (running != null) {
+      if (running.thread eq load.thread) {
+        val start = System.nanoTime()
+        val value = compute
+        statistics.recordMiss(System.nanoTime() - start)
+        return value
+      }
+      statistics.recordJoin()
+      return await(running.task)
+    }
+
+    try {
+      val value = stored(key)
+      if (value.isDefined) {
+        statistics.recordHit()
+        return value.get
+      }
+
+      val start = System.nanoTime()
+      task.run()
+      statistics.recordMiss(System.nanoTime() - start)
+      val computed = await(task)
+      store(key, computed)
+      computed
+    } finally {
+      loads.remove(key, load)
+    }
+  }
+
+  private def await(task: FutureTask[V]): V = {
+    try {
+      task.get()
+    } catch {
+      // the computing thread and all waiting ones fail with the exception of the computation
+      case e: ExecutionException => throw e.getCause
+    }
+  }
+
+  /**
+   * One line describing the use of this store.
+   */
+  def summary: String = statistics.summarize(name, size, bytes)
+}
+
+/**
+ * Stores everything until it is cleared. Used when the cache is emptied after each document.
+ *
+ * @param weigh estimated size of an entry in bytes, only evaluated when the size of the store is requested
+ */
+class UnboundedCacheStore[K, V](val name: String, weigh: (K, V) => Long) extends CacheStore[K, V] {
+  // values are stored as references, so that a missing boxed number is not mistaken for 0; null values are not stored
+  private val map = new ConcurrentHashMap[K, AnyRef]()
+
+  override def getOrElseUpdate(key: K, compute: => V): V = {
+    val value = map.get(key)
+    if (value != null) {
+      statistics.recordHit()
+      value.asInstanceOf[V]
+    } else {
+      loadOnce(key, lookup, compute, store)
+    }
+  }
+
+  private def lookup(key: K): Option[V] = Option(map.get(key)).map(_.asInstanceOf[V])
+
+  private def store(key: K, value: V): Unit = {
+    if (value != null) map.put(key, value.asInstanceOf[AnyRef])
+  }
+
+  override def contains(key: K): Boolean = map.containsKey(key)
+
+  override def clear(): Unit = map.clear()
+
+  override def size: Int = map.size
+
+  override def bytes: Long = {
+    var sum = 0L
+    val entries = map.entrySet().iterator()
+    while (entries.hasNext) {
+      val entry = entries.next()
+      sum += weigh(entry.getKey, entry.getValue.asInstanceOf[V])
+    }
+    sum
+  }
+}
+
+/**
+ * Segmented LRU store bounded by the estimated size of its entries. New entries are admitted to a probationary
+ * segment; an entry that is requested again while on probation is promoted to the protected segment, which may use
+ * up to `protectedShare` of the capacity. Entries leaving the protected segment are demoted to the most recently used
+ * end of the probationary segment, and entries are evicted from its least recently used end. Thus terms that are
+ * looked up in many documents survive a stream of terms seen only once.
+ *
+ * The values are kept in a concurrent map, so that hits take no lock. Hits are queued and applied to the segments
+ * in batches, by the thread that finds the queue full or that admits the next entry, while holding the lock of the
+ * segments.
+ *
+ * @param name name of the cache, used in reports
+ * @param capacity maximum number of bytes held, as estimated by `weigh`
+ * @param weigh estimated size of an entry in bytes
+ * @param protectedShare fraction of the capacity reserved for entries that were requested at least twice
+ */
+class SegmentedLruCacheStore[K, V](val name: String, val capacity: Long, weigh: (K, V) => Long,
+                                   protectedShare: Double = 0.8) extends CacheStore[K, V] {
+  import SegmentedLruCacheStore._
+
+  private case class Entry(value: V, weight: Long)
+
+  private val data = new ConcurrentHashMap[K, Entry]()
+
+  // both segments are in access order, their first element is the least recently used one; guarded by segmentLock
+  private val segmentLock = new ReentrantLock()
+  private val probation = new java.util.LinkedHashMap[K, Entry](16, 0.75f, true)
+  private val protectedSegment = new java.util.LinkedHashMap[K, Entry](16, 0.75f, true)
+  private val protectedCapacity = (capacity * protectedShare).toLong
+  private var probationBytes = 0L
+  private var protectedBytes = 0L
+
+  // keys hit since the segments were last updated
+  private val accesses = new ConcurrentLinkedQueue[K]()
+  private val pendingAccesses = new AtomicInteger()
+
+  override def getOrElseUpdate(key: K, compute: => V): V = {
+    val entry = data.get(key)
+    if (entry != null) {
+      statistics.recordHit()
+      recordAccess(key)
+      entry.value
+    } else {
+      // computed outside of the lock, as computing one expansion may look up others
+      loadOnce(key, lookup, compute, admit)
+    }
+  }
+
+  private def lookup(key: K): Option[V] = Option(data.get(key)).map(_.value)
+
+  private def recordAccess(key: K): Unit = {
+    accesses.add(key)
+    if (pendingAccesses.incrementAndGet() >= AccessBufferSize && segmentLock.tryLock()) {
+      try {
+        drainAccesses()
+      } finally {
+        segmentLock.unlock()
+      }
+    }
+  }
+
+  private def drainAccesses(): Unit = {
+    var key = accesses.poll()
+    while (key != null) {
+      pendingAccesses.decrementAndGet()
+      touch(key)
+      key = accesses.poll()
+    }
+  }
+
+  // applies a hit to the segments; keys evicted since they were hit are ignored
+  private def touch(key: K): Unit = {
+    if (protectedSegment.get(key) != null) return
+
+    val entry = probation.remove(key)
+    if (entry == null) return
+
+    probationBytes -= entry.weight
+    protectedSegment.put(key, entry)
+    protectedBytes += entry.weight
+    while (protectedBytes > protectedCapacity && protectedSegment.size > 1) {
+      val eldest = protectedSegment.entrySet().iterator().next()
+      val (eldestKey, eldestEntry) = (eldest.getKey, eldest.getValue)
+      protectedSegment.remove(eldestKey)
+      protectedBytes -= eldestEntry.weight
+      probation.put(eldestKey, eldestEntry)
+      probationBytes += eldestEntry.weight
+    }
+    evict()
+  }
+
+  private def admit(key: K, value: V): Unit = {
+    val weight = weigh(key, value)
+    // an entry that does not fit at all would only flush the cache, it counts as evicted right away
+    if (weight > capacity) {
+      statistics.recordEviction()
+      return
+    }
+
+    segmentLock.lock()
+    try {
+      drainAccesses()
+      if (!data.containsKey(key)) {
+        val entry = Entry(value, weight)
+        data.put(key, entry)
+        probation.put(key, entry)
+        probationBytes += weight
+        evict()
+      }
+    } finally {
+      segmentLock.unlock()
+    }
+  }
+
+  private def evict(): Unit = {
+    while (probationBytes + protectedBytes > capacity && !(probation.isEmpty && protectedSegment.isEmpty)) {
+      val segment = if (probation.isEmpty) protectedSegment else probation
+      val eldest = segment.entrySet().iterator().next()
+      val (eldestKey, eldestEntry) = (eldest.getKey, eldest.getValue)
+      segment.remove(eldestKey)
+      data.remove(eldestKey)
+      if (segment eq probation) probationBytes -= eldestEntry.weight
+      else protectedBytes -= eldestEntry.weight
+      statistics.recordEviction()
+    }
+  }
+
+  override def contains(key: K): Boolean = data.containsKey(key)
+
+  override def clear(): Unit = {
+    segmentLock.lock()
+    try {
+      accesses.clear()
+      pendingAccesses.set(0)
+      data.clear()
+      probation.clear()
+      protectedSegment.clear()
+      probationBytes = 0
+      protectedBytes = 0
+    } finally {
+      segmentLock.unlock()
+    }
+  }
+
+  override def size: Int = data.size
+
+  override def bytes: Long = {
+    segmentLock.lock()
+    try {
+      probationBytes + protectedBytes
+    } finally {
+      segmentLock.unlock()
+    }
+  }
+}
+
+object SegmentedLruCacheStore {
+  /**
+   * Number of queued hits after which the segments are updated.
+   */
+  val AccessBufferSize = 64
+}
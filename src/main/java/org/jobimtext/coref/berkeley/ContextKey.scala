@@ -0,0 +1,55 @@
+package org.jobimtext.coref.berkeley
+
+/**
+ * Canonical form of a set of context features, used as a cache key. The features are represented by the sorted
+ * array of their numbers, and the hash code is computed once, so comparing two keys compares integers instead of
+ * strings, and hashing a key costs nothing. Keys are created by a [[ContextKeyFactory]] and are only comparable to
+ * keys of the same factory.
+ *
+ * @param features the context features
+ */
+final class ContextKey private[berkeley](val features: Set[String], private val ids: Array[Int]) {
+  override val hashCode: Int = java.util.Arrays.hashCode(ids)
+
+  def size: Int = ids.length
+
+  def isEmpty: Boolean = ids.length == 0
+
+  override def equals(other: Any): Boolean = other match {
+    case that: ContextKey => (this eq that) || (hashCode == that.hashCode && java.util.Arrays.equals(ids, that.ids))
+    case _ => false
+  }
+
+  override def toString: String = features.mkString("ContextKey(", ", ", ")")
+}
+
+/**
+ * Numbers context features in the order they are first seen and creates the [[ContextKey]]s of feature sets. Each
+ * thesaurus has its own factory.
+ */
+class ContextKeyFactory {
+  private val featureIds = new TermDictionary
+
+  def apply(features: Set[String]): ContextKey = {
+    val ids = new Array[Int](features.size)
+    var i = 0
+    for (feature <- features) {
+      ids(i) = featureIds.id(feature)
+      i += 1
+    }
+    java.util.Arrays.sort(ids)
+    new ContextKey(features, ids)
+  }
+
+  /**
+   * Number of distinct features seen.
+   */
+  def featureCount: Int = featureIds.size
+
+  def bytes: Long = featureIds.bytes
+
+  /**
+   * Forgets the feature numbers. Keys created before are not equal to any key created afterwards.
+   */
+  def clear(): Unit = featureIds.clear()
+}
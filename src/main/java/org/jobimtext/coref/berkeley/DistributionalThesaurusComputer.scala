@@ -1,12 +1,18 @@
 package org.jobimtext.coref.berkeley
 
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+import com.carrotsearch.hppc.ObjectIntOpenHashMap
 import edu.berkeley.nlp.coref.config.CorefSystemConfiguration
 import edu.berkeley.nlp.coref.{BaseDoc, Mention}
 import edu.berkeley.nlp.math.LogAdder
 import org.jobimtext.api.db.AntonymDatabase
-import org.jobimtext.api.struct.{IThesaurusDatastructure, Sense}
+import org.jobimtext.api.metrics.QueryMetrics
+import org.jobimtext.api.struct.{IThesaurusDatastructure, Order2Columns, Sense}
 import org.jobimtext.coref.berkeley.DistributionalThesaurusComputer.AttributeIncompatibilityResult
+import org.jobimtext.util.{ThresholdTopK, TopK}
 
+import scala.collection.JavaConversions
 import scala.collection.JavaConversions._
 import scala.collection.mutable
 import scala.collection.mutable.ArrayBuffer
@@ -48,6 +54,26 @@ trait DistributionalThesaurusComputer {
    */
   var maxPriorExpansionSize: Int = 200
 
+  /**
+   * Maximum number of terms read per context feature for the context-based expansion, 0 to read all terms returned
+   * by the thesaurus. Only the highest scored terms of a feature are read, so a limit trades exactness in the tail of
+   * the expansion for fewer transferred rows.
+   */
+  var maxContextTermsPerFeature: Int = 0
+
+  /**
+   * Whether the interface holds all term counts in memory, so that [[lookupTermCount]] neither caches nor prefetches
+   * them.
+   */
+  var termCountsInMemory: Boolean = false
+
+  /*
+   * Similar terms looked at and kept by the compatibility filter so far, used to estimate how many similar terms
+   * have to be fetched to fill a prior expansion.
+   */
+  private val similarTermsScanned = new AtomicLong()
+  private val similarTermsKept = new AtomicLong()
+
   protected val config: CorefSystemConfiguration
 
   protected val cache: ThesaurusCache
@@ -55,20 +81,79 @@ trait DistributionalThesaurusComputer {
   /**
    * Contains the context features of a mention that are not part of the mention itself.
    */
-  protected var outerMentionContextFeaturesCache = mutable.Map.empty[Mention, Set[String]]
+  protected val outerMentionContextFeaturesCache = new UnboundedCacheStore[Mention, ContextKey](
+    "outerMentionContextFeatures", (_, features) => ThesaurusCache.contextKeyBytes(features))
+
+  /**
+   * Creates the canonical cache keys of context feature sets. Owned by the cache, which clears it with the entries.
+   */
+  def contextKey: ContextKeyFactory = cache.contextKeys
+
+  /**
+   * Numbers the terms of prior expansions, see [[indexedPriorExpansion]]. Owned by the cache like [[contextKey]].
+   */
+  def termIds: TermDictionary = cache.termIds
+
+  /**
+   * Numbers the canonical IS-A labels, see [[senseIndex]]. Owned by the cache like [[contextKey]].
+   */
+  def isaIds: TermDictionary = cache.isaIds
+
+  /**
+   * Measurements of the lookups of this thesaurus, if enabled with
+   * [[edu.berkeley.nlp.coref.config.CorefSystemConfiguration.dtQueryMetrics]].
+   */
+  def queryMetrics: Option[QueryMetrics] = Option(interface.getQueryMetrics)
 
   def clearCache() = {
-    outerMentionContextFeaturesCache = mutable.Map.empty[Mention, Set[String]]
+    outerMentionContextFeaturesCache.clear()
     cache.clearCache()
   }
 
-  // STATISTICS
-  var priorTermExpansionFindings = 0
-  var priorTermExpansionTrials = 0
+  /**
+   * Forgets the mentions of the finished document and, unless the cache persists across documents, empties the
+   * cache. Should be called after each document.
+   */
+  def documentFinished(): Unit = {
+    outerMentionContextFeaturesCache.statistics.observe(outerMentionContextFeaturesCache.size,
+      outerMentionContextFeaturesCache.bytes)
+    outerMentionContextFeaturesCache.clear()
+    cache.documentFinished()
+  }
+
+  /**
+   * The caches of this thesaurus, to query their statistics.
+   */
+  def caches: Seq[CacheStore[_, _]] = cache.stores :+ outerMentionContextFeaturesCache
+
+  /**
+   * One line per cache of this thesaurus describing its use, including the disk cache if there is one.
+   */
+  def cacheSummary: Seq[String] = caches.map(_.summary) ++ cache.diskCache.map(_.summary)
+
+  /**
+   * Resets the statistics of all caches of this thesaurus.
+   */
+  def resetCacheStatistics(): Unit = {
+    caches.foreach(_.statistics.reset())
+    cache.diskCache.foreach(_.statistics.reset())
+  }
+
+  // STATISTICS, counted atomically as documents may be featurized in parallel
+  private val priorTermExpansionFindingsCount = new AtomicInteger()
+  private val priorTermExpansionTrialsCount = new AtomicInteger()
   val priorTermExpansionFindingsFrequency: ArrayBuffer[String] = if (config.dtStatistics) ArrayBuffer.empty[String]
   else null
-  var attributeTermExpansionFindings = 0
-  var attributeTermExpansionTrials = 0
+  private val attributeTermExpansionFindingsCount = new AtomicInteger()
+  private val attributeTermExpansionTrialsCount = new AtomicInteger()
+
+  def priorTermExpansionFindings: Int = priorTermExpansionFindingsCount.get
+
+  def priorTermExpansionTrials: Int = priorTermExpansionTrialsCount.get
+
+  def attributeTermExpansionFindings: Int = attributeTermExpansionFindingsCount.get
+
+  def attributeTermExpansionTrials: Int = attributeTermExpansionTrialsCount.get
   val contextScores: mutable.Map[String, Double] = if (config.dtStatistics) mutable.Map.empty[String, Double] else null
 
   /**
@@ -135,6 +220,16 @@ trait DistributionalThesaurusComputer {
       + " and thesaurus " + identifier + " not precomputed"))
   }
 
+  /**
+   * Returns the canonical cache key of the mention's context features, see [[getContext]].
+   *
+   * @throws IllegalStateException if the mention has no precomputed context features for this thesaurus stored
+   */
+  def getContextKey(mention: Mention): ContextKey = {
+    mention.contextKeyCache.getOrElse(identifier, throw new IllegalStateException("Context features for mention " +
+      mention + " and thesaurus " + identifier + " not precomputed"))
+  }
+
   /**
    * Looks up the first mention's term in the second mention's term's prior expansion and reports its rank. If the
    * term is not contained at all, -1 is returned, and -2 if the second term's expansion is empty. 0 is returned
@@ -166,28 +261,29 @@ trait DistributionalThesaurusComputer {
     // if the terms are the same, no need to expand
     if (firstTerm == secondTerm) return 0
 
-    val expansions = priorTermExpansion(secondTerm)
+    val expansion = indexedPriorExpansion(secondTerm)
+
+    if (expansion.isEmpty) return -2
 
-    if (expansions.isEmpty) return -2
+    priorTermExpansionTrialsCount.incrementAndGet()
+    val index = expansion.rankOf(termIds.get(firstTerm))
+    if (index < 0) return -1
 
-    priorTermExpansionTrials += 1
-    expansions.get(firstTerm) match {
-      case Some(ExpansionIndexHolder(index, _)) =>
-        priorTermExpansionFindings += 1
-        if (priorTermExpansionFindingsFrequency != null) priorTermExpansionFindingsFrequency += firstTerm
-        index + 1 // we report natural ordering (such that index 0 => term1 == term2 and index 1 => exp(term2)[0] ==
-        // term1)
-      case None => -1
+    priorTermExpansionFindingsCount.incrementAndGet()
+    if (priorTermExpansionFindingsFrequency != null) {
+      priorTermExpansionFindingsFrequency.synchronized(priorTermExpansionFindingsFrequency += firstTerm)
     }
+    index + 1 // we report natural ordering (such that index 0 => term1 == term2 and index 1 => exp(term2)[0] == term1)
   }
 
   /**
    * Looks up the term of `needle` in the context-sensitively re-ranked expansion of `expandedMention`.
    *
    * If `usePartnerContext` is set to true, the context of `needle` is used to perform the re-ranking of the expansion
-   * instead of the usual context of `expandedMention`. Doing so effectively renders caching useless, since instead of
-   * `n` re-rankings (with `n` being the number of mentions in a document) in the worst case, this can lead to `n(n-1)`
-   * re-rankings being performed. It is therefore not recommended to enable this option.
+   * instead of the usual context of `expandedMention`. Doing so renders the cache of re-ranked expansions mostly
+   * useless, since instead of `n` re-rankings (with `n` being the number of mentions in a document) in the worst case,
+   * this can lead to `n(n-1)` re-rankings being performed. The scores looked up per context feature are still cached,
+   * so the additional re-rankings cost computation time rather than database queries.
    *
    * If `filterContext` is enabled, only those context features will be used that are not part of the mention itself.
    *
@@ -207,10 +303,10 @@ trait DistributionalThesaurusComputer {
     if (getTerm(needle) == getTerm(expandedMention)) 0
     else {
       val expansion = usePartnerContext match {
-        case true => val ctx = if (filterContext) getOuterMentionContextFeaturesCache(needle) else getContext(needle)
+        case true => val ctx = if (filterContext) getOuterMentionContextKey(needle) else getContextKey(needle)
           rerankedExpansion(getTerm(expandedMention), ctx)
-        case false => val ctx = if (filterContext) getOuterMentionContextFeaturesCache(expandedMention) else
-          getContext(expandedMention)
+        case false => val ctx = if (filterContext) getOuterMentionContextKey(expandedMention) else
+          getContextKey(expandedMention)
           rerankedExpansion(getTerm(expandedMention), ctx)
       }
       if (expansion.isEmpty) -2 else expansion.get(getTerm(needle)).map(_.index + 1).getOrElse(-1)
@@ -240,8 +336,15 @@ trait DistributionalThesaurusComputer {
    *
    * @return a set of context features
    */
-  def getOuterMentionContextFeaturesCache(mention: Mention) = outerMentionContextFeaturesCache.getOrElseUpdate(mention,
-    computeOuterMentionContextFeatures(mention))
+  def getOuterMentionContextFeaturesCache(mention: Mention): Set[String] = getOuterMentionContextKey(mention).features
+
+  /**
+   * Returns the canonical cache key of the context features returned by [[getOuterMentionContextFeaturesCache]].
+   *
+   * @param mention a mention for which the context features of this thesaurus had been already computed
+   */
+  def getOuterMentionContextKey(mention: Mention): ContextKey = outerMentionContextFeaturesCache.getOrElseUpdate(
+    mention, contextKey(computeOuterMentionContextFeatures(mention)))
 
   /**
    * Returns the prior expansion of `term` after performing context-sensitive re-ranking according to the given
@@ -264,35 +367,43 @@ trait DistributionalThesaurusComputer {
    * @return the re-ranked expansion
    */
   def rerankedExpansion(term: String, context: Set[String]): mutable.LinkedHashMap[String,
+    ExpansionIndexHolder] = rerankedExpansion(term, contextKey(context))
+
+  /**
+   * Returns the re-ranked prior expansion of `term` for the context features of the given canonical key. See the
+   * variant taking a set of features for details.
+   */
+  def rerankedExpansion(term: String, context: ContextKey): mutable.LinkedHashMap[String,
     ExpansionIndexHolder] = {
     cache.rerankedExpansionCache(term, context) {
       val priorExpansions = priorTermExpansion(term)
 
       if (priorExpansions.isEmpty || context.isEmpty) priorExpansions
       else {
-        val featureArray = context.toArray
+        val featureArray = context.features.toArray
 
-        val priorExpansionTerms = priorExpansions.toSeq.map(_._1).toList
+        // the parts are cached per feature, so contexts sharing features only look up the features they add
+        val featureTermCounts = featureArray.map(f => cache.termCountLogCache(f)(Math.log(termCount(f))))
+        val featureToTermToScore = featureArray.map(f => cache.termContextScoresCache(term, f) {
+          interface.getBatchTermContextsScore(term, f)
+        })
 
-        val featureToTermToScore = featureArray.map(f => interface.getBatchTermContextsScore(term, f))
+        // the numerator does not depend on the expansion term
+        val nom = new LogAdder()
+        for (featureTermCount <- featureTermCounts) nom.logAdd(-featureTermCount)
 
-        val scores = priorExpansionTerms.toSeq map { term =>
-          val nom = new LogAdder()
+        val scores = priorExpansions.keys.toList map { expansionTerm =>
           val denom = new LogAdder()
 
           for (i <- 0 until featureArray.size) {
-            val feature = featureArray(i)
-            val featureTermCount = cache.termCountLogCache(feature)(Math.log(termCount(feature)))
-
-            nom.logAdd(-featureTermCount)
-            denom.logAdd(-Math.log(featureTermCount + DistributionalThesaurusComputer.javaMapGetOrElse(
-              featureToTermToScore(i), term, new java.lang.Double(0.0)) + 1.0))
+            denom.logAdd(-Math.log(featureTermCounts(i) + DistributionalThesaurusComputer.javaMapGetOrElse(
+              featureToTermToScore(i), expansionTerm, new java.lang.Double(0.0)) + 1.0))
           }
 
           val score = nom.getSum - denom.getSum
 
           // to keep ranks symmetric with prior expansion, bring the identical term to the top
-          if (term == term) (term, Double.MaxValue) else (term, score)
+          if (expansionTerm == term) (expansionTerm, Double.MaxValue) else (expansionTerm, score)
         }
 
         // re-sort
@@ -320,6 +431,29 @@ trait DistributionalThesaurusComputer {
    */
   def termCount(feature: String): Long
 
+  /**
+   * Returns the term(s) contained in the given context feature, i.e. the terms whose counts [[termCount]] combines.
+   * Used to fetch the counts of all features of a document at once.
+   *
+   * @param feature a context feature
+   *
+   * @return the terms of the feature, empty if it does not contain any
+   */
+  def termsOfFeature(feature: String): Seq[String]
+
+  /**
+   * Returns how many times the term was seen during the thesaurus training. Implementations of [[termCount]] should
+   * use this method instead of querying the interface directly, so that prefetched counts are used.
+   *
+   * @param term a single term
+   *
+   * @return the term count, 0 if unknown
+   */
+  protected def lookupTermCount(term: String): Long = {
+    if (termCountsInMemory) interface.getTermCount(term)
+    else cache.termCountCache(term)(interface.getTermCount(term))
+  }
+
   /**
    * Returns the percentage of terms shared between the prior expansions of both mentions in relation to the size of
    * the smaller expansion. Returns [[None]] if
@@ -335,20 +469,12 @@ trait DistributionalThesaurusComputer {
    *         prior expansion
    */
   def sharedPriorExpansionCount(first: Mention, second: Mention): Option[Double] = {
-    val firstExpansions = priorTermExpansion(first)
-    val secondExpansions = priorTermExpansion(second)
-    val firstExpansionJos = firstExpansions.view.map(_._1)
-    val secondExpansionJos = secondExpansions.view.map(_._1)
-    if (firstExpansions.size == 0 || secondExpansions.size == 0) None
+    val firstExpansion = indexedPriorExpansion(getTerm(first))
+    val secondExpansion = indexedPriorExpansion(getTerm(second))
+    if (firstExpansion.isEmpty || secondExpansion.isEmpty) None
     else {
-      val smallerExpansionList = if (firstExpansions.size < secondExpansions.size) firstExpansionJos
-      else
-        secondExpansionJos
-      val biggerExpansionSet = (if (firstExpansions.size < secondExpansions.size) secondExpansionJos
-      else
-        firstExpansionJos).toSet
-      val maxSharableExpansions = smallerExpansionList.size
-      Some(smallerExpansionList.count(biggerExpansionSet.contains).toDouble / maxSharableExpansions.toDouble)
+      val maxSharableExpansions = math.min(firstExpansion.size, secondExpansion.size)
+      Some(firstExpansion.sharedCount(secondExpansion).toDouble / maxSharableExpansions.toDouble)
     }
   }
 
@@ -379,48 +505,97 @@ trait DistributionalThesaurusComputer {
    * `∃ c ∈ C (sig(t,c) > 0)` holds. Then, calculate for each `t ∈ T` the probability `P(t|C)` as
    * `∏[c ∈ C] (sig(t,c) + 1)`. A normalizing denominator, which is the same for all `t`, is omitted. Next, the
    * terms in `T` are ordered in their decreasing likelihood and cut after [[maxPriorExpansionSize]] elements.
-
+   *
+   * If [[edu.berkeley.nlp.coref.config.CorefSystemConfiguration.dtThresholdContextExpansion]] is enabled and the
+   * thesaurus returns the terms of a feature sorted by significance, the lists are only read as far as needed to
+   * determine the best terms, see [[org.jobimtext.util.ThresholdTopK]]. Terms with equal probability may then be
+   * ordered differently, and the probability of a term missing from a list that was not read completely is only a
+   * lower bound.
+   *
    * @param context the set of context features to expand
    *
    * @return a linked hash map map mapping from terms to their position in the context-based expansion and their
    *         not normalized probability.
    */
   def contextExpansion(context: Set[String]): mutable.LinkedHashMap[String,
-    ExpansionIndexHolder] = cache.contextExpansionCache(context) {
-    val contexts = context.toArray
+    ExpansionIndexHolder] = cache.contextExpansionCache(contextKey(context)) {
+    if (config.dtThresholdContextExpansion && interface.hasSortedContextTermsScores) thresholdContextExpansion(context)
+    else scannedContextExpansion(context)
+  }
 
-    // mapping from feature (index) to all terms spanned by this feature and the respective term-feature significance
-    // value
-    val termScoresPerFeature = contexts.map(f => interface.getContextTermsScores(f).foldLeft(mutable.Map.empty[String,
-      Double]) { case (map, pair) => map(pair.key) =
-      pair.score.toDouble
-      map
-    }).toArray
+  private def scannedContextExpansion(context: Set[String]): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
+    // calculate P(jo|bim1,bim2,...) = P(jo|bim1) * P(jo|bim2) * ... * P(jo|bim_n). In our log space, a feature a term
+    // has not been seen with contributes log1p(0) = 0, so adding up the smoothed significances of the rows returned
+    // per feature is enough. Terms are numbered in the order they are first seen (stored +1 in termIndices, as 0
+    // means absent) and their probabilities are accumulated in a primitive array.
+    val termIndices = new ObjectIntOpenHashMap[String]()
+    var terms = new Array[String](256)
+    var probabilities = new Array[Double](256)
+    var termCount = 0
+
+    for (f <- context) {
+      val termScores = cache.contextTermsCache(f) {
+        if (maxContextTermsPerFeature > 0) interface.getContextTermsScoresColumns(f, maxContextTermsPerFeature)
+        else interface.getContextTermsScoresColumns(f)
+      }
+      var i = 0
+      while (i < termScores.size) {
+        val jo = termScores.getKey(i)
+        if (jo != null) {
+          var index = termIndices.get(jo) - 1
+          if (index < 0) {
+            if (termCount == terms.length) {
+              terms = java.util.Arrays.copyOf(terms, 2 * termCount)
+              probabilities = java.util.Arrays.copyOf(probabilities, 2 * termCount)
+            }
+            index = termCount
+            terms(index) = jo
+            termIndices.put(jo, index + 1)
+            termCount += 1
+          }
+          // smooth and add (we don't use the log probability defined as negative)
+          probabilities(index) += Math.log1p(termScores.getScore(i))
+        }
+        i += 1
+      }
+    }
 
-    val allTerms = termScoresPerFeature.view.flatMap(_.keys).distinct
+    // order by probability (in our logspace, higher values still mean higher probability)
+    // also, take only max expansions, the very bad ones are only compatible with some contexts
+    val sortedJos = TopK.select(probabilities, termCount, maxPriorExpansionSize)
 
-    val termToProbability = mutable.ListBuffer.empty[(String, Double)]
+    val expansions = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
+    for (rank <- 0 until sortedJos.length) {
+      val index = sortedJos(rank)
+      expansions(terms(index)) = ExpansionIndexHolder(rank, probabilities(index))
+    }
 
-    // calculate P(jo|bim1,bim2,...) = P(jo|bim1) * P(jo|bim2) * ... * P(jo|bim_n)
-    for (jo <- allTerms) {
-      var probability = 0.0
+    expansions
+  }
 
-      for (i <- 0 until termScoresPerFeature.length) {
-        // smooth and add (we don't use the log probability defined as negative)
-        probability += Math.log1p(termScoresPerFeature(i).getOrElse(jo, 0.0)) // - Math.log(sigSumPerBim(i) +
-        // distinctBimCount)
+  private def thresholdContextExpansion(context: Set[String]): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
+    // the prefixes start with as many terms as are kept, which is all that is read if the features agree on them
+    val features = context.toArray
+    val fullDepth = if (maxContextTermsPerFeature > 0) maxContextTermsPerFeature else Int.MaxValue
+    // the terms read per feature, kept for the whole selection. The top-N query has no portable offset, so a feature
+    // whose first prefix is not enough is read completely once, and the selection goes on through that list in memory
+    val fetched = new Array[Order2Columns](features.length)
+    val complete = new Array[Boolean](features.length)
+    val best = ThresholdTopK.select(features.length, maxPriorExpansionSize, new ThresholdTopK.Postings {
+      override def read(list: Int, depth: Int): Order2Columns = {
+        if (fetched(list) == null || (!complete(list) && fetched(list).size < depth)) {
+          val f = features(list)
+          val d = if (fetched(list) == null) depth else fullDepth
+          fetched(list) = cache.contextTermsCache(f, d)(interface.getContextTermsScoresColumns(f, d))
+          complete(list) = d >= fullDepth || fetched(list).size < d
+        }
+        fetched(list)
       }
-
-      termToProbability += Tuple2(jo, probability)
-    }
-
-    // sort by probability (in our logspace, higher values still mean higher probability)
-    // also, take only max expansions, the very bad ones are only compatible with some contexts
-    val sortedJos = termToProbability.sortBy(-_._2).take(maxPriorExpansionSize)
+    }, maxPriorExpansionSize, maxContextTermsPerFeature)
 
     val expansions = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
-    expansions ++= sortedJos.view.zipWithIndex.map { case (termToScore, index) => (termToScore._1,
-      ExpansionIndexHolder(index, termToScore._2))
+    for (rank <- 0 until best.terms.length) {
+      expansions(best.terms(rank)) = ExpansionIndexHolder(rank, best.scores(rank))
     }
 
     expansions
@@ -512,10 +687,11 @@ trait DistributionalThesaurusComputer {
       None
     } else {
       var topBestRank = Int.MaxValue
+      val queryTermId = termIds.get(queryTerm.get)
 
       for (contextJo <- secondExpansion.view.filter(tup => filterContextExpandedTerm(tup._1)).take(topExpanded)) {
-        topBestRank = priorTermExpansion(contextJo._1).get(queryTerm.get).map(_.index).
-          getOrElse(Int.MaxValue).min(topBestRank)
+        val index = indexedPriorExpansion(contextJo._1).rankOf(queryTermId)
+        if (index >= 0) topBestRank = math.min(topBestRank, index)
       }
 
       Some(if (topBestRank < Int.MaxValue) topBestRank else -1)
@@ -574,12 +750,16 @@ trait DistributionalThesaurusComputer {
     else if (attributes.size == 0) Some(-1)
     else {
 
-      val expansions = priorTermExpansion(expandedMention)
-      if (expansions.isEmpty) None
+      val expansion = indexedPriorExpansion(getTerm(expandedMention))
+      if (expansion.isEmpty) None
       else {
-        attributeTermExpansionTrials += 1
-        val rank = attributes.map(prop => expansions.get(prop).fold(Int.MaxValue)(_.index)).min
-        if (rank != Int.MaxValue) attributeTermExpansionFindings += 1
+        attributeTermExpansionTrialsCount.incrementAndGet()
+        var rank = Int.MaxValue
+        for (prop <- attributes) {
+          val index = expansion.rankOf(termIds.get(prop))
+          if (index >= 0) rank = math.min(rank, index)
+        }
+        if (rank != Int.MaxValue) attributeTermExpansionFindingsCount.incrementAndGet()
 
         if (rank != Int.MaxValue) Some(rank) else Some(-1)
       }
@@ -643,8 +823,12 @@ trait DistributionalThesaurusComputer {
    *
    * @return a sequence of senses for the mention's term, each containing the corresponding isas
    */
-  def isaSets(mention: Mention) = getSenses(getTerm(mention)).map(sense => mutable.LinkedHashSet
-    (sense.getIsas.map(canonicalizeIsa): _*))
+  def isaSets(mention: Mention) = senseIndex(getTerm(mention)).isaSets
+
+  /**
+   * Returns whether the mention's term has any senses, i.e. whether [[isaSets]] is non-empty.
+   */
+  def hasSenses(mention: Mention): Boolean = senseIndex(getTerm(mention)).nonEmpty
 
   /**
    * Returns the maximum Dice index of all possible pairings of ISA sense sets of the terms of the first and
@@ -658,29 +842,9 @@ trait DistributionalThesaurusComputer {
    * @return F1 mesaure of shared ISAs together with those shared ISAs
    */
   def headsSharedIsas(first: Mention, second: Mention): Option[(Double, Seq[String])] = {
-    // compare every sense of the first mention with every sense of the second mention
-    val firstIsas = isaSets(first)
-    val secondIsas = isaSets(second)
-
-    if (firstIsas.isEmpty || secondIsas.isEmpty) {
-      None
-    } else {
-      var bestValue = 0.0
-      var bestSharedIsas = new mutable.LinkedHashSet[String]
-
-      for (isaArrayA <- firstIsas; isaArrayB <- secondIsas) {
-        // using the Dice index
-        val intersection = isaArrayA.intersect(isaArrayB) // note that the returned list's ordering is dependent on
-        // this non-symmetrical operation
-        val simMeasure = (2.0 * intersection.size) / (isaArrayA.size + isaArrayB.size).toDouble
-        if (simMeasure > bestValue) {
-          bestValue = simMeasure
-          bestSharedIsas = intersection
-        }
-      }
-
-      Some((bestValue, bestSharedIsas.toSeq))
-    }
+    // compare every sense of the first mention with every sense of the second mention; note that the order of the
+    // shared ISAs depends on which mention comes first
+    senseIndex(getTerm(first)).sharedIsas(senseIndex(getTerm(second)))
   }
 
   /**
@@ -694,12 +858,12 @@ trait DistributionalThesaurusComputer {
    *        if not; [[None]] if the first mention has no ISAs in the DT
    */
   def headIsIsa(expandedMention: Mention, possibleIsa: Mention): Option[Boolean] = {
-    val firstIsas = getSenses(getTerm(expandedMention)).flatMap(_.getIsas).map(canonicalizeIsa)
-    if (firstIsas.isEmpty) {
+    val senses = senseIndex(getTerm(expandedMention))
+    if (!senses.hasIsas) {
       None
     } else {
       val termAsIsa = termToIsaRepresentation(getTerm(possibleIsa))
-      Some(firstIsas.contains(termAsIsa))
+      Some(senses.containsIsa(isaIds.get(termAsIsa)))
     }
   }
 
@@ -720,10 +884,12 @@ trait DistributionalThesaurusComputer {
     val attributes = extractAttributesOfHead(headHasAttributesMention)
     if (attributes.isEmpty) None
     else {
-      val attributeIsas = attributes.flatMap(term => getSenses(term)).flatMap(_
-        .getIsas).map(canonicalizeIsa)
-
-      if (attributeIsas.contains(termToIsaRepresentation(getTerm(possibleIsa)))) Some(true) else Some(false)
+      val termAsIsa = termToIsaRepresentation(getTerm(possibleIsa))
+      // the number is looked up after indexing each attribute, which may have assigned it
+      Some(attributes.exists { term =>
+        val senses = senseIndex(term)
+        senses.containsIsa(isaIds.get(termAsIsa))
+      })
     }
   }
 
@@ -749,18 +915,84 @@ trait DistributionalThesaurusComputer {
    *         so that map.first returns the top ranked term.
    */
   def priorTermExpansion(term: String): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
-    def isCompatible(expansionTerm: String) = {
-      config.dtRemoveIncompatibleTerms match {
-        case false => true
-        case true => getAntonymCount(term, expansionTerm) <= config.dtRemoveIncompatibleTermsK
-      }
-    }
     cache.priorTermExpansionCache(term) {
-      val expansions = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
-      expansions ++= interface.getSimilarTerms(term).view.filter(t => isCompatible(t.key)).zipWithIndex.map(tuple =>
-        (tuple._1.key,
-          ExpansionIndexHolder(tuple._2, tuple._1.score))).take(maxPriorExpansionSize)
-      expansions
+      if (config.dtRemoveIncompatibleTerms) fetchCompatiblePriorExpansion(term)
+      else buildPriorExpansion(term, interface.getSimilarTermsColumns(term, maxPriorExpansionSize))
+    }
+  }
+
+  /**
+   * Returns the prior expansion of the term over the numbers of [[termIds]], for rank lookups and overlap counts that
+   * compare integers instead of strings.
+   *
+   * @param term the term that will be expanded
+   *
+   * @return the numbered prior expansion as described in [[priorTermExpansion(String)]]
+   */
+  def indexedPriorExpansion(term: String): IndexedExpansion = cache.indexedPriorExpansionCache(term) {
+    IndexedExpansion(priorTermExpansion(term), termIds)
+  }
+
+  /**
+   * Fetches only as many similar terms as are expected to be needed to fill a prior expansion after removing
+   * incompatible terms, based on the fraction of terms kept so far. If too many were removed, all similar terms are
+   * read once and the filter continues with the terms it has not looked at, until the expansion is full or the
+   * thesaurus has no more similar terms.
+   */
+  private def fetchCompatiblePriorExpansion(term: String): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
+    val fetchSize = priorExpansionFetchSize
+    compatiblePriorExpansion(term, interface.getSimilarTermsColumns(term, fetchSize), fetchSize)
+  }
+
+  /**
+   * Fills the prior expansion of `term` from `firstPage`, the result of a top-N query for `fetchSize` similar terms,
+   * as described in [[fetchCompatiblePriorExpansion]].
+   */
+  private def compatiblePriorExpansion(term: String, firstPage: Order2Columns,
+                                       fetchSize: Int): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
+    // the top-N queries have no portable offset, so instead of growing the page (and reading its start again for
+    // every size) the full list is read once
+    val (expansions, scanned) = DistributionalThesaurusComputer.compatiblePriorExpansion(firstPage, fetchSize,
+      interface.getSimilarTermsColumns(term), maxPriorExpansionSize, isCompatible(term, _))
+
+    similarTermsScanned.addAndGet(scanned)
+    similarTermsKept.addAndGet(expansions.size)
+    expansions
+  }
+
+  private def priorExpansionFetchSize: Int = {
+    import DistributionalThesaurusComputer.{MaxOverFetchFactor, OverFetchMargin}
+
+    val scanned = similarTermsScanned.get
+    val kept = similarTermsKept.get
+    val factor =
+      if (scanned == 0) 1.0
+      else if (kept == 0) MaxOverFetchFactor
+      else math.min(scanned.toDouble / kept, MaxOverFetchFactor)
+    math.max(1, math.ceil(maxPriorExpansionSize * factor * OverFetchMargin).toInt)
+  }
+
+  /**
+   * Turns the similar terms returned by the interface into a prior expansion, removing incompatible terms if
+   * configured.
+   *
+   * @param term the expanded term
+   * @param similarTerms similar terms of `term` ordered by decreasing similarity
+   *
+   * @return the prior expansion as described in [[priorTermExpansion(String)]]
+   */
+  protected def buildPriorExpansion(term: String, similarTerms: Order2Columns): mutable
+  .LinkedHashMap[String, ExpansionIndexHolder] = {
+    val expansions = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
+    DistributionalThesaurusComputer.appendCompatible(similarTerms, maxPriorExpansionSize, isCompatible(term, _),
+      expansions, new mutable.HashSet[String]())
+    expansions
+  }
+
+  private def isCompatible(term: String, expansionTerm: String): Boolean = {
+    config.dtRemoveIncompatibleTerms match {
+      case false => true
+      case true => getAntonymCount(term, expansionTerm) <= config.dtRemoveIncompatibleTermsK
     }
   }
 
@@ -859,6 +1091,77 @@ trait DistributionalThesaurusComputer {
     }
   }
 
+  /**
+   * Returns the senses of the term prepared for the ISA features and [[disambiguateSense]], with the ISAs
+   * canonicalized by [[canonicalizeIsa]] and numbered by [[isaIds]].
+   *
+   * @param term the term
+   *
+   * @return the sense index of the term, empty if the term has no senses
+   */
+  def senseIndex(term: String): SenseIndex = cache.senseIndexCache(term) {
+    SenseIndex(getSenses(term), canonicalizeIsa, isaIds)
+  }
+
+  /**
+   * Looks up everything the given features will need for the mentions of a document with a few batched queries and
+   * stores it in the cache, so that featurizing the mention pairs does not cause a database round trip per pair. The
+   * following is prefetched, depending on the features enabled:
+   *
+   * <ul>
+   * <li>prior expansions of all mention terms</li>
+   * <li>sense clusters of all mention terms and their attributes</li>
+   * <li>counts of the terms in all context features, needed for re-ranking</li>
+   * </ul>
+   *
+   * Does nothing if the cache is disabled.
+   *
+   * @param mentions the mentions of a document, with terms and context features precomputed
+   * @param featureNames the names of the features enabled for this thesaurus
+   */
+  def prefetch(mentions: Seq[Mention], featureNames: Set[String]): Unit = {
+    import DistributionalThesaurusComputer._
+
+    if (!cache.enabled || mentions.isEmpty) return
+
+    val terms = mentions.map(m => getTerm(m)).distinct
+
+    if (featureNames.exists(PriorExpansionFeatures.contains)) {
+      val keys = terms.filterNot(cache.isPriorTermExpansionCached)
+      if (keys.nonEmpty) {
+        // as many similar terms per key as the lazy lookup in priorTermExpansion(String) would fetch
+        val fetchSize = if (config.dtRemoveIncompatibleTerms) priorExpansionFetchSize else maxPriorExpansionSize
+        val similarTerms = interface.getSimilarTermsBatch(JavaConversions.asJavaCollection(keys), fetchSize)
+        for (key <- keys) cache.priorTermExpansionCache(key) {
+          val firstPage = Order2Columns.fromList(similarTerms.get(key))
+          if (config.dtRemoveIncompatibleTerms) compatiblePriorExpansion(key, firstPage, fetchSize)
+          else buildPriorExpansion(key, firstPage)
+        }
+      }
+    }
+
+    val senseTerms = mutable.LinkedHashSet.empty[String]
+    if (featureNames.exists(SenseFeatures.contains)) senseTerms ++= terms
+    if (featureNames.exists(AttributeSenseFeatures.contains)) senseTerms ++= mentions.flatMap(extractAttributesOfHead)
+    val senseKeys = senseTerms.toSeq.filterNot(cache.isSensesCached)
+    if (senseKeys.nonEmpty) {
+      val senses = interface.getSensesBatch(JavaConversions.asJavaCollection(senseKeys))
+      for (key <- senseKeys) cache.sensesCache(key) {
+        val list = senses.get(key)
+        list.toArray(new Array[Sense](list.size()))
+      }
+    }
+
+    if (!termCountsInMemory && featureNames.exists(TermCountFeatures.contains)) {
+      val features = mentions.flatMap(m => getContext(m) ++ getOuterMentionContextFeaturesCache(m))
+      val keys = features.flatMap(termsOfFeature).distinct.filterNot(cache.isTermCountCached)
+      if (keys.nonEmpty) {
+        val counts = interface.getTermCountBatch(JavaConversions.asJavaCollection(keys))
+        for (key <- keys) cache.termCountCache(key)(counts.get(key).longValue())
+      }
+    }
+  }
+
   /**
    * Disambiguates the sense of a term. If the term's set of senses is empty, [[None]] is returned.
    *
@@ -878,31 +1181,65 @@ trait DistributionalThesaurusComputer {
    * @return
    */
   def disambiguateSense(term: String, context: Set[String]): Option[Sense] = {
-    val senses = getSenses(term).toArray
-    if (senses.isEmpty) None
-    else if (senses.size == 1) Some(senses(0))
-    else {
-      val expansion = rerankedExpansion(term, context)
-      val senseScores = mutable.Map.empty[String, Int].withDefaultValue(0)
-      val clusterSets = senses.map(_.getSenses.toSet)
-      val alpha = 1
-      var currentRankScore = 0
-      for (expansionTerm <- expansion) {
-        for (i <- 0 until senses.size) {
-          if (clusterSets(i).contains(expansionTerm._1)) senseScores(senses(i).getCui) = senseScores(senses(i)
-            .getCui) + currentRankScore
-        }
-        currentRankScore -= alpha
-      }
+    senseIndex(term).disambiguate(rerankedExpansion(term, context))
+  }
+}
+
+object DistributionalThesaurusComputer {
 
-      val highestSense = senses.maxBy(sense => senseScores(sense.getCui) / sense.getSenses.size)
+  /*
+   * Features grouped by the lookups they perform, used to decide what to prefetch.
+   */
+  val PriorExpansionFeatures = Set("hasExpansion", "priorExpansion", "rerankedExpansion", "sharedPriorExpansionCount",
+    "propertiesInPriorExpansion")
+  val SenseFeatures = Set("hasIsas", "headsSharedIsas", "isIsa")
+  val AttributeSenseFeatures = Set("isPropertyIsa")
+  val TermCountFeatures = Set("rerankedExpansion")
+
+  /*
+   * Bounds of the over-fetching of similar terms when incompatible terms are removed from prior expansions: at most
+   * MaxOverFetchFactor times the expansion size is requested in the first round, plus a safety margin.
+   */
+  val MaxOverFetchFactor = 8.0
+  val OverFetchMargin = 1.1
 
-      Some(highestSense)
+  /**
+   * Fills a prior expansion with the terms of `firstPage`, the at most `pageSize` most similar terms, that
+   * `isCompatible` accepts. If the page is full but the expansion is not, the terms of `allSimilarTerms` that have not
+   * been looked at are appended. The page and the full list come from separate queries that may order terms of equal
+   * score differently, so the terms looked at are skipped by name rather than by position.
+   *
+   * @return the expansion and the number of similar terms looked at
+   */
+  def compatiblePriorExpansion(firstPage: Order2Columns, pageSize: Int, allSimilarTerms: => Order2Columns,
+                               maxSize: Int, isCompatible: String => Boolean):
+  (mutable.LinkedHashMap[String, ExpansionIndexHolder], Int) = {
+    val expansions = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
+    val seen = new mutable.HashSet[String]()
+    appendCompatible(firstPage, maxSize, isCompatible, expansions, seen)
+    // a full page means that the thesaurus may have more similar terms
+    if (expansions.size < maxSize && firstPage.size == pageSize) {
+      appendCompatible(allSimilarTerms, maxSize, isCompatible, expansions, seen)
     }
+    (expansions, seen.size)
   }
-}
 
-object DistributionalThesaurusComputer {
+  /**
+   * Appends the similar terms that are accepted by `isCompatible` and not in `seen` to the expansion until it holds
+   * `maxSize` terms, ranking them after the terms it holds. Every term looked at is added to `seen`.
+   */
+  def appendCompatible(similarTerms: Order2Columns, maxSize: Int, isCompatible: String => Boolean,
+                       expansions: mutable.LinkedHashMap[String, ExpansionIndexHolder],
+                       seen: mutable.Set[String]) {
+    var i = 0
+    while (i < similarTerms.size && expansions.size < maxSize) {
+      val expansionTerm = similarTerms.getKey(i)
+      if (seen.add(expansionTerm) && isCompatible(expansionTerm)) {
+        expansions(expansionTerm) = ExpansionIndexHolder(expansions.size, similarTerms.getScore(i))
+      }
+      i += 1
+    }
+  }
 
   /**
    * Explains the result of [[DistributionalThesaurusComputer.incompatibleAttributes]].
@@ -1,9 +1,11 @@
 package org.jobimtext.coref.berkeley;
 
 import org.jobimtext.api.db.DatabaseResource;
+import org.jobimtext.api.metrics.QueryMetrics;
 import org.jobimtext.api.struct.IThesaurusDatastructure;
 import org.jobimtext.api.struct.Order1;
 import org.jobimtext.api.struct.Order2;
+import org.jobimtext.api.struct.Order2Columns;
 import org.jobimtext.api.struct.Sense;
 
 import java.util.*;
@@ -14,6 +16,7 @@ import java.util.*;
  * @author Tim Feuerbach
  */
 public class DummyDatabaseThesaurusDatastructure extends DatabaseResource implements IThesaurusDatastructure<String, String> {
+    private QueryMetrics queryMetrics = null;
 
     @Override
     public boolean connect() {
@@ -25,6 +28,19 @@ public class DummyDatabaseThesaurusDatastructure extends DatabaseResource implem
         // do nothing
     }
 
+    /**
+     * Lookups are not measured, the metrics are only kept.
+     */
+    @Override
+    public void setQueryMetrics(QueryMetrics metrics) {
+        this.queryMetrics = metrics;
+    }
+
+    @Override
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
     /**
      * Returns 1000 if both terms are identical, 0 otherwise.
      */
@@ -45,6 +61,30 @@ public class DummyDatabaseThesaurusDatastructure extends DatabaseResource implem
         return Collections.singletonList(new Order2(key, 1.0));
     }
 
+    /**
+     * Returns columns containing only the key itself.
+     */
+    @Override
+    public Order2Columns getSimilarTermsColumns(String key) {
+        Order2Columns columns = new Order2Columns(1);
+        columns.add(key, 1.0);
+        return columns;
+    }
+
+    /**
+     * Returns columns containing only the key itself.
+     *
+     * @param numberOfEntries if <= 0, the columns will be empty
+     */
+    @Override
+    public Order2Columns getSimilarTermsColumns(String key, int numberOfEntries) {
+        Order2Columns columns = new Order2Columns(1);
+        if (numberOfEntries > 0) {
+            columns.add(key, 1.0);
+        }
+        return columns;
+    }
+
     /**
      * Returns a list containing only the key itself.
      *
@@ -146,6 +186,30 @@ public class DummyDatabaseThesaurusDatastructure extends DatabaseResource implem
         return Collections.emptyList();
     }
 
+    /**
+     * Returns empty columns.
+     */
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature) {
+        return new Order2Columns(1);
+    }
+
+    /**
+     * Returns empty columns.
+     */
+    @Override
+    public Order2Columns getContextTermsScoresColumns(String feature, int numberOfEntries) {
+        return new Order2Columns(1);
+    }
+
+    /**
+     * Returns true, empty lists are sorted.
+     */
+    @Override
+    public boolean hasSortedContextTermsScores() {
+        return true;
+    }
+
     /**
      * Returns an empty list.
      */
@@ -193,4 +257,52 @@ public class DummyDatabaseThesaurusDatastructure extends DatabaseResource implem
     public List<Sense> getSenseCUIs(String key) {
         return Collections.emptyList();
     }
+
+    /**
+     * Maps every key to a list containing only the key itself.
+     */
+    @Override
+    public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys) {
+        Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+        for (String key : keys) {
+            result.put(key, getSimilarTerms(key));
+        }
+        return result;
+    }
+
+    /**
+     * Maps every key to a list containing only the key itself.
+     */
+    @Override
+    public Map<String, List<Order2>> getSimilarTermsBatch(Collection<String> keys, int numberOfEntries) {
+        Map<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+        for (String key : keys) {
+            result.put(key, getSimilarTerms(key, numberOfEntries));
+        }
+        return result;
+    }
+
+    /**
+     * Maps every key to 1.
+     */
+    @Override
+    public Map<String, Long> getTermCountBatch(Collection<String> keys) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String key : keys) {
+            result.put(key, 1L);
+        }
+        return result;
+    }
+
+    /**
+     * Maps every key to an empty list.
+     */
+    @Override
+    public Map<String, List<Sense>> getSensesBatch(Collection<String> keys) {
+        Map<String, List<Sense>> result = new HashMap<String, List<Sense>>();
+        for (String key : keys) {
+            result.put(key, Collections.<Sense>emptyList());
+        }
+        return result;
+    }
 }
@@ -0,0 +1,81 @@
+package org.jobimtext.coref.berkeley
+
+import scala.collection.mutable
+
+/**
+ * An expansion over the numbers of a [[TermDictionary]]: the numbers of its terms in increasing order and, in a
+ * parallel array, the rank each term has in the expansion. Looking up the rank of a term is a binary search on
+ * integers, and counting the terms two expansions share is a single merge of their arrays.
+ *
+ * @param ids numbers of the expansion terms, sorted
+ * @param ranks rank of each term, see [[ExpansionIndexHolder.index]]
+ */
+final class IndexedExpansion private(private val ids: Array[Int], private val ranks: Array[Int]) {
+  def size: Int = ids.length
+
+  def isEmpty: Boolean = ids.length == 0
+
+  /**
+   * Returns the rank of the term with the given number, or -1 if it is not part of the expansion.
+   */
+  def rankOf(id: Int): Int = {
+    if (id <= 0) return -1
+    val i = java.util.Arrays.binarySearch(ids, id)
+    if (i >= 0) ranks(i) else -1
+  }
+
+  /**
+   * Returns the number of terms contained in both expansions, which must use the same dictionary.
+   */
+  def sharedCount(other: IndexedExpansion): Int = {
+    val a = ids
+    val b = other.ids
+    var i = 0
+    var j = 0
+    var shared = 0
+    while (i < a.length && j < b.length) {
+      if (a(i) < b(j)) i += 1
+      else if (a(i) > b(j)) j += 1
+      else {
+        shared += 1
+        i += 1
+        j += 1
+      }
+    }
+    shared
+  }
+
+  /**
+   * Estimated size in bytes.
+   */
+  def bytes: Long = 16L + 2 * (16L + 4L * ids.length)
+}
+
+object IndexedExpansion {
+  val Empty = new IndexedExpansion(new Array[Int](0), new Array[Int](0))
+
+  /**
+   * Numbers the terms of the expansion with the dictionary, assigning numbers to new terms.
+   */
+  def apply(expansion: mutable.LinkedHashMap[String, ExpansionIndexHolder], dictionary: TermDictionary):
+  IndexedExpansion = {
+    if (expansion.isEmpty) return Empty
+
+    // sort (id, rank) pairs packed into longs by id
+    val packed = new Array[Long](expansion.size)
+    var n = 0
+    for ((term, holder) <- expansion if term != null) {
+      packed(n) = (dictionary.id(term).toLong << 32) | (holder.index & 0xffffffffL)
+      n += 1
+    }
+    java.util.Arrays.sort(packed, 0, n)
+
+    val ids = new Array[Int](n)
+    val ranks = new Array[Int](n)
+    for (i <- 0 until n) {
+      ids(i) = (packed(i) >>> 32).toInt
+      ranks(i) = packed(i).toInt
+    }
+    new IndexedExpansion(ids, ranks)
+  }
+}
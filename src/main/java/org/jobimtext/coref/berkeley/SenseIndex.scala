@@ -0,0 +1,203 @@
+package org.jobimtext.coref.berkeley
+
+import org.jobimtext.api.struct.Sense
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+/**
+ * The sense clusters of a term, prepared once for the IS-A features and sense disambiguation. The canonical IS-As of
+ * each sense are kept as sorted numbers of a [[TermDictionary]], so that comparing the IS-As of two terms merges
+ * integer arrays, and every cluster term is mapped to the senses containing it, so that disambiguation is a single
+ * pass over an expansion.
+ *
+ * @param senses the senses in the order returned by the thesaurus
+ */
+final class SenseIndex private(val senses: Array[Sense],
+                               // canonical IS-As of each sense without duplicates, in thesaurus order, with their numbers
+                               private val isaLabels: Array[Array[String]],
+                               private val isaIds: Array[Array[Int]],
+                               // the numbers of each sense's IS-As sorted, and of the IS-As of all senses
+                               private val sortedIsaIds: Array[Array[Int]],
+                               allIsaIds: Array[Int],
+                               // senses containing a cluster term, by index
+                               memberships: java.util.HashMap[String, Array[Int]],
+                               // senses with the same id share their credit in disambiguation
+                               cuiGroups: Array[Int],
+                               groupCount: Int,
+                               clusterSizes: Array[Int]) {
+  import SenseIndex._
+
+  def size: Int = senses.length
+
+  def isEmpty: Boolean = senses.length == 0
+
+  def nonEmpty: Boolean = senses.length > 0
+
+  /**
+   * Whether any sense has an IS-A.
+   */
+  def hasIsas: Boolean = allIsaIds.length > 0
+
+  /**
+   * Whether any sense has the IS-A with the given number.
+   */
+  def containsIsa(id: Int): Boolean = id > 0 && java.util.Arrays.binarySearch(allIsaIds, id) >= 0
+
+  /**
+   * The canonical IS-As of each sense, see [[DistributionalThesaurusComputer.isaSets]].
+   */
+  def isaSets: IndexedSeq[mutable.LinkedHashSet[String]] =
+    isaLabels.map(labels => mutable.LinkedHashSet(labels: _*)).toIndexedSeq
+
+  /**
+   * Returns the highest Dice index of the IS-A sets of a sense of this term and a sense of the other term, together
+   * with the IS-As the best pair shares in the order of this term's sense. The first pair wins among equally good
+   * ones. [[None]] if either term has no senses.
+   */
+  def sharedIsas(other: SenseIndex): Option[(Double, Seq[String])] = {
+    if (isEmpty || other.isEmpty) return None
+
+    var bestValue = 0.0
+    var bestA = -1
+    var bestB = -1
+    var a = 0
+    while (a < sortedIsaIds.length) {
+      var b = 0
+      while (b < other.sortedIsaIds.length) {
+        val shared = intersectionSize(sortedIsaIds(a), other.sortedIsaIds(b))
+        val simMeasure = (2.0 * shared) / (sortedIsaIds(a).length + other.sortedIsaIds(b).length).toDouble
+        if (simMeasure > bestValue) {
+          bestValue = simMeasure
+          bestA = a
+          bestB = b
+        }
+        b += 1
+      }
+      a += 1
+    }
+
+    if (bestA < 0) Some((bestValue, Seq.empty[String]))
+    else {
+      val shared = mutable.ArrayBuffer.empty[String]
+      for (k <- 0 until isaIds(bestA).length) {
+        if (java.util.Arrays.binarySearch(other.sortedIsaIds(bestB), isaIds(bestA)(k)) >= 0) shared += isaLabels(bestA)(k)
+      }
+      Some((bestValue, shared))
+    }
+  }
+
+  /**
+   * Chooses the sense whose cluster best covers the expansion: every expansion term credits the senses containing it
+   * with minus its rank, the credit of a sense id is divided by the cluster size (in integers), and the first sense
+   * with the highest value is returned. The expansion is only evaluated if there are several senses.
+   *
+   * @param expansion a context-sensitive expansion of the term
+   *
+   * @return the chosen sense, [[None]] if there are no senses
+   */
+  def disambiguate(expansion: => mutable.LinkedHashMap[String, ExpansionIndexHolder]): Option[Sense] = {
+    if (senses.length == 0) None
+    else if (senses.length == 1) Some(senses(0))
+    else {
+      val credits = new Array[Int](groupCount)
+      var rankCredit = 0
+      val terms = expansion.keysIterator
+      while (terms.hasNext) {
+        val containing = memberships.get(terms.next())
+        if (containing != null) {
+          var i = 0
+          while (i < containing.length) {
+            credits(cuiGroups(containing(i))) += rankCredit
+            i += 1
+          }
+        }
+        rankCredit -= Alpha
+      }
+
+      var best = 0
+      for (i <- 1 until senses.length) {
+        if (credits(cuiGroups(i)) / clusterSizes(i) > credits(cuiGroups(best)) / clusterSizes(best)) best = i
+      }
+      Some(senses(best))
+    }
+  }
+
+  /**
+   * Estimated size in bytes, in addition to the senses themselves.
+   */
+  def bytes: Long = {
+    var bytes = 64L + 16L * 4 * senses.length + 4L * allIsaIds.length
+    for (ids <- isaIds) bytes += 3 * 4L * ids.length
+    bytes + memberships.size * (ThesaurusCache.MapEntryBytes + 24L)
+  }
+}
+
+object SenseIndex {
+  /**
+   * Credit lost per rank in [[SenseIndex.disambiguate]].
+   */
+  val Alpha = 1
+
+  /**
+   * Prepares the senses of a term.
+   *
+   * @param senses the senses as returned by the thesaurus
+   * @param canonicalizeIsa maps an IS-A label to its canonical form
+   * @param dictionary numbers the canonical IS-As, assigning numbers to new ones
+   */
+  def apply(senses: Array[Sense], canonicalizeIsa: String => String, dictionary: TermDictionary): SenseIndex = {
+    val isaLabels = new Array[Array[String]](senses.length)
+    val isaIds = new Array[Array[Int]](senses.length)
+    val sortedIsaIds = new Array[Array[Int]](senses.length)
+    val allIsaIds = mutable.SortedSet.empty[Int]
+    val memberships = new java.util.HashMap[String, Array[Int]]()
+    val cuiGroups = new Array[Int](senses.length)
+    val groups = new java.util.HashMap[String, Integer]()
+    val clusterSizes = new Array[Int](senses.length)
+
+    for (i <- 0 until senses.length) {
+      val sense = senses(i)
+      val isas: Seq[String] = if (sense.getIsas == null) Seq.empty else sense.getIsas
+      isaLabels(i) = isas.map(canonicalizeIsa).distinct.toArray
+      isaIds(i) = isaLabels(i).map(dictionary.id)
+      sortedIsaIds(i) = isaIds(i).sorted
+      allIsaIds ++= isaIds(i)
+
+      val cluster: Seq[String] = if (sense.getSenses == null) Seq.empty else sense.getSenses
+      for (term <- cluster.distinct) {
+        val containing = memberships.get(term)
+        memberships.put(term, if (containing == null) Array(i) else containing :+ i)
+      }
+      // an empty cluster can't be credited, dividing by 1 keeps its value at 0
+      clusterSizes(i) = math.max(1, cluster.size)
+
+      val group = groups.get(sense.getCui)
+      if (group == null) {
+        cuiGroups(i) = groups.size
+        groups.put(sense.getCui, cuiGroups(i))
+      } else {
+        cuiGroups(i) = group.intValue
+      }
+    }
+
+    new SenseIndex(senses, isaLabels, isaIds, sortedIsaIds, allIsaIds.toArray, memberships, cuiGroups, groups.size,
+      clusterSizes)
+  }
+
+  private def intersectionSize(a: Array[Int], b: Array[Int]): Int = {
+    var i = 0
+    var j = 0
+    var shared = 0
+    while (i < a.length && j < b.length) {
+      if (a(i) < b(j)) i += 1
+      else if (a(i) > b(j)) j += 1
+      else {
+        shared += 1
+        i += 1
+        j += 1
+      }
+    }
+    shared
+  }
+}
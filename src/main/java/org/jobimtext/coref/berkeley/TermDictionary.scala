@@ -0,0 +1,59 @@
+package org.jobimtext.coref.berkeley
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+/**
+ * Numbers strings in the order they are first seen, starting at 1, so that data structures built from them can
+ * compare integers instead of strings. Numbers are only comparable between users of the same dictionary. May be used
+ * by several threads at once.
+ *
+ * The dictionary grows with every new string, so it is cleared together with the cached values built from its
+ * numbers. Numbers are never given out again after clearing: a value left over from before can't match a new string
+ * by accident, it just no longer matches anything.
+ */
+class TermDictionary {
+  private val ids = new ConcurrentHashMap[String, Integer]()
+  private val nextId = new AtomicInteger()
+  private val chars = new AtomicLong()
+
+  /**
+   * Returns the number of the string, assigning the next free one if it has none yet.
+   */
+  def id(term: String): Int = {
+    val id = ids.get(term)
+    if (id != null) return id.intValue
+
+    val newId = Integer.valueOf(nextId.incrementAndGet())
+    val previous = ids.putIfAbsent(term, newId)
+    if (previous != null) return previous.intValue
+    chars.addAndGet(term.length)
+    newId.intValue
+  }
+
+  /**
+   * Returns the number of the string, or 0 if it has none, without assigning one.
+   */
+  def get(term: String): Int = {
+    val id = if (term == null) null else ids.get(term)
+    if (id == null) 0 else id.intValue
+  }
+
+  /**
+   * Number of distinct strings seen.
+   */
+  def size: Int = ids.size
+
+  /**
+   * Estimated number of bytes held by the dictionary, see [[ThesaurusCache]] for the sizes assumed.
+   */
+  def bytes: Long = size * (ThesaurusCache.NumberEntryBytes + ThesaurusCache.stringBytes("")) + 2L * chars.get
+
+  /**
+   * Forgets all strings. Must not be called while another thread assigns numbers.
+   */
+  def clear(): Unit = {
+    ids.clear()
+    chars.set(0)
+  }
+}
@@ -3,7 +3,7 @@ package org.jobimtext.coref.berkeley
 import edu.berkeley.nlp.futile.util.Logger
 
 import scala.collection.mutable
-import org.jobimtext.api.struct.Sense
+import org.jobimtext.api.struct.{Order2Columns, Sense}
 
 /**
  * Structure to cache various expansions obtained from a distributional thesaurus. Each thesaurus must have its own
@@ -17,31 +17,77 @@ import org.jobimtext.api.struct.Sense
  *   }
  * }}}
  *
- * It is recommended to empty the cache by calling `clearCache()` on a regular basis, for example after each
- * document processed.
+ * Without a memory budget, the caches are unbounded and should be emptied on a regular basis by calling
+ * `documentFinished()` after each document. With a memory budget, entries are kept across documents in
+ * [[SegmentedLruCacheStore segmented LRU stores]] that together hold at most about `memoryBudget` bytes, and
+ * `documentFinished()` keeps them.
+ *
+ * The cache may be shared by threads featurizing different documents. Concurrent requests of a missing entry wait
+ * for a single computation of it; see [[CacheStore]].
+ *
+ * If a [[ThesaurusDiskCache disk cache]] is attached, it is consulted before the fallback of prior expansions, sense
+ * clusters and term counts, and it stores the scored terms of single context features, which are not kept in memory.
  *
  * @param enabled If false, the `fallback` of a cache method will always be called without caching the result.
+ * @param memoryBudget estimated number of bytes the cache may use across documents, 0 to cache per document only
  *
  * @author Tim Feuerbach
  */
-class ThesaurusCache(enabled: Boolean = true) {
+class ThesaurusCache(val enabled: Boolean = true, val memoryBudget: Long = 0) {
+  import ThesaurusCache._
+
   type Term = String
   type DocumentId = String
 
-  protected var _priorTermExpansionCache = scala.collection.mutable.Map.empty[Term,
-    scala.collection.mutable.LinkedHashMap[String, ExpansionIndexHolder]]
-  protected var _rerankedExpansionCache = scala.collection.mutable.Map.empty[(Term, Set[String]),
-    scala.collection.mutable.LinkedHashMap[Term, ExpansionIndexHolder]]
-  protected var _sensesExpansionCache = mutable.Map.empty[Term, Array[Sense]]
-  protected var _contextExpansionCache = mutable.Map.empty[Set[String], mutable.LinkedHashMap[String,
-    ExpansionIndexHolder]]
+  /**
+   * Whether cached entries survive the end of a document.
+   */
+  val persistent = enabled && memoryBudget > 0
+
+  /**
+   * Second cache level shared across runs, if any.
+   */
+  @volatile var diskCache: Option[ThesaurusDiskCache] = None
+
+  /*
+   * Numbers of the terms of prior expansions, of the canonical IS-A labels and of the context features that cached
+   * values and keys are built from. They count towards the memory budget and are cleared together with the stores.
+   */
+  val termIds = new TermDictionary
+  val isaIds = new TermDictionary
+  val contextKeys = new ContextKeyFactory
+
+  protected val _priorTermExpansionCache = newStore[Term, mutable.LinkedHashMap[String, ExpansionIndexHolder]](
+    "priorTermExpansion", PriorExpansionShare, (term, expansion) => stringBytes(term) + expansionBytes(expansion))
+  protected val _indexedPriorExpansionCache = newStore[Term, IndexedExpansion]("indexedPriorExpansion",
+    IndexedPriorExpansionShare, (term, expansion) => stringBytes(term) + expansion.bytes)
+  protected val _rerankedExpansionCache = newStore[(Term, ContextKey), mutable.LinkedHashMap[Term,
+    ExpansionIndexHolder]]("rerankedExpansion", RerankedExpansionShare, (key, expansion) => TupleBytes + stringBytes(key._1) +
+    contextKeyBytes(key._2) + expansionBytes(expansion))
+  protected val _termContextScoresCache = newStore[(Term, String), java.util.Map[String, java.lang.Double]](
+    "termContextScores", TermContextScoresShare, (key, scores) => TupleBytes + stringBytes(key._1) +
+    stringBytes(key._2) + scoreMapBytes(scores))
+  protected val _sensesExpansionCache = newStore[Term, Array[Sense]]("senses", SensesShare,
+    (term, senses) => stringBytes(term) + sensesBytes(senses))
+  protected val _senseIndexCache = newStore[Term, SenseIndex]("senseIndex", SenseIndexShare,
+    (term, index) => stringBytes(term) + index.bytes)
+  protected val _contextExpansionCache = newStore[ContextKey, mutable.LinkedHashMap[String, ExpansionIndexHolder]](
+    "contextExpansion", ContextExpansionShare, (context, expansion) => contextKeyBytes(context) + expansionBytes(expansion))
 
   /*
   Non-expansions
    */
-  protected var _termCountLogCache = mutable.Map.empty[String, Double]
+  protected val _termCountLogCache = newStore[String, Double]("termCountLog", TermCountLogShare,
+    (feature, _) => stringBytes(feature) + NumberEntryBytes)
+  protected val _termCountCache = newStore[Term, Long]("termCount", TermCountShare,
+    (term, _) => stringBytes(term) + NumberEntryBytes)
 
-  protected def cacheElement[T, K](key: K, cache: mutable.Map[K, T])(fallback: => T): T = {
+  private def newStore[K, V](name: String, share: Double, weigh: (K, V) => Long): CacheStore[K, V] = {
+    if (persistent) new SegmentedLruCacheStore[K, V](name, (memoryBudget * share).toLong, weigh)
+    else new UnboundedCacheStore[K, V](name, weigh)
+  }
+
+  protected def cacheElement[T, K](key: K, cache: CacheStore[K, T])(fallback: => T): T = {
     if (!enabled) {
       fallback
     } else {
@@ -60,7 +106,22 @@ class ThesaurusCache(enabled: Boolean = true) {
    */
   def priorTermExpansionCache(term: String)(fallback: => scala.collection.mutable.LinkedHashMap[String,
     ExpansionIndexHolder]) = {
-    cacheElement(term, _priorTermExpansionCache)(fallback)
+    cacheElement(term, _priorTermExpansionCache) {
+      if (diskCache.isDefined) diskCache.get.priorExpansion(term)(fallback) else fallback
+    }
+  }
+
+  /**
+   * Returns the cached prior expansion of a term over term numbers. If it is not in the cache, it will be computed
+   * from the fallback and stored in the cache.
+   *
+   * @param term the expanded term
+   * @param fallback numbering of the prior expansion, used if the element is not in the cache
+   *
+   * @return cached numbered prior expansion or the result of the fallback
+   */
+  def indexedPriorExpansionCache(term: String)(fallback: => IndexedExpansion): IndexedExpansion = {
+    cacheElement(term, _indexedPriorExpansionCache)(fallback)
   }
 
   /**
@@ -73,12 +134,28 @@ class ThesaurusCache(enabled: Boolean = true) {
    *
    * @return cached term's re-ranked expansion or the result of the fallback
    */
-  def rerankedExpansionCache(term: String, context: Set[String])(fallback: => scala.collection.mutable
+  def rerankedExpansionCache(term: String, context: ContextKey)(fallback: => scala.collection.mutable
   .LinkedHashMap[String,
     ExpansionIndexHolder]) = {
     cacheElement((term, context), _rerankedExpansionCache)(fallback)
   }
 
+  /**
+   * Returns the cached scores of the terms of a prior expansion in a single context feature, as used to re-rank the
+   * expansion. Caching them per feature allows to re-rank the expansion for another set of features by looking up
+   * only the features not seen before.
+   *
+   * @param term the expanded term
+   * @param feature the context feature
+   * @param fallback lookup of the scores, used if the element is not in the cache
+   *
+   * @return cached scores by expansion term or the result of the fallback
+   */
+  def termContextScoresCache(term: String, feature: String)(fallback: => java.util.Map[String, java.lang.Double]):
+  java.util.Map[String, java.lang.Double] = {
+    cacheElement((term, feature), _termContextScoresCache)(fallback)
+  }
+
   /**
    * Returns a the term's cached set of sense clusters. If the elements are not members of the cache, they will be
    * computed from the fallback and stored in the cache.
@@ -89,7 +166,22 @@ class ThesaurusCache(enabled: Boolean = true) {
    * @return cached sense clusters of the term or the result of the fallback
    */
   def sensesCache(term: String)(fallback: => Array[Sense]) = {
-    cacheElement(term, _sensesExpansionCache)(fallback)
+    cacheElement(term, _sensesExpansionCache) {
+      if (diskCache.isDefined) diskCache.get.senses(term)(fallback) else fallback
+    }
+  }
+
+  /**
+   * Returns the cached sense index of a term. If it is not in the cache, it will be computed from the fallback and
+   * stored in the cache.
+   *
+   * @param term the term whose senses are indexed
+   * @param fallback indexing of the term's senses, used if the element is not in the cache
+   *
+   * @return cached sense index or the result of the fallback
+   */
+  def senseIndexCache(term: String)(fallback: => SenseIndex): SenseIndex = {
+    cacheElement(term, _senseIndexCache)(fallback)
   }
 
   /**
@@ -101,7 +193,7 @@ class ThesaurusCache(enabled: Boolean = true) {
    *
    * @return cached context expansion or the result of the fallback
    */
-  def contextExpansionCache(context: Set[String])(fallback: => mutable.LinkedHashMap[String,
+  def contextExpansionCache(context: ContextKey)(fallback: => mutable.LinkedHashMap[String,
     ExpansionIndexHolder]): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
     cacheElement(context, _contextExpansionCache)(fallback)
   }
@@ -120,20 +212,156 @@ class ThesaurusCache(enabled: Boolean = true) {
   }
 
   /**
-   * Clears the cache. Should be called on a regular basis to save memory.
+   * Returns the cached count of a single term as stored in the thesaurus. If the value is not in the cache, it will be
+   * computed from the fallback and stored in the cache.
+   *
+   * @param term the term
+   * @param fallback calculation of the term count
+   *
+   * @return cached count or the result of the fallback
    */
-  def clearCache(): Unit = {
-    _priorTermExpansionCache = scala.collection.mutable.Map.empty[Term,
-      scala.collection.mutable.LinkedHashMap[String, ExpansionIndexHolder]]
-    _sensesExpansionCache = mutable.Map.empty[Term, Array[Sense]]
-    _contextExpansionCache = mutable.Map.empty[Set[String], mutable.LinkedHashMap[String, ExpansionIndexHolder]]
-    _rerankedExpansionCache = scala.collection.mutable.Map.empty[(Term, Set[String]),
-      scala.collection.mutable.LinkedHashMap[Term, ExpansionIndexHolder]]
+  def termCountCache(term: String)(fallback: => Long): Long = {
+    cacheElement(term, _termCountCache) {
+      if (diskCache.isDefined) diskCache.get.termCount(term)(fallback) else fallback
+    }
+  }
 
-    _termCountLogCache = mutable.Map.empty[String, Double]
+  /**
+   * Returns the scored terms of a single context feature from the disk cache. Without a disk cache, the fallback is
+   * returned, as the lists are only needed to compute context expansions, which are cached themselves.
+   *
+   * @param feature the context feature
+   * @param fallback lookup of the scored terms
+   *
+   * @return stored scored terms or the result of the fallback
+   */
+  def contextTermsCache(feature: String)(fallback: => Order2Columns): Order2Columns = {
+    if (enabled && diskCache.isDefined) diskCache.get.contextTerms(feature)(fallback) else fallback
+  }
+
+  /**
+   * Like `contextTermsCache(feature)`, for the first `depth` terms of the feature's list sorted by significance.
+   */
+  def contextTermsCache(feature: String, depth: Int)(fallback: => Order2Columns): Order2Columns = {
+    if (enabled && diskCache.isDefined) diskCache.get.contextTerms(feature + '\t' + depth)(fallback) else fallback
+  }
+
+  /*
+  Membership tests, used to skip keys that are already present when prefetching
+   */
+  def isPriorTermExpansionCached(term: String) = enabled && (_priorTermExpansionCache.contains(term) ||
+    diskCache.exists(_.containsPriorExpansion(term)))
+
+  def isSensesCached(term: String) = enabled && (_sensesExpansionCache.contains(term) ||
+    diskCache.exists(_.containsSenses(term)))
+
+  def isTermCountCached(term: String) = enabled && (_termCountCache.contains(term) ||
+    diskCache.exists(_.containsTermCount(term)))
+
+  /**
+   * Should be called after each document. Empties the cache unless it persists across documents, and writes the new
+   * entries of the disk cache. A persistent cache is emptied as well once the dictionaries outgrow their share of the
+   * memory budget, as they can only be cleared together with the values built from their numbers.
+   */
+  def documentFinished(): Unit = {
+    if (!persistent) {
+      stores.foreach(store => store.statistics.observe(store.size, store.bytes))
+      clearCache()
+    } else if (dictionaryBytes > memoryBudget * DictionaryShare) {
+      Logger.logs("Clearing thesaurus cache, its dictionaries hold " + dictionaryBytes + " bytes")
+      clearCache()
+    }
+    diskCache.foreach(_.flush())
+  }
+
+  /**
+   * Estimated number of bytes held by the cache, including the dictionaries.
+   */
+  def bytes: Long = stores.map(_.bytes).sum + dictionaryBytes
+
+  /**
+   * Estimated number of bytes held by the dictionaries.
+   */
+  def dictionaryBytes: Long = termIds.bytes + isaIds.bytes + contextKeys.bytes
+
+  /**
+   * The in-memory stores of this cache, e.g. to query their statistics.
+   */
+  def stores: Seq[CacheStore[_, _]] = Seq(_priorTermExpansionCache, _indexedPriorExpansionCache, _rerankedExpansionCache,
+    _termContextScoresCache, _sensesExpansionCache, _senseIndexCache, _contextExpansionCache, _termCountLogCache, _termCountCache)
+
+  /**
+   * Clears the cache and its dictionaries. The disk cache is kept.
+   */
+  def clearCache(): Unit = {
+    stores.foreach(_.clear())
+    termIds.clear()
+    isaIds.clear()
+    contextKeys.clear()
 
     //Logger.logs("Cache cleared")
   }
 }
 
+object ThesaurusCache {
+  /*
+   * Shares of the memory budget per kind of cached value. Prior and re-ranked expansions are the largest and most
+   * frequently reused values.
+   */
+  val PriorExpansionShare = 0.2
+  val IndexedPriorExpansionShare = 0.05
+  val RerankedExpansionShare = 0.2
+  val TermContextScoresShare = 0.1
+  val ContextExpansionShare = 0.2
+  val SensesShare = 0.07
+  val SenseIndexShare = 0.03
+  val TermCountLogShare = 0.05
+  val TermCountShare = 0.05
+  val DictionaryShare = 0.05
+
+  /*
+   * Rough sizes on a 64 bit JVM with compressed references: a map entry including hash table slot and links, a
+   * boxed number, a tuple.
+   */
+  val MapEntryBytes = 48L
+  val NumberEntryBytes = MapEntryBytes + 24L
+  val TupleBytes = 24L
+
+  def stringBytes(s: String): Long = if (s == null) 0 else 40L + 2L * s.length
+
+  def expansionBytes(expansion: mutable.LinkedHashMap[String, ExpansionIndexHolder]): Long = {
+    // entry, ExpansionIndexHolder and term of every element
+    var bytes = 64L
+    for (term <- expansion.keysIterator) bytes += MapEntryBytes + 24L + stringBytes(term)
+    bytes
+  }
+
+  def scoreMapBytes(scores: java.util.Map[String, java.lang.Double]): Long = {
+    var bytes = 64L
+    val terms = scores.keySet().iterator()
+    while (terms.hasNext) bytes += NumberEntryBytes + stringBytes(terms.next())
+    bytes
+  }
+
+  def featureSetBytes(features: Set[String]): Long = {
+    var bytes = 32L
+    for (feature <- features) bytes += 32L + stringBytes(feature)
+    bytes
+  }
+
+  def contextKeyBytes(key: ContextKey): Long = 32L + featureSetBytes(key.features) + 16L + 4L * key.size
+
+  def sensesBytes(senses: Array[Sense]): Long = {
+    def listBytes(list: java.util.List[String]): Long = {
+      if (list == null) return 0
+      var bytes = 40L + 8L * list.size
+      for (i <- 0 until list.size) bytes += stringBytes(list.get(i))
+      bytes
+    }
+    var bytes = 16L + 8L * senses.length
+    for (sense <- senses) bytes += 32L + stringBytes(sense.getCui) + listBytes(sense.getSenses) + listBytes(sense.getIsas)
+    bytes
+  }
+}
+
 case class ExpansionIndexHolder(index: Int, score: Double)
\ No newline at end of file
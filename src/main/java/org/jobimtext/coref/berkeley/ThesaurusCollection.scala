@@ -1,5 +1,6 @@
 package org.jobimtext.coref.berkeley
 
+import edu.berkeley.nlp.coref.Mention
 import org.jobimtext.api.db.Destroyable
 
 /**
@@ -32,6 +33,18 @@ class ThesaurusCollection(val thesauri: Map[String, DistributionalThesaurusCompu
    */
   def all = thesauri.values
 
+  /**
+   * Fills the caches of all thesauri with the lookups the enabled features will perform on the given mentions. See
+   * [[DistributionalThesaurusComputer.prefetch]].
+   *
+   * @param mentions the mentions of a single document
+   */
+  def prefetch(mentions: Seq[Mention]): Unit = {
+    for ((id, thesaurus) <- thesauri) {
+      thesaurus.prefetch(mentions, featuresToUse.view.filter(_.thesaurusId == id).map(_.featureName).toSet)
+    }
+  }
+
   /**
    * Closes all connections. All thesauri of this collection become unusable afterwards.
    */
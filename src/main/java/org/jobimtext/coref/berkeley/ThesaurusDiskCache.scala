@@ -0,0 +1,378 @@
+package org.jobimtext.coref.berkeley
+
+import java.io._
+import java.nio.ByteBuffer
+import java.nio.channels.{ClosedChannelException, OverlappingFileLockException}
+
+import edu.berkeley.nlp.coref.config.CorefSystemConfiguration
+import edu.berkeley.nlp.futile.util.Logger
+import org.jobimtext.api.db.Destroyable
+import org.jobimtext.api.struct.{Order2Columns, Sense}
+
+import scala.collection.mutable
+
+/**
+ * Second cache level of a [[ThesaurusCache]], stored in a file so that later runs against the same thesaurus can
+ * reuse the lookups of earlier ones. Prior expansions, sense clusters, term counts and the scored terms of context
+ * features are appended to the file as they are computed and never rewritten.
+ *
+ * Opening the file only reads the record keys to build an index of their positions; a value is decoded when it is
+ * first requested, with a positional read that takes no lock. A record left incomplete by an aborted run is cut off,
+ * and a record that cannot be decoded is dropped and computed again. New records are collected in memory and written
+ * in blocks, and at the latest by `flush()` or `destroy()`.
+ *
+ * The file must only be shared by runs for which the cached values are the same, which is why its name contains
+ * the thesaurus identifier, a version of the thesaurus contents and a fingerprint of the settings the values depend
+ * on (see [[ThesaurusDiskCache.file]]). Concurrent runs cannot share the file: the first one takes an exclusive lock
+ * on it, and the others run without a disk cache.
+ *
+ * @param file the cache file, created if it does not exist
+ */
+class ThesaurusDiskCache(val file: File) extends Destroyable {
+  import ThesaurusDiskCache._
+
+  private val raf = new RandomAccessFile(file, "rw")
+  private val channel = raf.getChannel
+  // released when the file is closed, also by the operating system if the run is killed
+  private val lock = try {
+    channel.tryLock()
+  } catch {
+    case _: OverlappingFileLockException => null
+  }
+  // position of the start of each record, keyed by record kind and key
+  private val index = mutable.HashMap.empty[(Byte, String), Long]
+  // length of the part of the file that holds complete records, read without the lock by readRecord
+  @volatile private var fileLength = 0L
+  // records not yet written, they start at fileLength
+  private val pending = new ByteArrayOutputStream()
+  private var failed = false
+
+  /**
+   * Requests answered from the file and lookups done because of missing records.
+   */
+  val statistics = new CacheStatistics
+
+  if (lock == null) {
+    Logger.warn(s"Thesaurus disk cache $file is in use by another run, continuing without disk cache")
+    failed = true
+  } else {
+    open()
+  }
+
+  private def open(): Unit = {
+    val length = raf.length()
+    if (length < HeaderBytes || !hasValidHeader) {
+      if (length > 0) Logger.warn(s"Replacing $file, it is not a thesaurus disk cache of format version $FormatVersion")
+      raf.setLength(0)
+      raf.writeInt(Magic)
+      raf.writeInt(FormatVersion)
+      fileLength = HeaderBytes
+      return
+    }
+
+    val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))
+    try {
+      in.skipBytes(HeaderBytes)
+      var position = HeaderBytes.toLong
+      var complete = true
+      while (complete && position + 4 <= length) {
+        val recordLength = in.readInt()
+        if (recordLength <= 0 || position + 4 + recordLength > length) {
+          complete = false
+        } else {
+          val body = new Array[Byte](recordLength)
+          in.readFully(body)
+          val record = new DataInputStream(new ByteArrayInputStream(body))
+          try {
+            index((record.readByte(), readString(record))) = position
+          } catch {
+            // the record is left in the file but never read
+            case e: IOException => Logger.warn(s"Skipping a record with a corrupt key at $position of $file: $e")
+          }
+          position += 4 + recordLength
+        }
+      }
+      fileLength = position
+    } finally {
+      in.close()
+    }
+
+    if (fileLength < length) {
+      Logger.warn(s"Discarding ${length - fileLength} bytes of an incomplete record at the end of $file")
+      raf.setLength(fileLength)
+    }
+    Logger.logs(s"Opened thesaurus disk cache $file with ${index.size} entries")
+  }
+
+  private def hasValidHeader: Boolean = {
+    raf.seek(0)
+    raf.readInt() == Magic && raf.readInt() == FormatVersion
+  }
+
+  def priorExpansion(term: String)(compute: => mutable.LinkedHashMap[String, ExpansionIndexHolder]) =
+    getOrCompute(PriorExpansionRecord, term, readExpansion, writeExpansion, compute)
+
+  def senses(term: String)(compute: => Array[Sense]): Array[Sense] =
+    getOrCompute(SensesRecord, term, readSenses, writeSenses, compute)
+
+  def termCount(term: String)(compute: => Long): Long =
+    getOrCompute[Long](TermCountRecord, term, _.readLong(), _.writeLong(_), compute)
+
+  def contextTerms(feature: String)(compute: => Order2Columns): Order2Columns =
+    getOrCompute(ContextTermsRecord, feature, readColumns, writeColumns, compute)
+
+  def containsPriorExpansion(term: String): Boolean = contains(PriorExpansionRecord, term)
+
+  def containsSenses(term: String): Boolean = contains(SensesRecord, term)
+
+  def containsTermCount(term: String): Boolean = contains(TermCountRecord, term)
+
+  private def contains(kind: Byte, key: String): Boolean = synchronized(!failed && index.contains((kind, key)))
+
+  /**
+   * Number of records in the file.
+   */
+  def size: Int = synchronized(index.size)
+
+  /**
+   * Size of the file including the records not yet written.
+   */
+  def bytes: Long = synchronized(fileLength + pending.size())
+
+  def summary: String = statistics.summarize("disk", size, bytes)
+
+  private def getOrCompute[T](kind: Byte, key: String, read: DataInputStream => T,
+                              write: (DataOutputStream, T) => Unit, compute: => T): T = {
+    val position = synchronized {
+      index.get((kind, key)) match {
+        case Some(recordPosition) if !failed =>
+          // records are only read from the file, so those still in memory are written first
+          if (recordPosition >= fileLength) flush()
+          if (failed) None else Some(recordPosition)
+        case _ => None
+      }
+    }
+    val stored = position.flatMap(readRecord(kind, key, _, read))
+    if (stored.isDefined) {
+      statistics.recordHit()
+      return stored.get
+    }
+
+    val start = System.nanoTime()
+    val value = compute
+    statistics.recordMiss(System.nanoTime() - start)
+    synchronized {
+      if (!failed && !index.contains((kind, key))) append(kind, key, value, write)
+    }
+    value
+  }
+
+  // reads a record that is completely written, without moving the position of the file
+  private def readRecord[T](kind: Byte, key: String, position: Long, read: DataInputStream => T): Option[T] = {
+    try {
+      val header = ByteBuffer.allocate(4)
+      readFully(header, position)
+      val recordLength = header.getInt(0)
+      if (recordLength <= 0 || position + 4 + recordLength > fileLength) {
+        throw new IOException(s"record of $recordLength bytes at $position exceeds the file")
+      }
+      val body = ByteBuffer.allocate(recordLength)
+      readFully(body, position + 4)
+      val in = new DataInputStream(new ByteArrayInputStream(body.array))
+      if (in.readByte() != kind || readString(in) != key) throw new IOException(s"record at $position has another key")
+      Some(read(in))
+    } catch {
+      case e: ClosedChannelException => synchronized(if (!failed) fail(e)); None
+      case e: IOException => drop(kind, key, position, e); None
+      case e: RuntimeException => drop(kind, key, position, e); None
+    }
+  }
+
+  private def readFully(buffer: ByteBuffer, position: Long): Unit = {
+    while (buffer.hasRemaining) {
+      if (channel.read(buffer, position + buffer.position) < 0) throw new EOFException(s"end of $file at $position")
+    }
+  }
+
+  // a record that cannot be decoded is treated as missing, so that its value is computed and appended again
+  private def drop(kind: Byte, key: String, position: Long, e: Exception): Unit = synchronized {
+    if (index.get((kind, key)).contains(position)) {
+      Logger.warn(s"Dropping corrupt record of '$key' from thesaurus disk cache $file: $e")
+      index.remove((kind, key))
+    }
+  }
+
+  private def append[T](kind: Byte, key: String, value: T, write: (DataOutputStream, T) => Unit): Unit = {
+    val body = new ByteArrayOutputStream()
+    val out = new DataOutputStream(body)
+    out.writeByte(kind)
+    writeString(out, key)
+    write(out, value)
+
+    index((kind, key)) = fileLength + pending.size()
+    val record = new DataOutputStream(pending)
+    record.writeInt(body.size())
+    body.writeTo(record)
+    if (pending.size() >= BlockBytes) flush()
+  }
+
+  /**
+   * Writes the records collected in memory to the file.
+   */
+  def flush(): Unit = synchronized {
+    if (!failed && pending.size() > 0) {
+      try {
+        raf.seek(fileLength)
+        raf.write(pending.toByteArray)
+        fileLength += pending.size()
+        pending.reset()
+      } catch {
+        case e: IOException => fail(e)
+      }
+    }
+  }
+
+  // after an I/O error the file is left alone and all values are computed
+  private def fail(e: IOException): Unit = {
+    Logger.warn(s"Disabling thesaurus disk cache $file: $e")
+    failed = true
+    pending.reset()
+  }
+
+  override def destroy(): Unit = synchronized {
+    flush()
+    try {
+      raf.close()
+    } catch {
+      case e: IOException => Logger.warn(s"Could not close thesaurus disk cache $file: $e")
+    }
+    failed = true
+  }
+}
+
+object ThesaurusDiskCache {
+  val Magic = 0x4a425444 // "JBTD"
+  val FormatVersion = 2
+  private val HeaderBytes = 8
+  private val BlockBytes = 1 << 16
+
+  private val PriorExpansionRecord: Byte = 1
+  private val SensesRecord: Byte = 2
+  private val TermCountRecord: Byte = 3
+  private val ContextTermsRecord: Byte = 4
+
+  /**
+   * Returns the cache file of a thesaurus in the given directory. Besides the thesaurus identifier and the version of
+   * its contents, the name contains the settings that change the cached prior expansions and context-term lists, so
+   * that changing them does not reuse values computed with other settings.
+   *
+   * @param directory directory holding the cache files
+   * @param thesaurus the thesaurus, with its expansion limits set
+   * @param version version of the thesaurus contents, to be changed whenever the thesaurus data changes
+   * @param config the coreference system configuration of the thesaurus
+   */
+  def file(directory: File, thesaurus: DistributionalThesaurusComputer, version: String,
+           config: CorefSystemConfiguration): File = {
+    val compatibility = if (config.dtRemoveIncompatibleTerms) s"k${config.dtRemoveIncompatibleTermsK}" else "all"
+    val name = s"${thesaurus.identifier}-$version-p${thesaurus.maxPriorExpansionSize}-c" +
+      s"${thesaurus.maxContextTermsPerFeature}-$compatibility.cache"
+    new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_"))
+  }
+
+  private def readExpansion(in: DataInputStream): mutable.LinkedHashMap[String, ExpansionIndexHolder] = {
+    val expansion = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
+    val size = readSize(in)
+    for (i <- 0 until size) expansion(readString(in)) = ExpansionIndexHolder(in.readInt(), in.readDouble())
+    expansion
+  }
+
+  private def writeExpansion(out: DataOutputStream, expansion: mutable.LinkedHashMap[String, ExpansionIndexHolder]): Unit = {
+    out.writeInt(expansion.size)
+    for ((term, holder) <- expansion) {
+      writeString(out, term)
+      out.writeInt(holder.index)
+      out.writeDouble(holder.score)
+    }
+  }
+
+  private def readColumns(in: DataInputStream): Order2Columns = {
+    val size = readSize(in)
+    val columns = new Order2Columns(size)
+    for (i <- 0 until size) columns.add(readNullableString(in), in.readDouble())
+    columns
+  }
+
+  private def writeColumns(out: DataOutputStream, columns: Order2Columns): Unit = {
+    out.writeInt(columns.size)
+    for (i <- 0 until columns.size) {
+      writeNullableString(out, columns.getKey(i))
+      out.writeDouble(columns.getScore(i))
+    }
+  }
+
+  private def readSenses(in: DataInputStream): Array[Sense] = {
+    val senses = new Array[Sense](readSize(in))
+    for (i <- 0 until senses.length) {
+      val sense = new Sense
+      sense.setCui(readNullableString(in))
+      sense.setSenses(readList(in))
+      sense.setIsas(readList(in))
+      senses(i) = sense
+    }
+    senses
+  }
+
+  private def writeSenses(out: DataOutputStream, senses: Array[Sense]): Unit = {
+    out.writeInt(senses.length)
+    for (sense <- senses) {
+      writeNullableString(out, sense.getCui)
+      writeList(out, sense.getSenses)
+      writeList(out, sense.getIsas)
+    }
+  }
+
+  private def readList(in: DataInputStream): java.util.List[String] = {
+    val size = in.readInt()
+    if (size < 0) return null
+    val list = new java.util.ArrayList[String](checkSize(in, size))
+    for (i <- 0 until size) list.add(readNullableString(in))
+    list
+  }
+
+  private def writeList(out: DataOutputStream, list: java.util.List[String]): Unit = {
+    if (list == null) {
+      out.writeInt(-1)
+    } else {
+      out.writeInt(list.size)
+      for (i <- 0 until list.size) writeNullableString(out, list.get(i))
+    }
+  }
+
+  private def readNullableString(in: DataInputStream): String = if (in.readBoolean()) readString(in) else null
+
+  private def writeNullableString(out: DataOutputStream, s: String): Unit = {
+    out.writeBoolean(s != null)
+    if (s != null) writeString(out, s)
+  }
+
+  private def readSize(in: DataInputStream): Int = checkSize(in, in.readInt())
+
+  // records are decoded from memory, and every element takes at least one byte, so a larger size is corrupt
+  private def checkSize(in: DataInputStream, size: Int): Int = {
+    if (size < 0 || size > in.available()) throw new IOException(s"corrupt size $size")
+    size
+  }
+
+  // length-prefixed UTF-8 instead of writeUTF, which cannot write strings of more than 64 KB
+  private def readString(in: DataInputStream): String = {
+    val bytes = new Array[Byte](readSize(in))
+    in.readFully(bytes)
+    new String(bytes, "UTF-8")
+  }
+
+  private def writeString(out: DataOutputStream, s: String): Unit = {
+    val bytes = s.getBytes("UTF-8")
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+}
@@ -14,7 +14,8 @@ import edu.berkeley.nlp.coref.lang.{CorefLanguagePack, LanguagePackFactory}
 object ThesaurusFactory {
   def createThesaurus(holingSystem: String, identifier: String, cache: ThesaurusCache,
                       interface: IThesaurusDatastructure[String, String], antonymDatabase: Option[AntonymDatabase],
-                      maxPriorExpansions: Option[Int], config: CorefSystemConfiguration) = {
+                      maxPriorExpansions: Option[Int], maxContextTerms: Option[Int],
+                      config: CorefSystemConfiguration) = {
     val holingClass = Class.forName(holingSystem).asInstanceOf[Class[DistributionalThesaurusComputer]]
 
     val thesaurus = holingClass.getConstructor(classOf[String], classOf[ThesaurusCache],
@@ -23,6 +24,7 @@ object ThesaurusFactory {
 
     thesaurus.antonymDatabase = antonymDatabase
     if (maxPriorExpansions.isDefined) thesaurus.maxPriorExpansionSize = maxPriorExpansions.get
+    if (maxContextTerms.isDefined) thesaurus.maxContextTermsPerFeature = maxContextTerms.get
 
     thesaurus
   }
@@ -4,11 +4,13 @@ import java.sql.SQLException
 
 import edu.berkeley.nlp.coref.config.CorefSystemConfiguration
 import edu.berkeley.nlp.futile.util.Logger
-import org.jobimtext.api.db.{AntonymDatabase, Destroyable, DatabaseResource}
+import org.jobimtext.api.db.{AntonymDatabase, DatabaseConnectionPool, Destroyable, DatabaseResource}
 import scala.collection.mutable.ArrayBuffer
 import org.jobimtext.api.struct.{IThesaurusDatastructure, DatabaseThesaurusDatastructure}
 import org.jobimtext.api.configuration.DatabaseThesaurusConfiguration
-import java.io.{File, StringReader}
+import org.jobimtext.api.snapshot.SnapshotThesaurusDatastructure
+import org.jobimtext.api.metrics.QueryMetrics
+import java.io.{File, IOException, StringReader}
 
 import scala.xml.Node
 
@@ -54,6 +56,16 @@ object ThesaurusLoader {
     val featuresToUse = new ArrayBuffer[ThesaurusFeature]()
     val thesauri = scala.collection.mutable.Map.empty[String, DistributionalThesaurusComputer]
 
+    // thesauri stored in the same database share their connections
+    val connectionPools = scala.collection.mutable.Map.empty[(String, String, String), DatabaseConnectionPool]
+
+    // the cache memory budget is shared evenly by the thesauri
+    val cacheMemoryBudget = if ((root \ "thesaurus").isEmpty) 0L
+    else config.dtCacheMemoryBudget * 1024L * 1024L / (root \ "thesaurus").size
+    if (config.dtUseCache && cacheMemoryBudget > 0) {
+      Logger.logs(s"Caching thesaurus lookups across documents, ${cacheMemoryBudget >> 20} MB per thesaurus")
+    }
+
     for (thesaurus <- root \ "thesaurus") {
 
       val id = (thesaurus \ "@id").text
@@ -73,6 +85,16 @@ object ThesaurusLoader {
           }
         }
 
+        val maxContextTerms = {
+          val maxContextTermsString = (thesaurus \ "@maxContextTerms").text
+          try {
+            if (maxContextTermsString.nonEmpty) Some(maxContextTermsString.toInt) else None
+          } catch {
+            case e: NumberFormatException =>
+              throw new InvalidThesaurusConfigFileException(s"maxContextTerms for thesaurus $id is not an integer", e)
+          }
+        }
+
 
       // extract features to use for this thesaurus
       for (feature <- thesaurus \ "features" \ "feature") {
@@ -81,21 +103,17 @@ object ThesaurusLoader {
         featuresEnabled += 1
       }
 
-      val databaseThesaurusConfig = (thesaurus \ "databaseThesaurusConfiguration")(0)
-
-      if (!useDummyThesaurus && databaseThesaurusConfig.isEmpty) {
-        throw new IllegalArgumentException("Missing database thesaurus configuration in file " + configFile)
-      }
-
-      // load database interface
-      val configurationObject = DatabaseThesaurusConfiguration.getFromXmlDataReader(new StringReader(databaseThesaurusConfig
-        .toString()))
+      val snapshot = (thesaurus \ "snapshot").headOption.map(node => new File(node.text.trim))
 
-      if (!useDummyThesaurus && (configurationObject.getJdbcString == null || configurationObject.getDbUrl == null)) {
-        throw new IllegalArgumentException("The database configuration in " + configFile + " is missing the JDBC string and/or dbUrl. Config is " + databaseThesaurusConfig)
-      }
-
-      val interface = getDatabaseConnection(configurationObject, useDummyThesaurus)
+      val interface: DatabaseResource with IThesaurusDatastructure[String, String] =
+        if (useDummyThesaurus) {
+          new DummyDatabaseThesaurusDatastructure
+        } else if (snapshot.isDefined) {
+          Logger.logs(s"Reading thesaurus $id from snapshot ${snapshot.get}")
+          new SnapshotThesaurusDatastructure(snapshot.get)
+        } else {
+          getDatabaseInterface(thesaurus, id, configFile, connectionPools)
+        }
       val success = interface.connect()
       if (!success) {
         connectedInterfaces.foreach(_.destroy())
@@ -104,6 +122,22 @@ object ThesaurusLoader {
       }
       connectedInterfaces += interface
 
+      if (config.dtQueryMetrics.nonEmpty) interface.setQueryMetrics(createQueryMetrics(config.dtQueryMetrics))
+
+      // snapshots keep their counts in a memory-mapped array anyway
+      val preloadTermCounts = (thesaurus \ "preloadTermCounts").text.trim == "true"
+      interface match {
+        case database: DatabaseThesaurusDatastructure if preloadTermCounts =>
+          try {
+            database.preloadTermCounts()
+          } catch {
+            case e @ (_: SQLException | _: IllegalStateException) =>
+              connectedInterfaces.foreach(_.destroy())
+              throw new InvalidThesaurusConfigFileException(s"Can't preload the term counts of thesaurus $id", e)
+          }
+        case _ =>
+      }
+
       var antonymDatabase: Option[AntonymDatabase] = None
 
       if ((thesaurus \ "antonymDatabase").nonEmpty) {
@@ -112,10 +146,12 @@ object ThesaurusLoader {
         val dbUser = getTextOfDescendant(node, "dbUser")
         val dbPassword = getTextOfDescendant(node, "dbPassword")
         val driver = getTextOfDescendant(node, "jdbcString")
+        val preload = getTextOfDescendant(node, "preload", required = false).trim == "true"
 
         antonymDatabase = Some(new AntonymDatabase)
         try {
           antonymDatabase.get.connect(dbUrl, dbUser, dbPassword, driver)
+          if (preload) antonymDatabase.get.preload()
         } catch {
           case e @ (_ : ClassCastException | _ : SQLException) =>
             connectedInterfaces.foreach(_.destroy())
@@ -125,14 +161,35 @@ object ThesaurusLoader {
       }
 
       // load thesaurus specific to holing system used
-      try {
-        thesauri += (id -> ThesaurusFactory.createThesaurus(holingSystem, id, new ThesaurusCache(config.dtUseCache), interface, antonymDatabase, maxExpansions, config))
+      val cache = new ThesaurusCache(config.dtUseCache, cacheMemoryBudget)
+      val computer = try {
+        ThesaurusFactory.createThesaurus(holingSystem, id, cache, interface, antonymDatabase, maxExpansions, maxContextTerms, config)
       } catch {
         case e: IllegalArgumentException =>
           connectedInterfaces.foreach(_.destroy())
           throw new InvalidThesaurusConfigFileException("Thesaurus configuration " +
             s"failure for $id due to unknown holing system $holingSystem", e)
       }
+      computer.termCountsInMemory = preloadTermCounts && !useDummyThesaurus
+      thesauri += (id -> computer)
+
+      // the file name depends on the expansion limits, so the disk cache is opened once they are set
+      if (config.dtUseCache && !useDummyThesaurus && (thesaurus \ "diskCache").nonEmpty) {
+        val node = (thesaurus \ "diskCache")(0)
+        val directory = new File(node.text.trim)
+        val version = (node \ "@version").text
+        try {
+          if (!directory.isDirectory && !directory.mkdirs()) throw new IOException(s"Can't create directory $directory")
+          val diskCache = new ThesaurusDiskCache(ThesaurusDiskCache.file(directory, computer,
+            if (version.isEmpty) "1" else version, config))
+          cache.diskCache = Some(diskCache)
+          connectedInterfaces += diskCache
+        } catch {
+          case e: IOException =>
+            connectedInterfaces.foreach(_.destroy())
+            throw new InvalidThesaurusConfigFileException(s"Can't open the disk cache of thesaurus $id", e)
+        }
+      }
 
       thesauriLoaded += 1
     }
@@ -142,6 +199,52 @@ object ThesaurusLoader {
     Some(new ThesaurusCollection(thesauri.toMap, featuresToUse.toArray, connectedInterfaces))
   }
 
+  /**
+   * Instantiates the query metrics implementation named in the configuration. Every thesaurus gets its own instance.
+   */
+  private def createQueryMetrics(className: String): QueryMetrics = {
+    try {
+      Class.forName(className).newInstance().asInstanceOf[QueryMetrics]
+    } catch {
+      case e @ (_: ClassNotFoundException | _: InstantiationException | _: IllegalAccessException |
+                _: ClassCastException) =>
+        throw new IllegalArgumentException(s"Can't create query metrics $className", e)
+    }
+  }
+
+  /**
+   * Creates the database interface of a thesaurus from its databaseThesaurusConfiguration element. Thesauri stored in
+   * the same database share a connection pool.
+   */
+  private def getDatabaseInterface(thesaurus: Node, id: String, configFile: File,
+                                   connectionPools: scala.collection.mutable.Map[(String, String, String), DatabaseConnectionPool]):
+  DatabaseResource with IThesaurusDatastructure[String, String] = {
+    val databaseThesaurusConfig = (thesaurus \ "databaseThesaurusConfiguration").headOption.getOrElse(
+      throw new IllegalArgumentException(s"Missing database thesaurus configuration or snapshot for thesaurus $id in file " + configFile))
+
+    // load database interface
+    val configurationObject = DatabaseThesaurusConfiguration.getFromXmlDataReader(new StringReader(databaseThesaurusConfig
+      .toString()))
+
+    if (configurationObject.getJdbcString == null || configurationObject.getDbUrl == null) {
+      throw new IllegalArgumentException("The database configuration in " + configFile + " is missing the JDBC string and/or dbUrl. Config is " + databaseThesaurusConfig)
+    }
+
+    val interface = new DatabaseThesaurusDatastructure(configurationObject)
+    val poolKey = (configurationObject.getDbUrl, configurationObject.getDbUser, configurationObject.getJdbcString)
+    val pool = connectionPools.getOrElseUpdate(poolKey, {
+      Logger.logs(s"Using up to ${configurationObject.getPoolSize} connection(s) to ${configurationObject.getDbUrl}")
+      new DatabaseConnectionPool(configurationObject.getDbUrl, configurationObject.getDbUser,
+        configurationObject.getDbPassword, configurationObject.getJdbcString, configurationObject.getPoolSize)
+    })
+    if (pool.getSize != configurationObject.getPoolSize) {
+      Logger.warn(s"Thesaurus $id shares the connections to ${configurationObject.getDbUrl} with a previously " +
+        s"loaded thesaurus, ignoring its pool size of ${configurationObject.getPoolSize} in favor of ${pool.getSize}")
+    }
+    interface.setConnectionPool(pool)
+    interface
+  }
+
   private def getTextOfDescendant(parent: Node, descendantString: String, required: Boolean = true) = {
     val descendant = parent \ descendantString
     if (descendant.isEmpty) {
@@ -150,13 +253,6 @@ object ThesaurusLoader {
       descendant(0).text
     }
   }
-
-  private def getDatabaseConnection(configurationObject: DatabaseThesaurusConfiguration, useDummyThesaurus: Boolean):
-  DatabaseResource with IThesaurusDatastructure[String, String] = if (!useDummyThesaurus) {
-    new DatabaseThesaurusDatastructure(configurationObject)
-  } else {
-    new DummyDatabaseThesaurusDatastructure
-  }
 }
 
 class InvalidThesaurusConfigFileException(message: String, cause: Throwable = null) extends
@@ -24,7 +24,8 @@ object HeadPairFeatureStore {
   val featureLoaded = new Array[Boolean](5)
 
   /**
-   * Retrieves a feature value from the feature store. Loads features if not present.
+   * Retrieves a feature value from the feature store. Loads features if not present. Lookups are synchronized, as
+   * loading one feature fills the store while documents may be featurized by several threads.
    *
    * @param featureIdx The index representing the feature, e.g. [[HeadPairFeatureStore.CoOccurrenceFeatureIdx]]
    * @param headPair the pair of heads to look up
@@ -33,7 +34,7 @@ object HeadPairFeatureStore {
    *                      features from the same file), the second is the actual feature tuple.
    * @return
    */
-  def getFeature(featureIdx: Int, headPair: (String, String), featureLoader: => TraversableOnce[(Int, HeadsToFeature)]): Option[String] = {
+  def getFeature(featureIdx: Int, headPair: (String, String), featureLoader: => TraversableOnce[(Int, HeadsToFeature)]): Option[String] = synchronized {
     if (!featureLoaded(featureIdx)) {
       loadFeatures(featureLoader)
     }
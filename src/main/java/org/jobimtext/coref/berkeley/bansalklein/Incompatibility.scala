@@ -10,7 +10,7 @@ import edu.berkeley.nlp.futile.util.Logger
 import scala.io.Source
 
 object Incompatibility {
-  var features: Option[Map[(String, String), String]] = None
+  @volatile var features: Option[Map[(String, String), String]] = None
 
   val FeatureFileOption = "featureFile"
 
@@ -38,8 +38,8 @@ object Incompatibility {
   }
 
   def getFeature(config: CorefSystemConfiguration, m1: Mention, m2: Mention): String = {
-    if (!features.isDefined) {
-      loadFeatures(config)
+    if (!features.isDefined) synchronized {
+      if (!features.isDefined) loadFeatures(config)
     }
 
     val h1 = m1.headString
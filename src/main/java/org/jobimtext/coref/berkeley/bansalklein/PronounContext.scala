@@ -22,7 +22,7 @@ object PronounContext {
   val R2BinSizeOption = "R2binSize"
   val R1GapBinSizeOption = "R1GapBinSize"
 
-  var features: Option[Map[(String, String, String, String, Boolean), Array[String]]] = None
+  @volatile var features: Option[Map[(String, String, String, String, Boolean), Array[String]]] = None
 
   /**
    * Returns true if the feature is defined for the given pair of mentions. This is the case if the current mention
@@ -75,7 +75,9 @@ object PronounContext {
 
   private def getFeature(config: CorefSystemConfiguration, pronounMention: Mention, replacementMention: Mention, featureIdx: Int, binSize: Double): String = {
     assert(isFeatureApplicable(pronounMention, replacementMention))
-    if (!features.isDefined) loadFeatures(config)
+    if (!features.isDefined) synchronized {
+      if (!features.isDefined) loadFeatures(config)
+    }
     val tuple = (pronounMention.headString, replacementMention.headString, getR1(pronounMention), getR2(pronounMention), isPossessive(pronounMention))
     val feature = features.get.get(tuple)
     feature match {
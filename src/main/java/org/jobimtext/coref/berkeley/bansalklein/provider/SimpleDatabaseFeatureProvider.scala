@@ -6,7 +6,8 @@ class SimpleDatabaseFeatureProvider(dbPath: String, tableName: String) extends F
   val con = new DatabaseConnection
   con.openConnection("jdbc:sqlite:" + dbPath, null, null, "org.sqlite.JDBC")
 
-  override def getFeature(h1: String, h2: String): Option[String] = {
+  // the connection is shared by all threads featurizing documents
+  override def getFeature(h1: String, h2: String): Option[String] = synchronized {
     val sql = s"SELECT t.feature_value FROM $tableName as t INNER JOIN strtable as s1 ON t.left == s1.entry INNER JOIN strtable as s2 ON t.right == s2.entry WHERE s1.entry = ? AND s2.entry = ?"
     val ps = con.getConnection.prepareStatement(sql)
     ps.setString(1, h1)
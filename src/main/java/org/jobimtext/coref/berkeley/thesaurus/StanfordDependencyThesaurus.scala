@@ -154,5 +154,7 @@ DistributionalThesaurusComputer {
 
 
 
-  override def termCount(bim: String): Long = interface.getTermCount(bim.substring(0, bim.lastIndexOf('#')))
+  override def termsOfFeature(bim: String): Seq[String] = Seq(bim.substring(0, bim.lastIndexOf('#')))
+
+  override def termCount(bim: String): Long = lookupTermCount(bim.substring(0, bim.lastIndexOf('#')))
 }
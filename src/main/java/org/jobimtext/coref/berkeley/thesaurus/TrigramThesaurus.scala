@@ -103,9 +103,11 @@ class TrigramThesaurus(val identifier: String, val cache: ThesaurusCache, val in
     parts
   }
 
+  override def termsOfFeature(bim: String): Seq[String] = getBimWords(bim).toSeq
+
   override def termCount(bim: String): Long = {
     val parts = getBimWords(bim)
-    Math.round((interface.getTermCount(parts(0)) + interface.getTermCount(parts(1))) / 2.0)
+    Math.round((lookupTermCount(parts(0)) + lookupTermCount(parts(1))) / 2.0)
   }
 
   override def computeOuterMentionContextFeatures(mention: Mention): Set[String] = {
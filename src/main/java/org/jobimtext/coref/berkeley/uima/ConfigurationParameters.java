@@ -106,6 +106,18 @@ public class ConfigurationParameters {
     public static final String DT_USE_CACHE_PARAM = "dtUseCache";
     public static final String DT_USE_CACHE_DEFAULT = "true";
 
+    public static final String DT_PREFETCH_PARAM = "dtPrefetch";
+    public static final String DT_PREFETCH_DEFAULT = "true";
+
+    public static final String DT_CACHE_MEMORY_BUDGET_PARAM = "dtCacheMemoryBudget";
+    public static final String DT_CACHE_MEMORY_BUDGET_DEFAULT = "0";
+
+    public static final String DT_QUERY_METRICS_PARAM = "dtQueryMetrics";
+    public static final String DT_QUERY_METRICS_DEFAULT = "org.jobimtext.api.metrics.HistogramQueryMetrics";
+
+    public static final String DT_THRESHOLD_CONTEXT_EXPANSION_PARAM = "dtThresholdContextExpansion";
+    public static final String DT_THRESHOLD_CONTEXT_EXPANSION_DEFAULT = "false";
+
     public static final String NUM_ITRS_PARAM = "numItrs";
     public static final String NUM_ITRS_DEFAULT = "20";
 
@@ -253,6 +253,36 @@ public class CoreferenceAnalysisEngine extends JCasAnnotator_ImplBase {
     @ConfigurationParameter(name = DT_USE_CACHE_PARAM, defaultValue = DT_USE_CACHE_DEFAULT, mandatory = true)
     private boolean dtUseCache;
 
+    /**
+     * Whether to fetch the thesaurus lookups of a document with a few batched queries before featurizing it. Only
+     * effective if "{@value org.jobimtext.coref.berkeley.uima.ConfigurationParameters#DT_USE_CACHE_PARAM}" is enabled.
+     */
+    @ConfigurationParameter(name = DT_PREFETCH_PARAM, defaultValue = DT_PREFETCH_DEFAULT, mandatory = true)
+    private boolean dtPrefetch;
+
+    /**
+     * Megabytes the thesaurus caches may use together. If positive, lookups are cached across documents (and thus
+     * across calls of this engine) instead of per document.
+     */
+    @ConfigurationParameter(name = DT_CACHE_MEMORY_BUDGET_PARAM, defaultValue = DT_CACHE_MEMORY_BUDGET_DEFAULT,
+            mandatory = true)
+    private int dtCacheMemoryBudget;
+
+    /**
+     * Class implementing {@link org.jobimtext.api.metrics.QueryMetrics} that measures the lookups of each thesaurus.
+     * Leave empty to disable measuring.
+     */
+    @ConfigurationParameter(name = DT_QUERY_METRICS_PARAM, defaultValue = DT_QUERY_METRICS_DEFAULT, mandatory = false)
+    private String dtQueryMetrics;
+
+    /**
+     * Whether context expansions should read the score-sorted term lists of the context features only as far as
+     * needed to determine the best terms. Only effective for thesauri that return sorted lists.
+     */
+    @ConfigurationParameter(name = DT_THRESHOLD_CONTEXT_EXPANSION_PARAM,
+            defaultValue = DT_THRESHOLD_CONTEXT_EXPANSION_DEFAULT, mandatory = true)
+    private boolean dtThresholdContextExpansion;
+
     /**
      * Threshold of occurrences in the antonym database above which incompatible terms are removed from the prior
      * expansion if "{@value org.jobimtext.coref.berkeley.uima
@@ -448,6 +478,10 @@ public class CoreferenceAnalysisEngine extends JCasAnnotator_ImplBase {
         config.setLexicalFeatCutoff(lexicalFeatsCutoff);
         config.setPhiClusterFeatures(phiClusterFeatures);
         config.setDtUseCache(dtUseCache);
+        config.setDtPrefetch(dtPrefetch);
+        config.setDtCacheMemoryBudget(dtCacheMemoryBudget);
+        config.setDtQueryMetrics(dtQueryMetrics == null ? "" : dtQueryMetrics);
+        config.setDtThresholdContextExpansion(dtThresholdContextExpansion);
         config.setUsePOSForNumberCommon(usePOSForNumberCommon);
         config.setUseNer(useNer);
         config.setClusterFeats(clusterFeats);
@@ -0,0 +1,259 @@
+package org.jobimtext.util;
+
+import java.util.Arrays;
+
+import org.jobimtext.api.struct.Order2Columns;
+
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
+
+/**
+ * Exact top-k selection of terms by the sum of log1p(score) over several posting lists, each sorted by decreasing
+ * score. A term missing from a list contributes 0. Instead of reading the lists completely, ever longer prefixes are
+ * read until the bounds of the partially known sums prove which terms are the k best and in which order (the
+ * threshold algorithm without random access):
+ * <ul>
+ * <li>a term's sum is at least the sum of the scores read so far,</li>
+ * <li>and at most that plus, for every list not yet exhausted in which the term was not found, the log1p of the last
+ * score read from the list, which bounds all scores further down.</li>
+ * </ul>
+ * Reading stops once the lower bound of the k-th term is not below the upper bound of any other term, including
+ * unseen ones, and the lower bound of each of the k terms is not below the upper bounds of the terms after it.
+ * <p>
+ * The ranks are those of a complete evaluation, except that equal sums may be ordered differently. The reported
+ * sums are the lower bounds; they are exact for terms found in every list that was not exhausted.
+ * <p>
+ * The bounds require non-negative scores. If a negative score is read, or if there are more than 64 lists, the lists
+ * are read completely instead.
+ */
+public class ThresholdTopK {
+
+    /**
+     * Sorted access to the posting lists.
+     */
+    public interface Postings {
+        /**
+         * Returns the first entries of a list in the order of decreasing score. More entries than requested may be
+         * returned, they are kept for later requests: if a deeper request returns the same instance again, the
+         * selection continues after the entries it has already used instead of going over the prefix again.
+         *
+         * @param list  index of the list
+         * @param depth number of entries needed; fewer entries mean that the list is exhausted
+         */
+        Order2Columns read(int list, int depth);
+    }
+
+    /**
+     * The selected terms, best first.
+     */
+    public static class Result {
+        public final String[] terms;
+        public final double[] scores;
+        /**
+         * Number of entries used from all lists, including entries gone over again because a longer prefix was
+         * returned as a new instance.
+         */
+        public final long entriesRead;
+
+        Result(String[] terms, double[] scores, long entriesRead) {
+            this.terms = terms;
+            this.scores = scores;
+            this.entriesRead = entriesRead;
+        }
+    }
+
+    private static final int MAX_LISTS = 64;
+
+    private final int lists;
+    private final int k;
+    private final Postings postings;
+    private final int maxDepth;
+
+    // number of entries last requested from each list
+    private final int[] depths;
+    // the entries last returned for each list and how many of them have been used
+    private final Order2Columns[] sources;
+    private final int[] positions;
+    private final boolean[] exhausted;
+    // log1p of the last score read from each list, 0 once the list is exhausted
+    private final double[] thresholds;
+    private long entriesRead = 0;
+    private boolean readCompletely = false;
+
+    // seen terms, numbered in the order they are first read (stored + 1, as 0 means absent)
+    private final ObjectIntOpenHashMap<String> termIndices = new ObjectIntOpenHashMap<String>();
+    private String[] terms = new String[256];
+    private double[] sums = new double[256];
+    // bit i is set if the term's entry in list i has been added
+    private long[] found = new long[256];
+    private int termCount = 0;
+
+    private ThresholdTopK(int lists, int k, Postings postings, int maxDepth) {
+        this.lists = lists;
+        this.k = k;
+        this.postings = postings;
+        this.maxDepth = maxDepth <= 0 ? Integer.MAX_VALUE : maxDepth;
+        this.depths = new int[lists];
+        this.sources = new Order2Columns[lists];
+        this.positions = new int[lists];
+        this.exhausted = new boolean[lists];
+        this.thresholds = new double[lists];
+    }
+
+    /**
+     * Selects the k terms with the highest sums.
+     *
+     * @param lists        number of posting lists
+     * @param k            number of terms to select
+     * @param postings     access to the lists
+     * @param initialDepth number of entries read from each list at first; the prefixes are doubled after that
+     * @param maxDepth     maximum number of entries read from a list, which is then treated as exhausted; 0 for no
+     *                     limit
+     */
+    public static Result select(int lists, int k, Postings postings, int initialDepth, int maxDepth) {
+        ThresholdTopK selection = new ThresholdTopK(lists, k, postings, maxDepth);
+        return selection.run(Math.max(1, initialDepth));
+    }
+
+    private Result run(int initialDepth) {
+        if (k <= 0 || lists == 0) {
+            return new Result(new String[0], new double[0], 0);
+        }
+        readCompletely = lists > MAX_LISTS;
+
+        for (int list = 0; list < lists; list++) {
+            read(list, readCompletely ? maxDepth : Math.min(initialDepth, maxDepth));
+        }
+        int[] ranking = TopK.select(sums, termCount, k);
+        while (!isDecided(ranking)) {
+            // the lists whose unread entries may still contribute the most are read further
+            double maxThreshold = 0.0;
+            for (int list = 0; list < lists; list++) {
+                maxThreshold = Math.max(maxThreshold, thresholds[list]);
+            }
+            for (int list = 0; list < lists; list++) {
+                if (!exhausted[list] && (readCompletely || thresholds[list] >= maxThreshold / 2)) {
+                    int depth = depths[list] > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * depths[list];
+                    read(list, readCompletely ? maxDepth : Math.min(depth, maxDepth));
+                }
+            }
+            ranking = TopK.select(sums, termCount, k);
+        }
+
+        String[] selected = new String[ranking.length];
+        double[] scores = new double[ranking.length];
+        for (int rank = 0; rank < ranking.length; rank++) {
+            selected[rank] = terms[ranking[rank]];
+            scores[rank] = sums[ranking[rank]];
+        }
+        return new Result(selected, scores, entriesRead);
+    }
+
+    private void read(int list, int depth) {
+        Order2Columns entries = postings.read(list, depth);
+        // entries with equal scores may come in another order in a new prefix than in the shorter one, so a new
+        // prefix is gone over from the start and entries already added are skipped
+        int from = entries == sources[list] ? positions[list] : 0;
+        int end = Math.min(depth, entries.size());
+        entriesRead += end - from;
+        long bit = readCompletely ? 0 : 1L << list;
+        for (int i = from; i < end; i++) {
+            String term = entries.getKey(i);
+            double score = entries.getScore(i);
+            if (term == null) {
+                continue;
+            }
+            if (!(score >= 0) && !readCompletely) {
+                // the bounds do not hold, start over reading everything
+                readCompletely = true;
+                reset();
+                return;
+            }
+            int index = indexOf(term);
+            if (bit == 0 || (found[index] & bit) == 0) {
+                found[index] |= bit;
+                sums[index] += Math.log1p(score);
+            }
+        }
+
+        depths[list] = depth;
+        sources[list] = entries;
+        positions[list] = end;
+        exhausted[list] = readCompletely || end < depth || depth >= maxDepth;
+        thresholds[list] = exhausted[list] || end == 0 ? 0.0 : Math.log1p(entries.getScore(end - 1));
+    }
+
+    private void reset() {
+        termIndices.clear();
+        Arrays.fill(terms, 0, termCount, null);
+        Arrays.fill(sums, 0, termCount, 0.0);
+        Arrays.fill(found, 0, termCount, 0L);
+        termCount = 0;
+        Arrays.fill(depths, 0);
+        Arrays.fill(sources, null);
+        Arrays.fill(positions, 0);
+        Arrays.fill(exhausted, false);
+        Arrays.fill(thresholds, 0.0);
+    }
+
+    private int indexOf(String term) {
+        int index = termIndices.get(term) - 1;
+        if (index < 0) {
+            if (termCount == terms.length) {
+                terms = Arrays.copyOf(terms, 2 * termCount);
+                sums = Arrays.copyOf(sums, 2 * termCount);
+                found = Arrays.copyOf(found, 2 * termCount);
+            }
+            index = termCount++;
+            terms[index] = term;
+            termIndices.put(term, index + 1);
+        }
+        return index;
+    }
+
+    private double upperBound(int index) {
+        double bound = sums[index];
+        for (int list = 0; list < lists; list++) {
+            if (!exhausted[list] && (found[index] & (1L << list)) == 0) {
+                bound += thresholds[list];
+            }
+        }
+        return bound;
+    }
+
+    private boolean isDecided(int[] ranking) {
+        boolean allExhausted = true;
+        double unseenBound = 0.0;
+        for (int list = 0; list < lists; list++) {
+            allExhausted &= exhausted[list];
+            unseenBound += thresholds[list];
+        }
+        if (allExhausted) {
+            return true;
+        }
+        // unseen terms would still fill the free ranks, even with a sum of 0
+        if (ranking.length < k) {
+            return false;
+        }
+
+        boolean[] selected = new boolean[termCount];
+        for (int index : ranking) {
+            selected[index] = true;
+        }
+        double otherBound = unseenBound;
+        for (int index = 0; index < termCount; index++) {
+            if (!selected[index]) {
+                otherBound = Math.max(otherBound, upperBound(index));
+            }
+        }
+
+        // from the last rank upwards, each term must beat everything ranked after it
+        for (int rank = ranking.length - 1; rank >= 0; rank--) {
+            int index = ranking[rank];
+            if (sums[index] < otherBound) {
+                return false;
+            }
+            otherBound = Math.max(otherBound, upperBound(index));
+        }
+        return true;
+    }
+}
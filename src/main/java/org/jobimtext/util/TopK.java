@@ -0,0 +1,90 @@
+package org.jobimtext.util;
+
+/**
+ * Selection of the best entries of a score array without boxing or sorting the whole array.
+ */
+public class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * Returns the indices of the k highest of the first n scores, ordered by decreasing score. Equal scores are
+     * ordered by increasing index, i.e. the result is the same as the first k elements of a stable sort.
+     *
+     * @param scores the scores
+     * @param n      number of valid entries in scores
+     * @param k      maximum number of indices to return
+     * @return between 0 and min(n, k) indices
+     */
+    public static int[] select(double[] scores, int n, int k) {
+        int limit = Math.max(0, Math.min(n, k));
+        if (limit == 0) {
+            return new int[0];
+        }
+
+        // min-heap of the best indices seen so far, the worst of them at the root
+        int[] heap = new int[limit];
+        int heapSize = 0;
+        for (int i = 0; i < n; i++) {
+            if (heapSize < limit) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize, scores);
+                heapSize++;
+            } else if (better(i, heap[0], scores)) {
+                heap[0] = i;
+                siftDown(heap, heapSize, scores);
+            }
+        }
+
+        // pop the worst remaining index into the last free slot
+        int[] result = new int[heapSize];
+        for (int last = heapSize - 1; last >= 0; last--) {
+            result[last] = heap[0];
+            heap[0] = heap[last];
+            siftDown(heap, last, scores);
+        }
+        return result;
+    }
+
+    private static boolean better(int a, int b, double[] scores) {
+        int comparison = Double.compare(scores[a], scores[b]);
+        return comparison > 0 || (comparison == 0 && a < b);
+    }
+
+    private static void siftUp(int[] heap, int position, double[] scores) {
+        int entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!better(heap[parent], entry, scores)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = entry;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        if (size == 0) {
+            return;
+        }
+        int position = 0;
+        int entry = heap[0];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1], scores)) {
+                child++;
+            }
+            if (!better(entry, heap[child], scores)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = entry;
+    }
+}
@@ -0,0 +1,94 @@
+package edu.berkeley.nlp.coref
+
+import org.jobimtext.coref.CorefSpec
+
+/**
+ * Specifies the behaviour of the [[FeatureChart]], the packed features of the mention pairs of a document.
+ */
+class FeatureChartSpec extends CorefSpec {
+  // features of pair (i, j) at Rows(i)(j)
+  private val Rows: Array[Array[Seq[Int]]] = Array(
+    Array(Seq(0)),
+    Array(Seq(1, 2), Seq()),
+    Array(Seq(3), Seq(4, 5, 6), Seq(7)))
+
+  private def pairs(size: Int) = for (i <- 0 until size; j <- 0 to i) yield (i, j)
+
+  "A FeatureChart" should "return the features of every pair" in {
+    val chart = FeatureChart(Rows)
+    assert(chart.size == 3)
+    for ((i, j) <- pairs(3)) {
+      assert(chart(i, j).toSeq == Rows(i)(j))
+      assert(chart.numFeats(i, j) == Rows(i)(j).size)
+    }
+    assert(chart.totalFeats == 8)
+  }
+
+  it should "renumber the features of each row" in {
+    // the local numbers of row i are mapped to global ones by renumberings(i), row 1 keeps its numbers
+    val renumberings = Array(Array(10), null, Array(0, 0, 0, 13, 14, 15, 16, 17))
+    val chart = FeatureChart(Rows, renumberings)
+    assert(chart(0, 0).toSeq == Seq(10))
+    assert(chart(1, 0).toSeq == Seq(1, 2))
+    assert(chart(2, 1).toSeq == Seq(14, 15, 16))
+    assert(chart(2, 2).toSeq == Seq(17))
+  }
+
+  it should "reject pairs outside of the chart" in {
+    val chart = FeatureChart(Rows)
+    intercept[IllegalArgumentException] {
+      chart(0, 1)
+    }
+    intercept[IllegalArgumentException] {
+      chart(3, 0)
+    }
+  }
+
+  it should "score a pair by the sum of its weights" in {
+    val chart = FeatureChart(Array(Array(Seq(0)), Array(Seq(1, ~2), Seq(2))))
+    val weights = Array(1.0, 2.0, 4.0)
+    assert(chart.score(0, 0, weights) == 1.0)
+    assert(chart.score(1, 0, weights) == -2.0)
+    assert(chart.score(1, 1, weights) == 4.0)
+  }
+
+  it should "add the features of a pair to the gradient" in {
+    val chart = FeatureChart(Array(Array(Seq(0)), Array(Seq(1, ~2), Seq(2))))
+    val gradient = new Array[Double](3)
+    chart.addToGradient(1, 0, 0.5, gradient)
+    assert(gradient.toSeq == Seq(0.0, 0.5, -0.5))
+  }
+
+  it should "list each weight index once in increasing order" in {
+    val chart = FeatureChart(Array(Array(Seq(5, 1)), Array(Seq(~5, 3), Seq(1))))
+    assert(chart.weightIndices.toSeq == Seq(1, 3, 5))
+  }
+
+  it should "drop the features of pruned pairs and keep the others" in {
+    val chart = FeatureChart(Rows)
+    val pruned = Array(Array(false), Array(true, false), Array(false, true, false))
+    val withoutPruned = chart.withoutPruned(pruned)
+    for ((i, j) <- pairs(3)) {
+      if (pruned(i)(j)) {
+        assert(withoutPruned.numFeats(i, j) == 0)
+      } else {
+        assert(withoutPruned(i, j).toSeq == Rows(i)(j))
+      }
+    }
+    assert(withoutPruned.totalFeats == 3)
+  }
+
+  it should "be returned unchanged if no pruned pair has features" in {
+    val chart = FeatureChart(Rows)
+    val pruned = Array(Array(false), Array(false, true), Array(false, false, false))
+    assert(chart.withoutPruned(pruned) eq chart)
+  }
+
+  "An empty FeatureChart" should "have no features for any pair" in {
+    val chart = FeatureChart.empty(4)
+    for ((i, j) <- pairs(4)) {
+      assert(chart.numFeats(i, j) == 0)
+    }
+    assert(chart.totalFeats == 0)
+  }
+}
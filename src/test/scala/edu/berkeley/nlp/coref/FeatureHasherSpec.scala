@@ -0,0 +1,72 @@
+package edu.berkeley.nlp.coref
+
+import org.jobimtext.coref.CorefSpec
+
+/**
+ * Specifies the behaviour of the [[FeatureHasher]] and of the signed feature indices it produces.
+ */
+class FeatureHasherSpec extends CorefSpec {
+  private val Features = (0 until 1000).map("Feature=" + _)
+
+  "A FeatureHasher" should "map every feature to a weight index within its size" in {
+    val hasher = new FeatureHasher(8, false)
+    for (feature <- Features) {
+      val index = hasher.index(feature)
+      assert(index >= 0 && index < hasher.size)
+    }
+  }
+
+  it should "map a feature to the same index every time" in {
+    val hasher = new FeatureHasher(10, true)
+    for (feature <- Features) {
+      assert(hasher.index(feature) == hasher.index(feature))
+    }
+  }
+
+  it should "give the same weight index with and without signs" in {
+    val unsigned = new FeatureHasher(10, false)
+    val signed = new FeatureHasher(10, true)
+    for (feature <- Features) {
+      val index = signed.index(feature)
+      assert((if (index >= 0) index else ~index) == unsigned.index(feature))
+    }
+  }
+
+  it should "give both signs with signed hashing" in {
+    val hasher = new FeatureHasher(10, true)
+    val indices = Features.map(hasher.index)
+    assert(indices.exists(_ < 0))
+    assert(indices.exists(_ >= 0))
+  }
+
+  it should "reject a number of bits outside of 1 to 30" in {
+    intercept[IllegalArgumentException] {
+      new FeatureHasher(0, false)
+    }
+    intercept[IllegalArgumentException] {
+      new FeatureHasher(31, false)
+    }
+  }
+
+  "A negative feature index" should "round-trip to its weight index through the complement" in {
+    for (index <- Seq(0, 1, 2, 1023, (1 << 30) - 1)) {
+      assert(~index < 0)
+      assert(~(~index) == index)
+    }
+  }
+
+  it should "read the negated weight" in {
+    val weights = Array(0.5, -2.0, 3.0)
+    assert(FeatureHasher.weightOf(weights, 1) == -2.0)
+    assert(FeatureHasher.weightOf(weights, ~1) == 2.0)
+    assert(FeatureHasher.weightOf(weights, ~0) == -0.5)
+  }
+
+  it should "subtract from the gradient" in {
+    val gradient = new Array[Double](3)
+    FeatureHasher.addToGradient(gradient, 2, 1.5)
+    FeatureHasher.addToGradient(gradient, ~2, 0.5)
+    FeatureHasher.addToGradient(gradient, ~0, 2.0)
+    assert(gradient.toSeq == Seq(-2.0, 0.0, 1.0))
+  }
+}
@@ -0,0 +1,171 @@
+package edu.berkeley.nlp.coref
+
+import edu.berkeley.nlp.coref.config.PredictionCorefSystemConfiguration
+import edu.berkeley.nlp.coref.lang.{Language, LanguagePackFactory}
+import edu.berkeley.nlp.futile.fig.basic.Indexer
+import org.jobimtext.coref.CorefSpec
+
+import scala.collection.JavaConverters._
+import scala.concurrent.forkjoin.ForkJoinPool
+
+/**
+ * Specifies that featurizing on several threads, document by document or in blocks of rows, gives every feature the
+ * index it gets when featurizing sequentially.
+ */
+class ParallelFeaturizationSpec extends CorefSpec {
+
+  /**
+   * Fires features shared by all documents and features of its own for every document, which only get the same
+   * indices if the documents and rows are numbered in order. Indexes like [[PairwiseIndexingFeaturizerJoint]].
+   */
+  private class ToyFeaturizer(featureIndexer: Indexer[String]) extends PairwiseIndexingFeaturizer {
+    var mentionPropertyComputer = new MentionPropertyComputer(null)
+
+    @transient private lazy val localIndexer = new ThreadLocal[Indexer[String]]
+
+    def getIndexer() = featureIndexer
+
+    def getPairwiseFeatsEnabled = "toy"
+
+    def getIndex(feature: String, addToFeaturizer: Boolean): Int = {
+      val indexer = localIndexer.get
+      if (indexer != null) {
+        indexer.getIndex(feature)
+      } else if (!addToFeaturizer) {
+        val idx = featureIndexer.indexOf(feature)
+        if (idx < 0) featureIndexer.indexOf(PairwiseIndexingFeaturizerJoint.UnkFeatName) else idx
+      } else {
+        featureIndexer.getIndex(feature)
+      }
+    }
+
+    def featurizeIndex(docGraph: DocumentGraph, currMentIdx: Int, antecedentIdx: Int,
+                       addToFeaturizer: Boolean): Seq[Int] = {
+      val feats = Seq("Dist=" + (currMentIdx - antecedentIdx), "Ant=" + (antecedentIdx % 3),
+        "Pair=" + docGraph.size + ":" + currMentIdx + "-" + antecedentIdx)
+      feats.map(getIndex(_, addToFeaturizer))
+    }
+
+    def indexLocally[T](indexer: Indexer[String])(featurize: => T): T = {
+      localIndexer.set(indexer)
+      try {
+        featurize
+      } finally {
+        localIndexer.remove()
+      }
+    }
+
+    def clone(computer: MentionPropertyComputer): ToyFeaturizer = {
+      val featurizer = new ToyFeaturizer(featureIndexer)
+      featurizer.mentionPropertyComputer = computer
+      featurizer
+    }
+  }
+
+  // a featurizer whose indexer starts with the unknown feature, like the ones of the CorefSystem
+  private def newFeaturizer(): ToyFeaturizer = {
+    val featureIndexer = new Indexer[String]()
+    featureIndexer.getIndex(PairwiseIndexingFeaturizerJoint.UnkFeatName)
+    new ToyFeaturizer(featureIndexer)
+  }
+
+  /**
+   * Documents of 1 to 40 mentions, which only need the number of mentions to be featurized. Edges far apart are
+   * pruned in every other document.
+   */
+  private def documents(addToFeaturizer: Boolean, sizes: Seq[Int] = 1 to 40): Seq[DocumentGraph] = {
+    for (size <- sizes) yield {
+      val docGraph = new DocumentGraph(new CorefDoc(null, Seq(), null, Seq.fill(size)(null)), addToFeaturizer)
+      if (size % 2 == 0) {
+        for (i <- 0 until size; j <- 0 to i) docGraph.prunedEdges(i)(j) = i - j > 6 && j % 2 == 1
+      }
+      docGraph
+    }
+  }
+
+  private def config(numThreads: Int, blockPairs: Int) = {
+    val config = new PredictionCorefSystemConfiguration(LanguagePackFactory.getLanguagePack(Language.ENGLISH), null)
+    config.numFeaturizationThreads = numThreads
+    config.featurizationBlockPairs = blockPairs
+    config
+  }
+
+  /**
+   * Featurizes train and then test documents with a new featurizer, returning its features and the charts.
+   */
+  private def featurize(numThreads: Int, blockPairs: Int): (Seq[String], Seq[DocumentGraph]) = {
+    val featurizer = newFeaturizer()
+    val trainer = new CorefFeaturizerTrainer(config(numThreads, blockPairs))
+    val trainDocs = documents(addToFeaturizer = true)
+    trainer.featurizeBasic(trainDocs, featurizer)
+    // test documents of other sizes, whose own pair features and longest distances are unknown
+    val testDocs = documents(addToFeaturizer = false, 30 to 45)
+    trainer.featurizeBasic(testDocs, featurizer)
+    (featurizer.getIndexer.getObjects.asScala.toList, trainDocs ++ testDocs)
+  }
+
+  private def assertSameFeats(actual: DocumentGraph, expected: DocumentGraph): Unit = {
+    assert(actual.size == expected.size)
+    for (i <- 0 until expected.size; j <- 0 to i) {
+      assert(actual.cachedFeats(i, j).toSeq == expected.cachedFeats(i, j).toSeq, s"pair ($i, $j)")
+    }
+  }
+
+  "Featurization" should "give the features of a sequential pass on several threads" in {
+    val (features, docGraphs) = featurize(1, 0)
+    val (parallelFeatures, parallelDocGraphs) = featurize(4, 0)
+    assert(parallelFeatures == features)
+    for ((actual, expected) <- parallelDocGraphs.zip(docGraphs)) assertSameFeats(actual, expected)
+  }
+
+  it should "give the features of a sequential pass in blocks of rows" in {
+    val (features, docGraphs) = featurize(1, 0)
+    for (blockPairs <- Seq(1, 7, 50)) {
+      val (blockFeatures, blockDocGraphs) = featurize(4, blockPairs)
+      assert(blockFeatures == features)
+      for ((actual, expected) <- blockDocGraphs.zip(docGraphs)) assertSameFeats(actual, expected)
+    }
+  }
+
+  "A document graph" should "give the features of a sequential pass when featurized in blocks" in {
+    val pool = new ForkJoinPool(4)
+    try {
+      for (addToFeaturizer <- Seq(true, false); blockPairs <- Seq(1, 3, 1000)) {
+        val featurizer = newFeaturizer()
+        val blockFeaturizer = newFeaturizer()
+        // the shared features are known beforehand, so that test documents have some
+        for (feature <- Seq("Dist=0", "Dist=1", "Ant=0", "Ant=2")) {
+          featurizer.getIndex(feature, true)
+          blockFeaturizer.getIndex(feature, true)
+        }
+        for (docGraph <- documents(addToFeaturizer, Seq(1, 12, 25))) {
+          val blockDocGraph = documents(addToFeaturizer, Seq(docGraph.size)).head
+          docGraph.featurizeIndexNonPrunedUseCache(featurizer)
+          blockDocGraph.featurizeIndexNonPrunedInBlocks(blockFeaturizer, pool, blockPairs)
+          assert(blockFeaturizer.getIndexer.getObjects.asScala == featurizer.getIndexer.getObjects.asScala)
+          assertSameFeats(blockDocGraph, docGraph)
+          assert(blockDocGraph.isFeaturizedWith(blockFeaturizer))
+        }
+      }
+    } finally {
+      pool.shutdownNow()
+    }
+  }
+
+  it should "give the features of a sequential pass when featurized with a local indexer" in {
+    val featurizer = newFeaturizer()
+    val localFeaturizer = newFeaturizer()
+    for ((docGraph, localDocGraph) <- documents(addToFeaturizer = true).zip(documents(addToFeaturizer = true))) {
+      docGraph.featurizeIndexNonPrunedUseCache(featurizer)
+      val localIndexer = new Indexer[String]()
+      val numFeatures = localFeaturizer.getIndexer.size
+      val localFeats = localDocGraph.featurizeIndexNonPrunedLocally(localFeaturizer, localIndexer)
+      // the document is featurized without touching the featurizer's indexer
+      assert(localFeaturizer.getIndexer.size == numFeatures)
+      assert(localIndexer.size > 0)
+      localDocGraph.cacheLocallyIndexedFeats(localFeaturizer, localFeats, localIndexer)
+      assert(localFeaturizer.getIndexer.getObjects.asScala == featurizer.getIndexer.getObjects.asScala)
+      assertSameFeats(localDocGraph, docGraph)
+    }
+  }
+}
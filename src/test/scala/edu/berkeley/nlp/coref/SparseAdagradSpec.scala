@@ -0,0 +1,97 @@
+package edu.berkeley.nlp.coref
+
+import org.jobimtext.coref.CorefSpec
+
+import scala.util.Random
+
+/**
+ * Specifies that the sparse Adagrad steps of the [[CorefFeaturizerTrainer]], which regularize the weights of inactive
+ * features lazily, end up with the weights of dense steps.
+ */
+class SparseAdagradSpec extends CorefSpec {
+  private val NumFeatures = 30
+  private val Eta = 1.0
+  private val Lambda = 0.05
+
+  /**
+   * A toy document: the features it fires, in increasing order, and a label. Its gradient is that of a logistic
+   * model over the sum of the weights of its features, so it depends on the current weights.
+   */
+  private case class ToyDoc(active: Array[Int], label: Int) {
+    def addGradient(weights: Array[Double])(gradient: Array[Double]): Unit = {
+      val score = active.map(weights(_)).sum
+      val p = 1.0 / (1.0 + math.exp(-label * score))
+      for (i <- active) gradient(i) += label * (1.0 - p)
+    }
+  }
+
+  private def toyDocs(random: Random): Seq[ToyDoc] = {
+    // the last features are never active and are only shrunk by the regularization
+    for (d <- 0 until 8) yield {
+      val active = random.shuffle((0 until NumFeatures - 5).toList).take(2 + random.nextInt(6)).sorted.toArray
+      ToyDoc(active, if (random.nextBoolean()) 1 else -1)
+    }
+  }
+
+  private def assertClose(actual: Array[Double], expected: Array[Double]): Unit = {
+    for (i <- 0 until expected.length) {
+      assert(math.abs(actual(i) - expected(i)) <= 1e-9 * math.max(1.0, math.abs(expected(i))),
+        s"index $i: ${actual(i)} != ${expected(i)}")
+    }
+  }
+
+  "Sparse Adagrad steps" should "give the weights of dense steps after each iteration" in {
+    for (seed <- 0 until 10) {
+      val random = new Random(seed)
+      val docs = toyDocs(random)
+      val initialWeights = Array.fill(NumFeatures)(random.nextGaussian() * 0.3)
+
+      val trainer = new CorefFeaturizerTrainer(null)
+      val denseWeights = initialWeights.clone()
+      val denseDiagGt = new Array[Double](NumFeatures)
+      val denseGradient = new Array[Double](NumFeatures)
+
+      val sparseWeights = initialWeights.clone()
+      val sparseDiagGt = new Array[Double](NumFeatures)
+      val sparseGradient = new Array[Double](NumFeatures)
+      val lastSteps = new Array[Int](NumFeatures)
+      var step = 0
+
+      for (iteration <- 0 until 4) {
+        for (doc <- docs) {
+          trainer.takeAdagradStepL1R(doc.addGradient(denseWeights) _, denseGradient, denseDiagGt, Eta, Lambda,
+            denseWeights)
+          trainer.takeSparseAdagradStepL1R(doc.active, doc.addGradient(sparseWeights) _, sparseGradient, sparseDiagGt,
+            lastSteps, step, Eta, Lambda, sparseWeights)
+          step += 1
+          // the weights the document reads are up to date after each step
+          assertClose(doc.active.map(sparseWeights(_)), doc.active.map(denseWeights(_)))
+          assert(sparseGradient.forall(_ == 0.0))
+        }
+        trainer.regularizeAllSkippedSteps(sparseDiagGt, lastSteps, step, Eta, Lambda, sparseWeights)
+        assertClose(sparseWeights, denseWeights)
+        assertClose(sparseDiagGt, denseDiagGt)
+      }
+      // the weights that never had a gradient have been shrunk, some of them to 0
+      assert((NumFeatures - 5 until NumFeatures).forall(i =>
+        math.abs(sparseWeights(i)) < math.abs(initialWeights(i)) || sparseWeights(i) == 0.0))
+    }
+  }
+
+  it should "leave a weight at 0 once the regularization has reached it" in {
+    val trainer = new CorefFeaturizerTrainer(null)
+    val weights = Array(0.01, 0.5)
+    val diagGt = new Array[Double](2)
+    val lastSteps = new Array[Int](2)
+    // 100 steps without gradient shrink both weights by 5
+    trainer.regularizeAllSkippedSteps(diagGt, lastSteps, 100, Eta, Lambda, weights)
+    assert(weights(0) == 0.0)
+    assert(weights(1) == 0.0)
+    assert(lastSteps.forall(_ == 100))
+
+    weights(1) = -0.5
+    trainer.regularizeAllSkippedSteps(diagGt, lastSteps, 101, Eta, Lambda, weights)
+    assert(weights(0) == 0.0)
+    assert(math.abs(weights(1) - (-0.5 + Lambda * Eta)) < 1e-12)
+  }
+}
@@ -0,0 +1,73 @@
+package org.jobimtext.coref.berkeley
+
+import org.jobimtext.api.struct.Order2Columns
+import org.jobimtext.coref.CorefSpec
+
+import scala.util.Random
+
+/**
+ * Specifies how [[DistributionalThesaurusComputer.compatiblePriorExpansion]] fills a prior expansion from a page of
+ * similar terms and, if needed, the full list.
+ */
+class CompatiblePriorExpansionSpec extends CorefSpec {
+  private def columns(terms: (String, Double)*): Order2Columns = {
+    val columns = new Order2Columns()
+    for ((term, score) <- terms) columns.add(term, score)
+    columns
+  }
+
+  private def assertRanked(expansion: scala.collection.Map[String, ExpansionIndexHolder], terms: Seq[String]): Unit = {
+    assert(expansion.keys.toSeq == terms)
+    assert(expansion.values.map(_.index).toSeq == terms.indices)
+  }
+
+  "A compatible prior expansion" should "not meet a term twice when the full list orders tied scores differently" in {
+    val page = columns("a" -> 1.0, "b" -> 1.0, "c" -> 1.0, "d" -> 1.0)
+    // the same ties in another order, followed by less similar terms
+    val all = columns("d" -> 1.0, "c" -> 1.0, "b" -> 1.0, "a" -> 1.0, "e" -> 0.5, "f" -> 0.4, "g" -> 0.3)
+    val isCompatible = (term: String) => term != "b" && term != "c"
+
+    val (expansion, scanned) = DistributionalThesaurusComputer.compatiblePriorExpansion(page, 4, all, 4, isCompatible)
+    assertRanked(expansion, Seq("a", "d", "e", "f"))
+    assert(scanned == 6)
+  }
+
+  it should "keep the terms of the baseline filter over the full list" in {
+    val random = new Random(13)
+    for (trial <- 0 until 200) {
+      val vocabulary = random.shuffle((0 until 30).map("t" + _).toList)
+      val scores = vocabulary.map(term => (term, random.nextInt(4).toDouble)).sortBy(-_._2)
+      val incompatible = vocabulary.filter(_ => random.nextInt(3) == 0).toSet
+      val isCompatible = (term: String) => !incompatible.contains(term)
+      val maxSize = 1 + random.nextInt(12)
+      val pageSize = 1 + random.nextInt(20)
+      // the full list breaks the ties of the page in another order
+      val page = columns(scores.take(pageSize): _*)
+      val all = columns(random.shuffle(scores).sortBy(-_._2): _*)
+
+      val (expansion, _) = DistributionalThesaurusComputer.compatiblePriorExpansion(page, pageSize, all, maxSize,
+        isCompatible)
+      val expectedSize = math.min(maxSize, vocabulary.count(isCompatible))
+      assert(expansion.size == expectedSize)
+      assert(expansion.values.map(_.index).toSeq == (0 until expectedSize))
+      // any baseline result has the same multiset of scores, ties may be broken differently
+      val baselineScores = scores.filter(entry => isCompatible(entry._1)).take(maxSize).map(_._2)
+      assert(expansion.values.map(_.score).toSeq == baselineScores)
+    }
+  }
+
+  it should "not read the full list if the page was not full" in {
+    val page = columns("a" -> 1.0, "b" -> 0.5)
+    val (expansion, scanned) = DistributionalThesaurusComputer.compatiblePriorExpansion(page, 4,
+      fail("Read the full list"), 3, _ != "b")
+    assertRanked(expansion, Seq("a"))
+    assert(scanned == 2)
+  }
+
+  it should "not read the full list if the page filled the expansion" in {
+    val page = columns("a" -> 1.0, "b" -> 0.5, "c" -> 0.25)
+    val (expansion, _) = DistributionalThesaurusComputer.compatiblePriorExpansion(page, 3,
+      fail("Read the full list"), 2, _ => true)
+    assertRanked(expansion, Seq("a", "b"))
+  }
+}
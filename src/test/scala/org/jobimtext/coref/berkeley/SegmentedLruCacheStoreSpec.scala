@@ -0,0 +1,178 @@
+package org.jobimtext.coref.berkeley
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Callable, CountDownLatch, Executors, TimeUnit}
+
+import org.jobimtext.coref.CorefSpec
+
+/**
+ * Specifies the eviction order of the [[SegmentedLruCacheStore]] and the single-flight loading of the cache stores.
+ */
+class SegmentedLruCacheStoreSpec extends CorefSpec {
+  // ten entries of 10 bytes fit, eight of them in the protected segment
+  private def newStore() = new SegmentedLruCacheStore[Int, String]("test", 100, (_, _) => 10)
+
+  private def put(store: CacheStore[Int, String], keys: Int*): Unit = {
+    for (key <- keys) store.getOrElseUpdate(key, "v" + key)
+  }
+
+  // a request of a stored key, which must not compute the value
+  private def hit(store: CacheStore[Int, String], keys: Int*): Unit = {
+    for (key <- keys) assert(store.getOrElseUpdate(key, fail("Recomputed " + key)) == "v" + key)
+  }
+
+  "A SegmentedLruCacheStore" should "evict the least recently admitted entry when it is full" in {
+    val store = newStore()
+    put(store, 0 until 10: _*)
+    assert(store.size == 10)
+    assert(store.bytes == 100)
+
+    put(store, 10)
+    assert(!store.contains(0))
+    assert((1 to 10).forall(store.contains))
+    assert(store.bytes == 100)
+    assert(store.statistics.evictions == 1)
+  }
+
+  it should "keep an entry that was requested again over entries on probation" in {
+    val store = newStore()
+    put(store, 0 until 10: _*)
+    hit(store, 0)
+
+    put(store, 10)
+    assert(store.contains(0))
+    assert(!store.contains(1))
+  }
+
+  it should "demote the least recently used protected entry when the protected segment is full" in {
+    val store = newStore()
+    put(store, 0 until 10: _*)
+    // 0 to 7 fill the protected segment, promoting 8 demotes 0 to the most recently used end of the probation
+    hit(store, 0 until 9: _*)
+
+    put(store, 10)
+    assert(!store.contains(9))
+    assert(store.contains(0))
+
+    put(store, 11)
+    assert(!store.contains(0))
+    assert(store.contains(10))
+    assert((1 to 8).forall(store.contains))
+  }
+
+  it should "not store an entry larger than its capacity" in {
+    val store = new SegmentedLruCacheStore[Int, String]("test", 100, (key, _) => if (key == 0) 101 else 10)
+    put(store, 1, 0)
+    assert(!store.contains(0))
+    assert(store.contains(1))
+    assert(store.statistics.evictions == 1)
+  }
+
+  it should "count hits and misses" in {
+    val store = newStore()
+    put(store, 0, 1)
+    hit(store, 0, 0, 1)
+    assert(store.statistics.misses == 2)
+    assert(store.statistics.hits == 3)
+  }
+
+  it should "forget all entries when cleared" in {
+    val store = newStore()
+    put(store, 0, 1)
+    hit(store, 0)
+    store.clear()
+    assert(store.size == 0)
+    assert(store.bytes == 0)
+    assert(!store.contains(0))
+  }
+
+  "A cache store" should "compute a value requested by several threads at once only once" in {
+    for (store <- Seq(newStore(), new UnboundedCacheStore[Int, String]("test", (_, _) => 10))) {
+      val computations = new AtomicInteger()
+      val started = new CountDownLatch(1)
+      val release = new CountDownLatch(1)
+      def compute(): String = {
+        computations.incrementAndGet()
+        started.countDown()
+        release.await()
+        "v0"
+      }
+
+      val pool = Executors.newFixedThreadPool(4)
+      try {
+        val first = pool.submit(new Callable[String] {
+          override def call(): String = store.getOrElseUpdate(0, compute())
+        })
+        assert(started.await(10, TimeUnit.SECONDS))
+        val others = for (i <- 0 until 3) yield pool.submit(new Callable[String] {
+          override def call(): String = store.getOrElseUpdate(0, compute())
+        })
+        // give the other requests time to find the running computation
+        Thread.sleep(100)
+        release.countDown()
+
+        assert(first.get(10, TimeUnit.SECONDS) == "v0")
+        for (other <- others) assert(other.get(10, TimeUnit.SECONDS) == "v0")
+        assert(computations.get == 1)
+        assert(store.statistics.misses == 1)
+        // the other requests waited for the computation, they were not answered from the cache
+        assert(store.statistics.joins == 3)
+        assert(store.statistics.hits == 0)
+      } finally {
+        pool.shutdownNow()
+      }
+    }
+  }
+
+  it should "pass the failure of a computation to all waiting threads and retry afterwards" in {
+    val store = newStore()
+    val started = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    def failing(): String = {
+      started.countDown()
+      release.await()
+      throw new IllegalStateException("lookup failed")
+    }
+
+    val pool = Executors.newFixedThreadPool(2)
+    try {
+      val first = pool.submit(new Callable[String] {
+        override def call(): String = store.getOrElseUpdate(0, failing())
+      })
+      assert(started.await(10, TimeUnit.SECONDS))
+      val second = pool.submit(new Callable[String] {
+        override def call(): String = store.getOrElseUpdate(0, failing())
+      })
+      Thread.sleep(100)
+      release.countDown()
+
+      for (request <- Seq(first, second)) {
+        val e = intercept[java.util.concurrent.ExecutionException] {
+          request.get(10, TimeUnit.SECONDS)
+        }
+        assert(e.getCause.isInstanceOf[IllegalStateException])
+      }
+      assert(!store.contains(0))
+      assert(store.getOrElseUpdate(0, "v0") == "v0")
+    } finally {
+      pool.shutdownNow()
+    }
+  }
+
+  it should "compute a value requested again by its own computation instead of waiting for itself" in {
+    for (store <- Seq(newStore(), new UnboundedCacheStore[Int, String]("test", (_, _) => 10))) {
+      val pool = Executors.newSingleThreadExecutor()
+      try {
+        val request = pool.submit(new Callable[String] {
+          override def call(): String = store.getOrElseUpdate(0, store.getOrElseUpdate(0, "inner") + " outer")
+        })
+        assert(request.get(10, TimeUnit.SECONDS) == "inner outer")
+        assert(store.getOrElseUpdate(0, "v0") == "inner outer")
+        assert(store.statistics.misses == 2)
+        assert(store.statistics.joins == 0)
+      } finally {
+        pool.shutdownNow()
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.jobimtext.coref.berkeley
+
+import java.io.{File, RandomAccessFile}
+
+import org.jobimtext.coref.CorefSpec
+
+import scala.collection.mutable
+
+/**
+ * Specifies that a [[ThesaurusDiskCache]] reads back the records of earlier runs, and that records damaged on disk are
+ * computed again without disabling the cache.
+ */
+class ThesaurusDiskCacheSpec extends CorefSpec {
+  private def withFile(test: File => Unit): Unit = {
+    val file = File.createTempFile("thesaurus", ".cache")
+    try {
+      test(file)
+    } finally {
+      file.delete()
+    }
+  }
+
+  private def expansion(terms: String*) = {
+    val expansion = new mutable.LinkedHashMap[String, ExpansionIndexHolder]()
+    for ((term, i) <- terms.zipWithIndex) expansion(term) = ExpansionIndexHolder(i, 1.0 / (i + 1))
+    expansion
+  }
+
+  private def writeCache(file: File): Unit = {
+    val cache = new ThesaurusDiskCache(file)
+    cache.priorExpansion("x")(expansion("y", "z"))
+    cache.termCount("a")(1L)
+    cache.termCount("b")(2L)
+    cache.destroy()
+  }
+
+  "A thesaurus disk cache" should "read the records of an earlier run" in withFile { file =>
+    writeCache(file)
+    val cache = new ThesaurusDiskCache(file)
+    try {
+      assert(cache.size == 3)
+      assert(cache.priorExpansion("x")(fail("Recomputed x")) == expansion("y", "z"))
+      assert(cache.termCount("a")(fail("Recomputed a")) == 1L)
+      assert(cache.termCount("b")(fail("Recomputed b")) == 2L)
+      assert(cache.statistics.hits == 3)
+    } finally {
+      cache.destroy()
+    }
+  }
+
+  it should "read records that are not written to the file yet" in withFile { file =>
+    val cache = new ThesaurusDiskCache(file)
+    try {
+      cache.termCount("a")(1L)
+      assert(cache.termCount("a")(fail("Recomputed a")) == 1L)
+    } finally {
+      cache.destroy()
+    }
+  }
+
+  it should "cut off a record left incomplete at the end of the file" in withFile { file =>
+    writeCache(file)
+    val raf = new RandomAccessFile(file, "rw")
+    try {
+      raf.setLength(raf.length - 3)
+    } finally {
+      raf.close()
+    }
+
+    val cache = new ThesaurusDiskCache(file)
+    try {
+      assert(cache.size == 2)
+      assert(cache.termCount("a")(fail("Recomputed a")) == 1L)
+      assert(cache.termCount("b")(5L) == 5L)
+      assert(cache.statistics.misses == 1)
+    } finally {
+      cache.destroy()
+    }
+    val reopened = new ThesaurusDiskCache(file)
+    try {
+      assert(reopened.termCount("b")(fail("Recomputed b")) == 5L)
+    } finally {
+      reopened.destroy()
+    }
+  }
+
+  it should "compute a corrupt record again and keep reading the others" in withFile { file =>
+    writeCache(file)
+    // the expansion of "x" is the first record: header, record length, kind, key length, key and then its size
+    val raf = new RandomAccessFile(file, "rw")
+    try {
+      raf.seek(8 + 4 + 1 + 4 + 1)
+      raf.writeInt(Int.MaxValue)
+    } finally {
+      raf.close()
+    }
+
+    val cache = new ThesaurusDiskCache(file)
+    try {
+      assert(cache.priorExpansion("x")(expansion("w")) == expansion("w"))
+      assert(cache.statistics.misses == 1)
+      assert(cache.termCount("a")(fail("Recomputed a")) == 1L)
+      assert(cache.containsPriorExpansion("x"))
+    } finally {
+      cache.destroy()
+    }
+    val reopened = new ThesaurusDiskCache(file)
+    try {
+      assert(reopened.priorExpansion("x")(fail("Recomputed x")) == expansion("w"))
+    } finally {
+      reopened.destroy()
+    }
+  }
+}
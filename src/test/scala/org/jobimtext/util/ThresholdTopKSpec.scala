@@ -0,0 +1,138 @@
+package org.jobimtext.util
+
+import org.jobimtext.api.struct.Order2Columns
+import org.jobimtext.coref.CorefSpec
+
+import scala.util.Random
+
+/**
+ * Specifies that [[ThresholdTopK]] selects the same terms as a full scan of the posting lists.
+ */
+class ThresholdTopKSpec extends CorefSpec {
+  private type Posting = Seq[(String, Double)]
+
+  /**
+   * Random lists over a small vocabulary, sorted by decreasing score. Few distinct scores make ties common.
+   */
+  private def randomLists(random: Random, lists: Int, scores: Seq[Double]): IndexedSeq[Posting] = {
+    val vocabulary = (0 until 40).map("t" + _)
+    for (list <- 0 until lists) yield {
+      val terms = random.shuffle(vocabulary).take(1 + random.nextInt(vocabulary.size))
+      terms.map(term => (term, scores(random.nextInt(scores.size)))).sortBy(-_._2)
+    }
+  }
+
+  private def fullSums(lists: Seq[Posting], maxDepth: Int): Map[String, Double] = {
+    val sums = scala.collection.mutable.Map.empty[String, Double].withDefaultValue(0.0)
+    for (list <- lists; (term, score) <- list.take(maxDepth)) sums(term) += math.log1p(score)
+    sums.toMap
+  }
+
+  /**
+   * Prefixes of the lists, as a new instance per request or as the complete list every time.
+   */
+  private def postings(lists: Seq[Posting], sameInstance: Boolean): ThresholdTopK.Postings = {
+    val complete = lists.map(list => columns(list, list.size))
+    new ThresholdTopK.Postings {
+      override def read(list: Int, depth: Int): Order2Columns =
+        if (sameInstance) complete(list) else columns(lists(list), depth)
+    }
+  }
+
+  private def columns(list: Posting, depth: Int): Order2Columns = {
+    val columns = new Order2Columns()
+    for ((term, score) <- list.take(depth)) columns.add(term, score)
+    columns
+  }
+
+  private val Epsilon = 1e-9
+
+  /**
+   * The selected terms must have the sums of the full scan's ranking rank by rank; terms with equal sums may be
+   * swapped.
+   */
+  private def assertSameRanking(lists: Seq[Posting], k: Int, maxDepth: Int, result: ThresholdTopK.Result): Unit = {
+    val sums = fullSums(lists, if (maxDepth <= 0) Int.MaxValue else maxDepth)
+    val expected = sums.values.toSeq.sortBy(-_).take(k)
+    assert(result.terms.length == expected.size)
+    assert(result.terms.distinct.length == result.terms.length)
+    for (rank <- 0 until expected.size) {
+      val term = result.terms(rank)
+      assert(math.abs(sums(term) - expected(rank)) < Epsilon, s"rank $rank: $term")
+      // the reported sums are lower bounds
+      assert(result.scores(rank) <= sums(term) + Epsilon)
+    }
+  }
+
+  "ThresholdTopK" should "select the terms of a full scan" in {
+    val random = new Random(42)
+    for (trial <- 0 until 200) {
+      val lists = randomLists(random, 1 + random.nextInt(6), Seq(0.1, 0.5, 1.0, 2.0, 4.0, 8.0))
+      val k = 1 + random.nextInt(12)
+      for (sameInstance <- Seq(false, true)) {
+        val result = ThresholdTopK.select(lists.size, k, postings(lists, sameInstance), 1 + random.nextInt(4), 0)
+        assertSameRanking(lists, k, 0, result)
+      }
+    }
+  }
+
+  it should "select the terms of a full scan when most scores are tied" in {
+    val random = new Random(7)
+    for (trial <- 0 until 200) {
+      val lists = randomLists(random, 1 + random.nextInt(6), Seq(1.0, 2.0))
+      val k = 1 + random.nextInt(12)
+      for (sameInstance <- Seq(false, true)) {
+        val result = ThresholdTopK.select(lists.size, k, postings(lists, sameInstance), 1, 0)
+        assertSameRanking(lists, k, 0, result)
+      }
+    }
+  }
+
+  it should "read only the first entries of each list up to the maximum depth" in {
+    val random = new Random(3)
+    for (trial <- 0 until 100) {
+      val lists = randomLists(random, 1 + random.nextInt(4), Seq(0.5, 1.0, 2.0, 4.0))
+      val maxDepth = 1 + random.nextInt(10)
+      val result = ThresholdTopK.select(lists.size, 5, postings(lists, sameInstance = false), 1, maxDepth)
+      assertSameRanking(lists, 5, maxDepth, result)
+    }
+  }
+
+  it should "fall back to reading the lists completely after a negative score" in {
+    val random = new Random(11)
+    for (trial <- 0 until 100) {
+      // the bounds only notice negative scores that are read, so one list starts with one
+      val negative = Seq(("t" + random.nextInt(40), -0.5), ("t" + (40 + random.nextInt(5)), -0.75))
+      val lists = randomLists(random, 1 + random.nextInt(4), Seq(0.5, 1.0, 2.0)) :+ negative
+      for (sameInstance <- Seq(false, true)) {
+        val result = ThresholdTopK.select(lists.size, 5, postings(lists, sameInstance), 1, 0)
+        assertSameRanking(lists, 5, 0, result)
+        // all entries are used after the fallback, so the sums are exact
+        val sums = fullSums(lists, Int.MaxValue)
+        for (rank <- 0 until result.terms.length) {
+          assert(math.abs(result.scores(rank) - sums(result.terms(rank))) < Epsilon)
+        }
+      }
+    }
+  }
+
+  it should "read fewer entries than a full scan if the lists agree on the best terms" in {
+    val lists = for (list <- 0 until 3) yield (0 until 100).map(i => ("t" + i, 100.0 / (1 << math.min(i, 30))))
+    val result = ThresholdTopK.select(lists.size, 3, postings(lists, sameInstance = true), 3, 0)
+    assert(result.terms.toSeq == Seq("t0", "t1", "t2"))
+    assert(result.entriesRead < lists.map(_.size).sum)
+  }
+
+  it should "not read the same entries again when the same list is returned for a deeper request" in {
+    val random = new Random(5)
+    val lists = randomLists(random, 4, Seq(0.1, 0.5, 1.0, 2.0, 4.0))
+    val result = ThresholdTopK.select(lists.size, 5, postings(lists, sameInstance = true), 1, 0)
+    assert(result.entriesRead <= lists.map(_.size).sum)
+  }
+
+  it should "return nothing for k = 0 or no lists" in {
+    val lists = IndexedSeq(Seq(("a", 1.0)))
+    assert(ThresholdTopK.select(1, 0, postings(lists, sameInstance = false), 1, 0).terms.isEmpty)
+    assert(ThresholdTopK.select(0, 3, postings(IndexedSeq(), sameInstance = false), 1, 0).terms.isEmpty)
+  }
+}